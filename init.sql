@@ -6,10 +6,10 @@ BEGIN
     END IF;
 END $$;
 
--- Insert sample orders with detailed metadata
-INSERT INTO orders (status, created_date, updated_date, metadata)
+-- Insert sample orders with detailed metadata. Ids come from the sequences the application allocates from
+INSERT INTO orders (id, status, created_date, updated_date, metadata)
 VALUES 
-    ('CREATED', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 
+    (nextval('orders_seq'), 'CREATED', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 
     '{
         "customerInfo": {
             "customerId": "CUST12345",
@@ -39,7 +39,7 @@ VALUES
         }
     }'::jsonb),
     
-    ('IN_PROGRESS', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 
+    (nextval('orders_seq'), 'IN_PROGRESS', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 
     '{
         "customerInfo": {
             "customerId": "CUST12346",
@@ -58,7 +58,7 @@ VALUES
         }
     }'::jsonb),
     
-    ('COMPLETED', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 
+    (nextval('orders_seq'), 'COMPLETED', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 
     '{
         "customerInfo": {
             "customerId": "CUST12347",
@@ -81,8 +81,9 @@ VALUES
     }'::jsonb);
 
 -- Insert sample tasks for each order with various task types
-INSERT INTO tasks (task_type, status, created_date, updated_date, completed_date, order_id)
+INSERT INTO tasks (id, task_type, status, created_date, updated_date, completed_date, order_id)
 SELECT 
+    nextval('tasks_seq'),
     task_type,
     status,
     created_date,
@@ -147,4 +148,7 @@ FROM (
             ('ARRANGE_SHIPPING')
     ) t(task_type)
     WHERE o.status = 'COMPLETED'
-) task_data; 
\ No newline at end of file
+) task_data; 
+
+-- The application keeps the per-order task counters with every task it writes; these tasks bypass it, so
+-- their orders keep a task_count of 0 until schema-postgresql.sql backfills them on the next start
@@ -2,10 +2,10 @@ package com.example.orderprocessing;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
-@EnableAsync // Enable asynchronous method execution
+@EnableScheduling // Drives the @Scheduled pollers: outbox relay, task retries, SLA timeouts, status counter reconciling
 public class OrderProcessingApplication {
 
 	public static void main(String[] args) {
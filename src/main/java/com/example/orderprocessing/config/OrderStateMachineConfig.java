@@ -2,6 +2,8 @@ package com.example.orderprocessing.config;
 
 import com.example.orderprocessing.enums.OrderEvent;
 import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.repository.OrderRepository;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -21,9 +23,12 @@ import java.util.EnumSet;
 
 @Slf4j
 @Configuration
+@RequiredArgsConstructor
 @EnableStateMachineFactory(name = "orderStateMachineFactory") // Named factory for clarity
 public class OrderStateMachineConfig extends EnumStateMachineConfigurerAdapter<OrderStatus, OrderEvent> {
 
+    private final OrderRepository orderRepository; // Read by the ALL_TASKS_COMPLETED guard
+
     @Override
     public void configure(StateMachineConfigurationConfigurer<OrderStatus, OrderEvent> config) throws Exception {
         config
@@ -231,14 +236,17 @@ public class OrderStateMachineConfig extends EnumStateMachineConfigurerAdapter<O
     @Bean
     public Guard<OrderStatus, OrderEvent> allTasksCompletedGuard() {
         return context -> {
-            Long orderId = context.getExtendedState().get("ORDER_ID", Long.class);
-            // In a real scenario, you'd check the TaskService or database
-            // to see if all tasks for this orderId are actually COMPLETED.
-            // For this example, we'll assume it's true if the event is sent.
-            // You could also pass a flag via event headers or extended state.
-            boolean tasksCompleted = Boolean.TRUE.equals(context.getMessageHeader("allTasksCompleted"));
+            Long orderId = context.getMessageHeaders().get("ORDER_ID", Long.class);
+            if (orderId == null) {
+                orderId = context.getExtendedState().get("ORDER_ID", Long.class);
+            }
+            // Checked against the order's task counters, which every task transition keeps up to date,
+            // instead of trusting the sender. Runs in the caller's transaction.
+            boolean tasksCompleted = orderId != null && orderRepository.findProgressById(orderId)
+                    .map(OrderRepository.OrderProgress::allTasksCompleted)
+                    .orElse(false);
             log.info("GUARD: Checking if all tasks are completed for order {}: {}", orderId, tasksCompleted);
-            return tasksCompleted; // Example: true
+            return tasksCompleted;
         };
     }
-}
\ No newline at end of file
+}
@@ -37,8 +37,7 @@ public class TaskStateMachineConfig extends EnumStateMachineConfigurerAdapter<Ta
                 .initial(TaskStatus.PENDING)
                 .states(EnumSet.allOf(TaskStatus.class))
                 .end(TaskStatus.COMPLETED)
-                .end(TaskStatus.CANCELLED)
-                .end(TaskStatus.FAILED); // FAILED can be an end state, or allow retry
+                .end(TaskStatus.CANCELLED); // FAILED is not an end state, so RETRY_TASK can leave it
     }
 
     @Override
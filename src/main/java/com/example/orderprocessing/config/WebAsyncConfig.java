@@ -0,0 +1,44 @@
+package com.example.orderprocessing.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Async request handling, which only the streaming endpoints use. Streams run on a pool of their own, as each
+ * holds a cursor, its transaction and a connection for as long as the client keeps reading. The pool has no
+ * queue, so once {@code workflow.listing.stream-concurrency} streams are running the next one is refused with
+ * a 503 instead of waiting, and the connection pool always has room for everything else.
+ */
+@Configuration
+public class WebAsyncConfig implements WebMvcConfigurer {
+
+    private final WorkflowProperties workflowProperties;
+
+    public WebAsyncConfig(WorkflowProperties workflowProperties) {
+        this.workflowProperties = workflowProperties;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor orderStreamExecutor() {
+        int concurrency = workflowProperties.getListing().getStreamConcurrency();
+        if (concurrency < 1) {
+            throw new IllegalStateException("workflow.listing.stream-concurrency must be at least 1");
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("order-stream-");
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setQueueCapacity(0);
+        return executor;
+    }
+
+    // Replaces the 30s default of the servlet container, which would cut off any stream of a large listing
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(orderStreamExecutor());
+        configurer.setDefaultTimeout(workflowProperties.getListing().getStreamTimeout().toMillis());
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.orderprocessing.config;
+
+import com.example.orderprocessing.support.KeyedMailboxExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class WorkflowExecutorConfig {
+
+    // Serializes events per order id while spreading different orders over parallel lanes
+    @Bean(destroyMethod = "close")
+    public KeyedMailboxExecutor orderEventMailbox(WorkflowProperties workflowProperties, MeterRegistry meterRegistry) {
+        WorkflowProperties.Mailbox mailbox = workflowProperties.getMailbox();
+        return new KeyedMailboxExecutor("order", mailbox.getLanes(), mailbox.getQueueCapacity(), meterRegistry);
+    }
+}
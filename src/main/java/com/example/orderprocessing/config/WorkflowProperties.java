@@ -0,0 +1,251 @@
+package com.example.orderprocessing.config;
+
+import com.example.orderprocessing.enums.OrderEvent;
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.enums.TaskType;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tunables for the order/task workflow, bound from the {@code workflow.*} properties.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "workflow")
+public class WorkflowProperties {
+
+    private final StateMachineSettings statemachine = new StateMachineSettings();
+    private final Transition transition = new Transition();
+    private final Mailbox mailbox = new Mailbox();
+    private final Batch batch = new Batch();
+    private final Listing listing = new Listing();
+    private final Ingest ingest = new Ingest();
+    private final Outbox outbox = new Outbox();
+    private final ViewCache viewCache = new ViewCache();
+    private final Stats stats = new Stats();
+    private final Journal journal = new Journal();
+    private final Worker worker = new Worker();
+    private final Tasks tasks = new Tasks();
+    private final Retry retry = new Retry();
+    private final Timeouts timeouts = new Timeouts();
+    private final Priority priority = new Priority();
+
+    public enum Engine {
+        // Lease a pooled Spring Statemachine per event
+        SPRING,
+        // Look transitions up in a table compiled from the Spring configuration at startup
+        TABLE
+    }
+
+    @Data
+    public static class StateMachineSettings {
+        private Engine engine = Engine.TABLE;
+        private final Pool pool = new Pool();
+    }
+
+    @Data
+    public static class Transition {
+        // Attempts per event when the compare-and-set status update loses a race
+        private int maxAttempts = 3;
+    }
+
+    @Data
+    public static class Mailbox {
+        // Lanes run in parallel; all events for one order land on the same lane
+        private int lanes = 16;
+        // Events allowed to wait per lane before new ones are rejected
+        private int queueCapacity = 10_000;
+    }
+
+    @Data
+    public static class Batch {
+        // Items applied per transaction (and per JDBC batch of status updates)
+        private int chunkSize = 500;
+        // Largest batch accepted in one request
+        private int maxItems = 10_000;
+    }
+
+    @Data
+    public static class Listing {
+        // Page size of GET /api/v1/orders when no limit is given
+        private int defaultLimit = 50;
+        // Largest page a client may ask for
+        private int maxLimit = 500;
+        // Rows fetched per cursor round trip when streaming, and orders held in memory at a time
+        private int streamFetchSize = 500;
+        // Longest a stream may run before it is cut off
+        private Duration streamTimeout = Duration.ofMinutes(30);
+        // Streams running at once, each holding a connection; more are answered 503
+        private int streamConcurrency = 4;
+    }
+
+    @Data
+    public static class Ingest {
+        // Orders written per transaction by the bulk endpoint; a multiple of hibernate.jdbc.batch_size
+        private int chunkSize = 1_000;
+    }
+
+    @Data
+    public static class Outbox {
+        // Rows claimed and delivered per relay transaction
+        private int batchSize = 100;
+        // Pause between polls once the outbox has been drained
+        private Duration pollInterval = Duration.ofMillis(200);
+        // How long a failed delivery waits before it is attempted again
+        private Duration retryDelay = Duration.ofSeconds(5);
+        // How long a task completion waits for completions of sibling tasks before its order is checked
+        private Duration completionWindow = Duration.ofMillis(100);
+        // How long claimed rows are hidden from other relays while they are delivered; longer than any
+        // delivery and than completion-window
+        private Duration lease = Duration.ofMinutes(1);
+    }
+
+    @Data
+    public static class ViewCache {
+        // Serialized views kept per kind (order, order tasks, task); the least recently used go first
+        private long maximumSize = 10_000;
+        // Upper bound on how long a view is served without being read again, whatever the invalidation
+        private Duration timeToLive = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Stats {
+        // How often the in-memory status counts are checked against grouped counts in the database
+        private Duration reconcileInterval = Duration.ofMinutes(1);
+    }
+
+    public enum JournalMode {
+        // Queue entries after the commit and write them in groups from a background thread
+        ASYNC,
+        // Write entries in the transaction of the transition, before the response is sent
+        SYNC
+    }
+
+    @Data
+    public static class Journal {
+        private JournalMode mode = JournalMode.ASYNC;
+        // Entries written per group commit at most
+        private int batchSize = 500;
+        // How long a group stays open after its first entry, waiting for more
+        private Duration flushInterval = Duration.ofMillis(20);
+        // Entries allowed to wait for the writer
+        private int queueCapacity = 50_000;
+        // How long a committing thread waits for room in a full queue before its entries are dropped
+        private Duration offerTimeout = Duration.ofMillis(10);
+    }
+
+    @Data
+    public static class Worker {
+        // Workers running task handlers in this instance; 0 disables them
+        private int threads = 4;
+        // Most tasks claimed per transaction; never more than there are idle workers
+        private int batchSize = 10;
+        // How long the dispatcher waits for ready tasks after a claim came back short, unless a handler finishes first
+        private Duration pollInterval = Duration.ofMillis(500);
+    }
+
+    @Data
+    public static class Tasks {
+        // Task types that must complete before a task of the key type runs, within one order. By default
+        // validation comes first, then payment and inventory side by side, then packaging.
+        private Map<TaskType, List<TaskType>> dependencies = new EnumMap<>(Map.of(
+                TaskType.PROCESS_PAYMENT, List.of(TaskType.VALIDATE_ORDER_DETAILS),
+                TaskType.CHECK_INVENTORY, List.of(TaskType.VALIDATE_ORDER_DETAILS),
+                TaskType.PACKAGING, List.of(TaskType.PROCESS_PAYMENT, TaskType.CHECK_INVENTORY)));
+    }
+
+    @Data
+    public static class Retry {
+        // Retries fired per poll at most; with poll-interval this caps the rate at which a backlog drains
+        private int batchSize = 50;
+        // Pause between polls for due retries
+        private Duration pollInterval = Duration.ofSeconds(1);
+        // Policy of task types without one of their own
+        private final RetryPolicy defaultPolicy = new RetryPolicy();
+        // Policies per task type; fields left unset take the built-in defaults, not those of default-policy
+        private Map<TaskType, RetryPolicy> policies = new EnumMap<>(TaskType.class);
+    }
+
+    @Data
+    public static class RetryPolicy {
+        // Runs of a task in total, the first one included; 1 disables automatic retries
+        private int maxAttempts = 3;
+        // Delay before the first retry; doubled for every further failure
+        private Duration baseDelay = Duration.ofSeconds(5);
+        // Longest delay, however many times the task has failed
+        private Duration maxDelay = Duration.ofMinutes(5);
+        // Share of each delay drawn at random, from 0 (none) to 1 (anywhere between zero and the full delay)
+        private double jitter = 0.5;
+    }
+
+    @Data
+    public static class Timeouts {
+        // Resolution of the deadlines; a timeout fires up to one tick after it is due
+        private Duration tick = Duration.ofMillis(100);
+        // How long expired deadlines wait to fire again when their events could not be sent
+        private Duration retryDelay = Duration.ofSeconds(30);
+        // How long a task may stay in a status before the event is sent to it; an after of 0 disables one.
+        // By default tasks whose worker never reported back fail after 30 minutes.
+        private Map<TaskStatus, TaskTimeout> tasks = new EnumMap<>(Map.of(
+                TaskStatus.IN_PROGRESS, new TaskTimeout(Duration.ofMinutes(30), TaskEvent.FAIL_TASK)));
+        // The same for orders; by default unpaid orders are cancelled after 30 minutes, held ones after a day
+        private Map<OrderStatus, OrderTimeout> orders = new EnumMap<>(Map.of(
+                OrderStatus.PAYMENT_PENDING, new OrderTimeout(Duration.ofMinutes(30), OrderEvent.CANCEL_ORDER),
+                OrderStatus.ON_HOLD, new OrderTimeout(Duration.ofDays(1), OrderEvent.CANCEL_ORDER)));
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class TaskTimeout {
+        private Duration after = Duration.ZERO;
+        private TaskEvent event = TaskEvent.FAIL_TASK;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class OrderTimeout {
+        private Duration after = Duration.ZERO;
+        private OrderEvent event = OrderEvent.CANCEL_ORDER;
+    }
+
+    @Data
+    public static class Priority {
+        // Lanes in the order their conditions are tried; an order joins the first that matches its metadata
+        private List<PriorityLane> lanes = new ArrayList<>();
+        // Weight of the default lane, which takes the orders that match no condition
+        private int defaultWeight = 1;
+    }
+
+    @Data
+    public static class PriorityLane {
+        // Stored on orders, tasks and outbox rows, so renaming a lane moves its waiting work to the default lane
+        private String name;
+        // SpEL over the metadata object, e.g. shippingMethod == "EXPRESS"
+        private String condition;
+        // Share of every claim relative to the other lanes' weights
+        private int weight = 1;
+    }
+
+    @Data
+    public static class Pool {
+        // Machines built and started eagerly when the pool is created
+        private int initialSize = 4;
+        // Upper bound on machines alive at once; callers wait once it is reached
+        private int maxSize = 64;
+        // How long a caller waits for a machine to be returned before giving up
+        private Duration leaseTimeout = Duration.ofSeconds(5);
+    }
+}
@@ -1,89 +1,227 @@
 package com.example.orderprocessing.controller;
 
 import com.example.orderprocessing.dto.*;
+import com.example.orderprocessing.enums.OrderStatus;
 import com.example.orderprocessing.model.Order;
-import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.exception.TransitionConflictException;
+import com.example.orderprocessing.repository.OrderQueryRepository.MetadataSearch;
+import com.example.orderprocessing.repository.OrderQueryRepository.OrderFields;
+import com.example.orderprocessing.repository.OrderQueryRepository.OrderFilter;
+import com.example.orderprocessing.repository.OrderQueryRepository.OrderPage;
+import com.example.orderprocessing.service.OrderIngestService;
 import com.example.orderprocessing.service.OrderService;
-import com.example.orderprocessing.service.TaskService;
+import com.example.orderprocessing.service.OrderViewCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/v1/orders")
 @RequiredArgsConstructor
 public class OrderController {
 
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String MERGE_PATCH = "application/merge-patch+json";
+
     private final OrderService orderService;
-    private final TaskService taskService; // For fetching tasks related to an order
-
-    // --- DTO Mapping Utilities (could be moved to a dedicated mapper class) ---
-    private OrderDto convertToDto(Order order) {
-        if (order == null) return null;
-        List<TaskDto> taskDtos = order.getTasks() != null ?
-                order.getTasks().stream().map(this::convertTaskToDto).collect(Collectors.toList()) :
-                List.of();
-        return new OrderDto(
-                order.getId(),
-                order.getStatus(),
-                order.getCreatedDate(),
-                order.getUpdatedDate(),
-                order.getMetadata(),
-                taskDtos
-        );
-    }
-
-    private TaskDto convertTaskToDto(Task task) {
-        if (task == null) return null;
-        return new TaskDto(
-                task.getId(),
-                task.getOrder() != null ? task.getOrder().getId() : null,
-                task.getTaskType(),
-                task.getStatus(),
-                task.getCreatedDate(),
-                task.getUpdatedDate(),
-                task.getCompletedDate()
-        );
-    }
+    private final OrderIngestService orderIngestService;
+    private final ObjectMapper objectMapper;
 
     // --- CRUD Endpoints ---
     @PostMapping
     public ResponseEntity<OrderDto> createOrder(@RequestBody CreateOrderRequest createOrderRequest) {
         // Add validation for createOrderRequest if needed (e.g., using @Valid)
         Order order = orderService.createOrder(createOrderRequest);
-        return ResponseEntity.status(HttpStatus.CREATED).body(convertToDto(order));
+        return ResponseEntity.status(HttpStatus.CREATED).body(DtoMapper.toDto(order));
     }
 
-    @GetMapping("/{orderId}")
-    public ResponseEntity<OrderDto> getOrderById(@PathVariable Long orderId) {
-        return orderService.getOrderById(orderId)
-                .map(this::convertToDto)
-                .map(ResponseEntity::ok)
+    // Bulk creation: one CreateOrderRequest per line in, one {"line":n,"id":...} or {"line":n,"error":...} per line out
+    @PostMapping(value = "/bulk", consumes = NDJSON, produces = NDJSON)
+    public void bulkCreateOrders(BufferedReader body, HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        Writer out = response.getWriter();
+        orderIngestService.ingest(body, result -> {
+            try {
+                out.write(objectMapper.writeValueAsString(result));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        out.flush();
+    }
+
+    // The full order is served from the view cache as already serialized JSON. The ETag is the order's
+    // version, which also changes with its tasks, so If-None-Match is answered with a 304 without reading
+    // the order. "fields" and "include=tasks" narrow the response, and the query, to what is asked for;
+    // a narrowed response is tagged with the version and a fingerprint of the fields it holds.
+    @GetMapping(value = "/{orderId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getOrderById(@PathVariable Long orderId,
+                                          @RequestParam(required = false) String fields,
+                                          @RequestParam(required = false) String include,
+                                          WebRequest request) {
+        OrderFields orderFields;
+        try {
+            orderFields = OrderFields.parse(fields, include);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            Optional<String> eTag = orderService.findOrderETag(orderId, orderFields);
+            if (eTag.isPresent() && request.checkNotModified(eTag.get())) {
+                return null; // 304 already written
+            }
+        }
+        if (!orderFields.isAll()) {
+            return orderService.findOrderDto(orderId, orderFields)
+                    .map(order -> ResponseEntity.ok()
+                            .eTag(OrderViewCache.View.eTag(order.getVersion(), orderFields.fingerprint()))
+                            .body(sparse(order, orderFields)))
+                    .orElse(ResponseEntity.notFound().build());
+        }
+        return orderService.findOrderView(orderId)
+                .map(view -> ResponseEntity.ok().eTag(view.eTag()).body(view.body()))
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    // Keyset paging: pass the id of the last order received as "after" to get the next page.
+    // A Link rel="next" header is set while more orders follow.
     @GetMapping
-    public ResponseEntity<List<OrderDto>> getAllOrders() {
-        List<OrderDto> orderDtos = orderService.getAllOrders().stream()
-                .map(this::convertToDto)
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(orderDtos);
+    public ResponseEntity<?> getOrders(
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) OrderStatus status,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime createdFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime createdTo,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String include) {
+        OrderFields orderFields;
+        try {
+            orderFields = OrderFields.parse(fields, include);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        OrderPage page = orderService.findOrders(new OrderFilter(status, createdFrom, createdTo), after, limit, orderFields);
+        return pageResponse(page, orderFields);
+    }
+
+    // Orders by metadata: customerInfo.customerId, paymentDetails.transactionId and/or the productId of any
+    // item. Paged like getOrders; at least one criterion is required.
+    @GetMapping("/search")
+    public ResponseEntity<?> searchOrders(
+            @RequestParam(required = false) String customerId,
+            @RequestParam(required = false) String transactionId,
+            @RequestParam(required = false) String productId,
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String include) {
+        MetadataSearch search = new MetadataSearch(customerId, transactionId, productId);
+        if (search.isEmpty()) {
+            return ResponseEntity.badRequest().body("At least one of customerId, transactionId or productId is required");
+        }
+        OrderFields orderFields;
+        try {
+            orderFields = OrderFields.parse(fields, include);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        return pageResponse(orderService.searchOrders(search, after, limit, orderFields), orderFields);
+    }
+
+    // A Link rel="next" header is set while more orders follow
+    private static ResponseEntity<?> pageResponse(OrderPage page, OrderFields orderFields) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextAfter() != null) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", page.nextAfter())
+                    .toUriString();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(orderFields.isAll() ? page.orders() : sparse(page.orders(), orderFields));
+    }
+
+    // Same filters as getOrders without a page bound, written as newline-delimited JSON while it is read
+    @GetMapping(value = "/stream", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamOrders(
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) OrderStatus status,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime createdFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime createdTo,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String include) {
+        OrderFields orderFields;
+        try {
+            orderFields = OrderFields.parse(fields, include);
+        } catch (IllegalArgumentException e) {
+            // Thrown, as the streaming return value handler needs the declared StreamingResponseBody body type
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        OrderFilter filter = new OrderFilter(status, createdFrom, createdTo);
+        ObjectWriter writer = orderFields.isAll() ? objectMapper.writer() : objectMapper.writer(fieldsFilter(orderFields));
+        StreamingResponseBody body = out -> orderService.streamOrders(filter, after, orderFields, order -> {
+            try {
+                out.write(writer.writeValueAsBytes(order));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+    // Every stream thread is busy; see WebAsyncConfig
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<String> streamRejected() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).contentType(MediaType.TEXT_PLAIN)
+                .body("Too many streams running, retry later.");
     }
 
     @PutMapping("/{orderId}")
     public ResponseEntity<OrderDto> updateOrderMetadata(@PathVariable Long orderId, @RequestBody UpdateOrderRequest updateOrderRequest) {
         try {
             Order updatedOrder = orderService.updateOrder(orderId, updateOrderRequest);
-            return ResponseEntity.ok(convertToDto(updatedOrder));
+            return ResponseEntity.ok(DtoMapper.toDto(updatedOrder));
         } catch (RuntimeException e) { // Replace with specific exceptions
             return ResponseEntity.notFound().build();
         }
     }
 
+    // Partial metadata update (RFC 7396): the patch is merged into the stored document by the database.
+    // Answers 204 with the order's new version as ETag.
+    @PatchMapping(value = "/{orderId}/metadata", consumes = {MERGE_PATCH, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<Void> patchOrderMetadata(@PathVariable Long orderId, @RequestBody JsonNode patch) {
+        return orderService.patchOrderMetadata(orderId, patch)
+                .map(version -> ResponseEntity.noContent().eTag(OrderViewCache.View.eTag(version)).<Void>build())
+                .orElse(ResponseEntity.notFound().build());
+    }
+
     // --- State Machine Event Endpoints ---
     @PostMapping("/{orderId}/event")
     public ResponseEntity<?> sendOrderEvent(@PathVariable Long orderId, @RequestBody OrderEventRequest eventRequest) {
@@ -91,14 +229,18 @@ public class OrderController {
             // TODO: Add authorization/validation: Who can send which event?
             boolean success = orderService.sendOrderEvent(orderId, eventRequest.getEvent(), eventRequest.getReason());
             if (success) {
-                Order updatedOrder = orderService.getOrderById(orderId)
+                OrderDto updatedOrder = orderService.findOrderDto(orderId)
                         .orElseThrow(() -> new RuntimeException("Order not found after event processing: " + orderId));
-                return ResponseEntity.ok(convertToDto(updatedOrder));
+                return ResponseEntity.ok(updatedOrder);
             } else {
                 // Event not accepted by state machine in its current state
                 return ResponseEntity.status(HttpStatus.CONFLICT)
                         .body("Event " + eventRequest.getEvent() + " not accepted for order " + orderId + " in its current state.");
             }
+        } catch (TransitionConflictException e) { // Lost a race with a concurrent event, even after retrying
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (RejectedExecutionException e) { // The order's mailbox lane is full
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Too many pending events, retry later.");
         } catch (RuntimeException e) { // Catch exceptions like OrderNotFound
             if (e.getMessage() != null && e.getMessage().contains("not found")) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
@@ -107,12 +249,24 @@ public class OrderController {
         }
     }
 
+    @PostMapping("/events:batch")
+    public ResponseEntity<?> sendOrderEvents(@RequestBody List<OrderEventBatchItem> items) {
+        try {
+            return ResponseEntity.ok(orderService.sendOrderEvents(items));
+        } catch (IllegalArgumentException e) { // Too many items or an incomplete item
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (TransitionConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error processing event batch: " + e.getMessage());
+        }
+    }
+
     @PostMapping("/{orderId}/complete")
     public ResponseEntity<?> completeOrder(@PathVariable Long orderId) {
         try {
-            Order completedOrder = orderService.completeOrder(orderId);
-            return ResponseEntity.ok(convertToDto(completedOrder));
-        } catch (IllegalStateException e) {
+            return ResponseEntity.ok(orderService.completeOrder(orderId));
+        } catch (IllegalStateException | TransitionConflictException e) {
             return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (RuntimeException e) {
             if (e.getMessage() != null && e.getMessage().contains("not found")) {
@@ -123,16 +277,24 @@ public class OrderController {
     }
 
 
+    // Serializes only the requested OrderDto properties
+    private static MappingJacksonValue sparse(Object body, OrderFields fields) {
+        MappingJacksonValue value = new MappingJacksonValue(body);
+        value.setFilters(fieldsFilter(fields));
+        return value;
+    }
+
+    private static FilterProvider fieldsFilter(OrderFields fields) {
+        return new SimpleFilterProvider().addFilter(OrderDto.FIELDS_FILTER,
+                SimpleBeanPropertyFilter.filterOutAllExcept(fields.propertyNames()));
+    }
+
     // --- Task related endpoints (scoped under order) ---
-    @GetMapping("/{orderId}/tasks")
-    public ResponseEntity<List<TaskDto>> getTasksForOrder(@PathVariable Long orderId) {
-        // Check if order exists first
-        if (orderService.getOrderById(orderId).isEmpty()) {
-            return ResponseEntity.notFound().build();
-        }
-        List<TaskDto> taskDtos = taskService.getTasksForOrder(orderId).stream()
-                .map(this::convertTaskToDto)
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(taskDtos);
+    @GetMapping(value = "/{orderId}/tasks", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getTasksForOrder(@PathVariable Long orderId) {
+        // One statement both checks that the order exists and reads its tasks, and only on a cache miss
+        return orderService.findTaskViewsForOrder(orderId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
     }
 }
@@ -0,0 +1,23 @@
+package com.example.orderprocessing.controller;
+
+import com.example.orderprocessing.dto.StatusCountsDto;
+import com.example.orderprocessing.service.StatusCounters;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1/stats")
+@RequiredArgsConstructor
+public class StatsController {
+
+    private final StatusCounters statusCounters;
+
+    // Read from in-memory counters, never from the database; see StatusCounters for how current they are
+    @GetMapping("/status-counts")
+    public ResponseEntity<StatusCountsDto> getStatusCounts() {
+        return ResponseEntity.ok(statusCounters.snapshot());
+    }
+}
@@ -1,13 +1,20 @@
 package com.example.orderprocessing.controller;
 
 import com.example.orderprocessing.dto.TaskDto;
+import com.example.orderprocessing.dto.TaskEventBatchItem;
 import com.example.orderprocessing.dto.TaskEventRequest; // Assuming you create this similar to OrderEventRequest
-import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.exception.TransitionConflictException;
 import com.example.orderprocessing.service.TaskService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/v1/tasks") // Global task operations, could also be nested under orders
@@ -16,25 +23,17 @@ public class TaskController {
 
     private final TaskService taskService;
 
-    // DTO Mapper (could be shared or in a dedicated mapper)
-    private TaskDto convertToDto(Task task) {
-        if (task == null) return null;
-        return new TaskDto(
-                task.getId(),
-                task.getOrder() != null ? task.getOrder().getId() : null,
-                task.getTaskType(),
-                task.getStatus(),
-                task.getCreatedDate(),
-                task.getUpdatedDate(),
-                task.getCompletedDate()
-        );
-    }
-
-    @GetMapping("/{taskId}")
-    public ResponseEntity<TaskDto> getTaskById(@PathVariable Long taskId) {
-        return taskService.getTaskById(taskId)
-                .map(this::convertToDto)
-                .map(ResponseEntity::ok)
+    // Served from the view cache as already serialized JSON, with the task's version as its ETag
+    @GetMapping(value = "/{taskId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getTaskById(@PathVariable Long taskId, WebRequest request) {
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            Optional<String> eTag = taskService.findTaskETag(taskId);
+            if (eTag.isPresent() && request.checkNotModified(eTag.get())) {
+                return null; // 304 already written
+            }
+        }
+        return taskService.findTaskView(taskId)
+                .map(view -> ResponseEntity.ok().eTag(view.eTag()).body(view.body()))
                 .orElse(ResponseEntity.notFound().build());
     }
 
@@ -44,13 +43,15 @@ public class TaskController {
             // TODO: Add authorization/validation
             boolean success = taskService.sendTaskEvent(taskId, eventRequest.getEvent(), eventRequest.getReason());
             if (success) {
-                Task updatedTask = taskService.getTaskById(taskId)
+                TaskDto updatedTask = taskService.findTaskDto(taskId)
                         .orElseThrow(() -> new RuntimeException("Task not found after event processing: " + taskId));
-                return ResponseEntity.ok(convertToDto(updatedTask));
+                return ResponseEntity.ok(updatedTask);
             } else {
                 return ResponseEntity.status(HttpStatus.CONFLICT)
                         .body("Event " + eventRequest.getEvent() + " not accepted for task " + taskId + " in its current state.");
             }
+        } catch (TransitionConflictException e) { // Lost a race with a concurrent event, even after retrying
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (RuntimeException e) { // Catch exceptions like TaskNotFound
             if (e.getMessage() != null && e.getMessage().contains("not found")) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
@@ -58,4 +59,17 @@ public class TaskController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error processing event: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    @PostMapping("/events:batch")
+    public ResponseEntity<?> sendTaskEvents(@RequestBody List<TaskEventBatchItem> items) {
+        try {
+            return ResponseEntity.ok(taskService.sendTaskEvents(items));
+        } catch (IllegalArgumentException e) { // Too many items or an incomplete item
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (TransitionConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error processing event batch: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.orderprocessing.dto;
+
+// Outcome of one batch item, returned in the same position as the item in the request
+public class BatchEventResult {
+
+    public enum Outcome {
+        ACCEPTED,
+        REJECTED, // Not accepted in the entity's status at that point of the batch
+        NOT_FOUND
+    }
+
+    private Long id;
+    private Outcome outcome;
+    private String status; // Status after the item was applied; null if not found
+
+    public BatchEventResult() {
+    }
+
+    public BatchEventResult(Long id, Outcome outcome, String status) {
+        this.id = id;
+        this.outcome = outcome;
+        this.status = status;
+    }
+
+    public static BatchEventResult accepted(Long id, Enum<?> status) {
+        return new BatchEventResult(id, Outcome.ACCEPTED, status.name());
+    }
+
+    public static BatchEventResult rejected(Long id, Enum<?> status) {
+        return new BatchEventResult(id, Outcome.REJECTED, status.name());
+    }
+
+    public static BatchEventResult notFound(Long id) {
+        return new BatchEventResult(id, Outcome.NOT_FOUND, null);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public void setOutcome(Outcome outcome) {
+        this.outcome = outcome;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+}
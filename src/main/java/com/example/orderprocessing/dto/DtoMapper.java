@@ -0,0 +1,44 @@
+package com.example.orderprocessing.dto;
+
+import com.example.orderprocessing.model.Order;
+import com.example.orderprocessing.model.Task;
+
+import java.util.List;
+
+// Entity to DTO mapping shared by the controllers. Read endpoints project straight into DTOs in the
+// repositories instead; this is only for entities a write has just returned.
+public final class DtoMapper {
+
+    private DtoMapper() {
+    }
+
+    public static OrderDto toDto(Order order) {
+        if (order == null) return null;
+        List<TaskDto> taskDtos = order.getTasks() != null ?
+                order.getTasks().stream().map(DtoMapper::toDto).toList() :
+                List.of();
+        return new OrderDto(
+                order.getId(),
+                order.getStatus(),
+                order.getCreatedDate(),
+                order.getUpdatedDate(),
+                order.getVersion(),
+                order.getMetadata(),
+                taskDtos
+        );
+    }
+
+    public static TaskDto toDto(Task task) {
+        if (task == null) return null;
+        return new TaskDto(
+                task.getId(),
+                task.getOrder() != null ? task.getOrder().getId() : null, // Reads the proxy's id, no query
+                task.getTaskType(),
+                task.getStatus(),
+                task.getCreatedDate(),
+                task.getUpdatedDate(),
+                task.getVersion(),
+                task.getCompletedDate()
+        );
+    }
+}
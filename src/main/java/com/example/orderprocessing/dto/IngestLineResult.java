@@ -0,0 +1,42 @@
+package com.example.orderprocessing.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// One line of the bulk ingest response: the id of the created order, or why the input line was not stored
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IngestLineResult {
+    private long line;
+    private Long id;
+    private String error;
+
+    public IngestLineResult() {
+    }
+
+    public IngestLineResult(long line) {
+        this.line = line;
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public void setLine(long line) {
+        this.line = line;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -1,15 +1,20 @@
 package com.example.orderprocessing.dto;
 
 import com.example.orderprocessing.enums.OrderStatus;
+import com.fasterxml.jackson.annotation.JsonFilter;
 import com.fasterxml.jackson.databind.JsonNode;
 import java.time.LocalDateTime;
 import java.util.List;
 
+@JsonFilter(OrderDto.FIELDS_FILTER) // Set per response for sparse fieldsets; serialized in full otherwise
 public class OrderDto {
+    public static final String FIELDS_FILTER = "orderFields";
+
     private Long id;
     private OrderStatus status;
     private LocalDateTime createdDate;
     private LocalDateTime updatedDate;
+    private Long version; // Changes with the order and with any of its tasks; the ETag of the order
     private JsonNode metadata; // To represent customer info, delivery preferences, etc.
     private List<TaskDto> tasks;
 
@@ -18,11 +23,12 @@ public class OrderDto {
     public OrderDto() {
     }
 
-    public OrderDto(Long id, OrderStatus status, LocalDateTime createdDate, LocalDateTime updatedDate, JsonNode metadata, List<TaskDto> tasks) {
+    public OrderDto(Long id, OrderStatus status, LocalDateTime createdDate, LocalDateTime updatedDate, Long version, JsonNode metadata, List<TaskDto> tasks) {
         this.id = id;
         this.status = status;
         this.createdDate = createdDate;
         this.updatedDate = updatedDate;
+        this.version = version;
         this.metadata = metadata;
         this.tasks = tasks;
     }
@@ -59,6 +65,14 @@ public class OrderDto {
         this.updatedDate = updatedDate;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public JsonNode getMetadata() {
         return metadata;
     }
@@ -0,0 +1,43 @@
+package com.example.orderprocessing.dto;
+
+import com.example.orderprocessing.enums.OrderEvent;
+
+// One entry of POST /api/v1/orders/events:batch
+public class OrderEventBatchItem {
+    private Long orderId;
+    private OrderEvent event;
+    private String reason; // Optional
+
+    public OrderEventBatchItem() {
+    }
+
+    public OrderEventBatchItem(Long orderId, OrderEvent event, String reason) {
+        this.orderId = orderId;
+        this.event = event;
+        this.reason = reason;
+    }
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public OrderEvent getEvent() {
+        return event;
+    }
+
+    public void setEvent(OrderEvent event) {
+        this.event = event;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+}
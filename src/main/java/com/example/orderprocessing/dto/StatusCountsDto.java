@@ -0,0 +1,48 @@
+package com.example.orderprocessing.dto;
+
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.enums.TaskType;
+
+import java.time.Instant;
+import java.util.Map;
+
+// Orders per status and tasks per type and status, as counted in memory; every status is listed, zeros included
+public class StatusCountsDto {
+    private Map<OrderStatus, Long> orders;
+    private Map<TaskType, Map<TaskStatus, Long>> tasks;
+    private Instant reconciledAt; // Last time the counts were checked against the database; null before the first
+
+    public StatusCountsDto() {
+    }
+
+    public StatusCountsDto(Map<OrderStatus, Long> orders, Map<TaskType, Map<TaskStatus, Long>> tasks, Instant reconciledAt) {
+        this.orders = orders;
+        this.tasks = tasks;
+        this.reconciledAt = reconciledAt;
+    }
+
+    public Map<OrderStatus, Long> getOrders() {
+        return orders;
+    }
+
+    public void setOrders(Map<OrderStatus, Long> orders) {
+        this.orders = orders;
+    }
+
+    public Map<TaskType, Map<TaskStatus, Long>> getTasks() {
+        return tasks;
+    }
+
+    public void setTasks(Map<TaskType, Map<TaskStatus, Long>> tasks) {
+        this.tasks = tasks;
+    }
+
+    public Instant getReconciledAt() {
+        return reconciledAt;
+    }
+
+    public void setReconciledAt(Instant reconciledAt) {
+        this.reconciledAt = reconciledAt;
+    }
+}
@@ -11,6 +11,7 @@ public class TaskDto {
     private TaskStatus status;
     private LocalDateTime createdDate;
     private LocalDateTime updatedDate;
+    private Long version; // The ETag of the task
     private LocalDateTime completedDate;
 
     // Constructors, Getters, and Setters
@@ -18,13 +19,14 @@ public class TaskDto {
     public TaskDto() {
     }
 
-    public TaskDto(Long id, Long orderId, TaskType taskType, TaskStatus status, LocalDateTime createdDate, LocalDateTime updatedDate, LocalDateTime completedDate) {
+    public TaskDto(Long id, Long orderId, TaskType taskType, TaskStatus status, LocalDateTime createdDate, LocalDateTime updatedDate, Long version, LocalDateTime completedDate) {
         this.id = id;
         this.orderId = orderId;
         this.taskType = taskType;
         this.status = status;
         this.createdDate = createdDate;
         this.updatedDate = updatedDate;
+        this.version = version;
         this.completedDate = completedDate;
     }
 
@@ -76,6 +78,14 @@ public class TaskDto {
         this.updatedDate = updatedDate;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public LocalDateTime getCompletedDate() {
         return completedDate;
     }
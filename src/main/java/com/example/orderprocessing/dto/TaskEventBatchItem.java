@@ -0,0 +1,43 @@
+package com.example.orderprocessing.dto;
+
+import com.example.orderprocessing.enums.TaskEvent;
+
+// One entry of POST /api/v1/tasks/events:batch
+public class TaskEventBatchItem {
+    private Long taskId;
+    private TaskEvent event;
+    private String reason; // Optional
+
+    public TaskEventBatchItem() {
+    }
+
+    public TaskEventBatchItem(Long taskId, TaskEvent event, String reason) {
+        this.taskId = taskId;
+        this.event = event;
+        this.reason = reason;
+    }
+
+    public Long getTaskId() {
+        return taskId;
+    }
+
+    public void setTaskId(Long taskId) {
+        this.taskId = taskId;
+    }
+
+    public TaskEvent getEvent() {
+        return event;
+    }
+
+    public void setEvent(TaskEvent event) {
+        this.event = event;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+}
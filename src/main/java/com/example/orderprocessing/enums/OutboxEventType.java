@@ -0,0 +1,8 @@
+package com.example.orderprocessing.enums;
+
+/**
+ * Kinds of notification written to the outbox and delivered by the outbox relay.
+ */
+public enum OutboxEventType {
+    TASK_COMPLETED // A task reached COMPLETED, so its order may be able to progress
+}
@@ -0,0 +1,27 @@
+package com.example.orderprocessing.exception;
+
+/**
+ * Thrown when a compare-and-set status update matched no row because another writer changed the
+ * status first. The event can be retried against the new status.
+ */
+public class TransitionConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Long entityId;
+    private final Enum<?> expectedStatus;
+
+    public TransitionConflictException(String entityType, Long entityId, Enum<?> expectedStatus) {
+        super(entityType + " " + entityId + " is no longer in status " + expectedStatus);
+        this.entityId = entityId;
+        this.expectedStatus = expectedStatus;
+    }
+
+    public Long getEntityId() {
+        return entityId;
+    }
+
+    public Enum<?> getExpectedStatus() {
+        return expectedStatus;
+    }
+}
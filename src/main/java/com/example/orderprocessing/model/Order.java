@@ -8,18 +8,29 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.DynamicUpdate;
 import org.hibernate.annotations.Type;
 import org.hibernate.annotations.UpdateTimestamp;
 
 @Entity
-@Table(name = "orders") // "order" is a reserved keyword in SQL, so "orders" is safer
+@Table(
+  name = "orders", // "order" is a reserved keyword in SQL, so "orders" is safer
+  indexes = {
+    // Keyset listing: filter by status, page by id
+    @Index(name = "idx_orders_status_id", columnList = "status, id"),
+    @Index(name = "idx_orders_created_date", columnList = "created_date"),
+  }
+)
 @DynamicUpdate
 public class Order {
 
+  // Pooled sequence ids: Hibernate reserves 50 ids per sequence call and knows them before the INSERT,
+  // so inserts can be batched (IDENTITY forces one round trip per row to read the generated key)
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orders_seq")
+  @SequenceGenerator(name = "orders_seq", sequenceName = "orders_seq", allocationSize = 50)
   private Long id;
 
   @Enumerated(EnumType.STRING)
@@ -34,11 +45,49 @@ public class Order {
   @Column(name = "updated_date", nullable = false)
   private LocalDateTime updatedDate;
 
-  // For PostgreSQL JSONB
+  // When the status last changed, which SLA deadlines count from: set on insert and then only by the
+  // compare-and-set status updates, unlike updated_date, which every metadata or lane change bumps too
+  @CreationTimestamp
+  @Column(name = "status_changed_at", updatable = false)
+  private LocalDateTime statusChangedAt;
+
+  // Bumped by every entity update and by the compare-and-set status transitions
+  @Version
+  @ColumnDefault("0")
+  @Column(name = "version", nullable = false)
+  private Long version;
+
+  // Task progress, maintained by the statements that insert tasks and change their status, so that
+  // "are all tasks done" is a primary-key read instead of a scan of the order's tasks
+  @ColumnDefault("0")
+  @Column(name = "task_count", nullable = false)
+  private int taskCount;
+
+  @ColumnDefault("0")
+  @Column(name = "completed_task_count", nullable = false)
+  private int completedTaskCount;
+
+  @ColumnDefault("0")
+  @Column(name = "failed_task_count", nullable = false)
+  private int failedTaskCount;
+
+  @ColumnDefault("0")
+  @Column(name = "cancelled_task_count", nullable = false)
+  private int cancelledTaskCount;
+
+  // For PostgreSQL JSONB. Lazy (needs the bytecode enhancement configured in pom.xml): loading an order
+  // for its status, counters or tasks leaves the payload in the row; it is selected on first access
+  // The search paths are exposed as generated columns (and a GIN index) by schema-postgresql.sql, unmapped
+  @Basic(fetch = FetchType.LAZY)
   @Column(name = "metadata", columnDefinition = "jsonb")
   @Type(JsonType.class)
   private JsonNode metadata;
 
+  // Priority lane, chosen from the metadata by PriorityLanes and copied to the tasks
+  @ColumnDefault("'standard'")
+  @Column(nullable = false, length = 50)
+  private String lane = "standard";
+
   @OneToMany(
     mappedBy = "order",
     cascade = CascadeType.ALL,
@@ -90,6 +139,34 @@ public class Order {
     this.updatedDate = updatedDate;
   }
 
+  public LocalDateTime getStatusChangedAt() {
+    return statusChangedAt;
+  }
+
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
+
+  public int getTaskCount() {
+    return taskCount;
+  }
+
+  public int getCompletedTaskCount() {
+    return completedTaskCount;
+  }
+
+  public int getFailedTaskCount() {
+    return failedTaskCount;
+  }
+
+  public int getCancelledTaskCount() {
+    return cancelledTaskCount;
+  }
+
   public JsonNode getMetadata() {
     return metadata;
   }
@@ -98,6 +175,14 @@ public class Order {
     this.metadata = metadata;
   }
 
+  public String getLane() {
+    return lane;
+  }
+
+  public void setLane(String lane) {
+    this.lane = lane;
+  }
+
   public List<Task> getTasks() {
     return tasks;
   }
@@ -106,13 +191,25 @@ public class Order {
     this.tasks = tasks;
   }
 
+  // Only meant for new tasks (PENDING); status changes are counted by the transition statements
   public void addTask(Task task) {
     tasks.add(task);
     task.setOrder(this);
+    task.setLane(lane);
+    taskCount++;
   }
 
   public void removeTask(Task task) {
-    tasks.remove(task);
+    if (tasks.remove(task)) {
+      taskCount--;
+      switch (task.getStatus()) {
+        case COMPLETED -> completedTaskCount--;
+        case FAILED -> failedTaskCount--;
+        case CANCELLED -> cancelledTaskCount--;
+        default -> {
+        }
+      }
+    }
     task.setOrder(null);
   }
 
@@ -142,8 +239,6 @@ public class Order {
       createdDate +
       ", updatedDate=" +
       updatedDate +
-      ", metadata=" +
-      (metadata != null ? metadata.toString() : "null") +
       '}'
     );
   }
@@ -0,0 +1,85 @@
+package com.example.orderprocessing.model;
+
+import com.example.orderprocessing.enums.OrderEvent;
+import com.example.orderprocessing.enums.OrderStatus;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+// One accepted order event in the append-only transition journal. Rows are inserted in batches by
+// TransitionJournal through JDBC and never updated; the mapping keeps the table in the managed schema.
+@Entity
+@Table(
+  name = "order_transitions",
+  indexes = {
+    // The history of one order, in the order it was written
+    @Index(name = "idx_order_transitions_order_id", columnList = "order_id, id"),
+  }
+)
+public class OrderTransition {
+
+  // Generated by the database, as the journal inserts without reading keys back
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @Column(name = "order_id", nullable = false)
+  private Long orderId;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "from_status", nullable = false, length = 50)
+  private OrderStatus fromStatus;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "to_status", nullable = false, length = 50)
+  private OrderStatus toStatus;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, length = 50)
+  private OrderEvent event;
+
+  @Column(length = 1000)
+  private String reason;
+
+  @Column(name = "occurred_at", nullable = false)
+  private LocalDateTime occurredAt;
+
+  // From receiving the event (or the batch carrying it) to writing the new status
+  @Column(name = "latency_micros", nullable = false)
+  private long latencyMicros;
+
+  protected OrderTransition() {
+  }
+
+  // Getters
+  public Long getId() {
+    return id;
+  }
+
+  public Long getOrderId() {
+    return orderId;
+  }
+
+  public OrderStatus getFromStatus() {
+    return fromStatus;
+  }
+
+  public OrderStatus getToStatus() {
+    return toStatus;
+  }
+
+  public OrderEvent getEvent() {
+    return event;
+  }
+
+  public String getReason() {
+    return reason;
+  }
+
+  public LocalDateTime getOccurredAt() {
+    return occurredAt;
+  }
+
+  public long getLatencyMicros() {
+    return latencyMicros;
+  }
+}
@@ -0,0 +1,158 @@
+package com.example.orderprocessing.model;
+
+import com.example.orderprocessing.enums.OutboxEventType;
+import jakarta.persistence.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Objects;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.CreationTimestamp;
+
+// A notification written in the same transaction as the change it announces, and deleted by the
+// relay once delivered. Rows are only ever inserted, leased, retried and deleted, never otherwise updated.
+@Entity
+@Table(
+  name = "outbox_events",
+  indexes = {
+    // The relay claims the oldest due rows of each priority lane
+    @Index(name = "idx_outbox_events_lane_available_at", columnList = "lane, available_at, id"),
+    // ...and sweeps up the pending completions of the orders it is about to check
+    @Index(name = "idx_outbox_events_order_id", columnList = "order_id"),
+  }
+)
+public class OutboxEvent {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "outbox_events_seq")
+  @SequenceGenerator(name = "outbox_events_seq", sequenceName = "outbox_events_seq", allocationSize = 50)
+  private Long id;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "event_type", nullable = false, length = 50)
+  private OutboxEventType eventType;
+
+  @Column(name = "order_id", nullable = false)
+  private Long orderId;
+
+  @Column(name = "task_id")
+  private Long taskId;
+
+  // Priority lane of the order, so the relay can claim lane by lane without a join
+  @ColumnDefault("'standard'")
+  @Column(nullable = false, length = 50)
+  private String lane = "standard";
+
+  @CreationTimestamp
+  @Column(name = "created_date", nullable = false, updatable = false)
+  private LocalDateTime createdDate;
+
+  // Not delivered before this time; pushed back after a failed delivery
+  @Column(name = "available_at", nullable = false)
+  private LocalDateTime availableAt;
+
+  @Column(nullable = false)
+  private int attempts;
+
+  @Column(name = "last_error", length = 1000)
+  private String lastError;
+
+  // Constructors
+  public OutboxEvent() {
+  }
+
+  public OutboxEvent(OutboxEventType eventType, Long orderId, Long taskId) {
+    this.eventType = eventType;
+    this.orderId = orderId;
+    this.taskId = taskId;
+    this.availableAt = LocalDateTime.now();
+  }
+
+  // Held back for the coalescing window, so completions of sibling tasks that follow shortly after are
+  // delivered together and the order is checked once for all of them
+  public static OutboxEvent taskCompleted(Long orderId, Long taskId, String lane, Duration window) {
+    OutboxEvent event = new OutboxEvent(OutboxEventType.TASK_COMPLETED, orderId, taskId);
+    event.lane = lane;
+    event.availableAt = event.availableAt.plus(window);
+    return event;
+  }
+
+  // Hides a claimed row from other relays while it is being delivered; it comes due again if the
+  // relay never reports back
+  public void lease(LocalDateTime until) {
+    this.availableAt = until;
+  }
+
+  // What fits in last_error
+  public static String truncateError(String error) {
+    return error != null && error.length() > 1000 ? error.substring(0, 1000) : error;
+  }
+
+  // Getters and Setters
+  public Long getId() {
+    return id;
+  }
+
+  public OutboxEventType getEventType() {
+    return eventType;
+  }
+
+  public Long getOrderId() {
+    return orderId;
+  }
+
+  public Long getTaskId() {
+    return taskId;
+  }
+
+  public String getLane() {
+    return lane;
+  }
+
+  public LocalDateTime getCreatedDate() {
+    return createdDate;
+  }
+
+  public LocalDateTime getAvailableAt() {
+    return availableAt;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public String getLastError() {
+    return lastError;
+  }
+
+  // equals, hashCode, toString
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    OutboxEvent that = (OutboxEvent) o;
+    return Objects.equals(id, that.id);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(id);
+  }
+
+  @Override
+  public String toString() {
+    return (
+      "OutboxEvent{" +
+      "id=" +
+      id +
+      ", eventType=" +
+      eventType +
+      ", orderId=" +
+      orderId +
+      ", taskId=" +
+      taskId +
+      ", attempts=" +
+      attempts +
+      '}'
+    );
+  }
+}
@@ -5,15 +5,25 @@ import com.example.orderprocessing.enums.TaskType;
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
 import java.util.Objects;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
 @Entity
-@Table(name = "tasks")
+@Table(
+  name = "tasks",
+  indexes = {
+    // Tasks of a listed page are loaded with one "order_id in (...)" query
+    @Index(name = "idx_tasks_order_id", columnList = "order_id"),
+  }
+)
 public class Task {
 
+  // Pooled sequence ids: Hibernate reserves 50 ids per sequence call and knows them before the INSERT,
+  // so inserts can be batched (IDENTITY forces one round trip per row to read the generated key)
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tasks_seq")
+  @SequenceGenerator(name = "tasks_seq", sequenceName = "tasks_seq", allocationSize = 50)
   private Long id;
 
   @ManyToOne(fetch = FetchType.LAZY)
@@ -36,9 +46,36 @@ public class Task {
   @Column(name = "updated_date", nullable = false)
   private LocalDateTime updatedDate;
 
+  // When the status last changed, which SLA deadlines count from: set on insert and then only by the
+  // compare-and-set status updates, unlike updated_date, which every metadata or lane change bumps too
+  @CreationTimestamp
+  @Column(name = "status_changed_at", updatable = false)
+  private LocalDateTime statusChangedAt;
+
+  // Bumped by every entity update and by the compare-and-set status transitions
+  @Version
+  @ColumnDefault("0")
+  @Column(name = "version", nullable = false)
+  private Long version;
+
   @Column(name = "completed_date")
   private LocalDateTime completedDate;
 
+  // Tasks of this order that must complete before workers may claim this one; see TaskDependencies
+  @ColumnDefault("0")
+  @Column(name = "pending_prerequisites", nullable = false)
+  private int pendingPrerequisites;
+
+  // Times the task has failed; drives the backoff of its automatic retries, see TaskRetryPolicies
+  @ColumnDefault("0")
+  @Column(nullable = false)
+  private int attempts;
+
+  // The order's priority lane; workers claim ready tasks lane by lane, see PriorityLanes
+  @ColumnDefault("'standard'")
+  @Column(nullable = false, length = 50)
+  private String lane = "standard";
+
   // Constructors
   public Task() {
     this.status = TaskStatus.PENDING; // Default status
@@ -99,6 +136,18 @@ public class Task {
     this.updatedDate = updatedDate;
   }
 
+  public LocalDateTime getStatusChangedAt() {
+    return statusChangedAt;
+  }
+
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
+
   public LocalDateTime getCompletedDate() {
     return completedDate;
   }
@@ -107,6 +156,26 @@ public class Task {
     this.completedDate = completedDate;
   }
 
+  public int getPendingPrerequisites() {
+    return pendingPrerequisites;
+  }
+
+  public void setPendingPrerequisites(int pendingPrerequisites) {
+    this.pendingPrerequisites = pendingPrerequisites;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public String getLane() {
+    return lane;
+  }
+
+  public void setLane(String lane) {
+    this.lane = lane;
+  }
+
   // equals, hashCode, toString
   @Override
   public boolean equals(Object o) {
@@ -0,0 +1,100 @@
+package com.example.orderprocessing.model;
+
+import com.example.orderprocessing.enums.TaskType;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+// An automatic retry of a FAILED task, written in the transaction that failed it and deleted by the
+// TaskRetryScheduler once fired. A task has at most one; failing again replaces it.
+@Entity
+@Table(
+  name = "task_retries",
+  indexes = {
+    // The scheduler claims the retries that are due first
+    @Index(name = "idx_task_retries_due_at", columnList = "due_at, task_id"),
+  }
+)
+public class TaskRetry {
+
+  @Id
+  @Column(name = "task_id")
+  private Long taskId;
+
+  @Column(name = "order_id", nullable = false)
+  private Long orderId;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "task_type", nullable = false, length = 50)
+  private TaskType taskType;
+
+  // The failures so far; the retry is the run after this one
+  @Column(nullable = false)
+  private int attempt;
+
+  @Column(name = "due_at", nullable = false)
+  private LocalDateTime dueAt;
+
+  // Constructors
+  public TaskRetry() {
+  }
+
+  public TaskRetry(Long taskId, Long orderId, TaskType taskType, int attempt, LocalDateTime dueAt) {
+    this.taskId = taskId;
+    this.orderId = orderId;
+    this.taskType = taskType;
+    this.attempt = attempt;
+    this.dueAt = dueAt;
+  }
+
+  // Getters
+  public Long getTaskId() {
+    return taskId;
+  }
+
+  public Long getOrderId() {
+    return orderId;
+  }
+
+  public TaskType getTaskType() {
+    return taskType;
+  }
+
+  public int getAttempt() {
+    return attempt;
+  }
+
+  public LocalDateTime getDueAt() {
+    return dueAt;
+  }
+
+  // equals, hashCode, toString
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    TaskRetry that = (TaskRetry) o;
+    return Objects.equals(taskId, that.taskId);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(taskId);
+  }
+
+  @Override
+  public String toString() {
+    return (
+      "TaskRetry{" +
+      "taskId=" +
+      taskId +
+      ", taskType=" +
+      taskType +
+      ", attempt=" +
+      attempt +
+      ", dueAt=" +
+      dueAt +
+      '}'
+    );
+  }
+}
@@ -0,0 +1,92 @@
+package com.example.orderprocessing.model;
+
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.enums.TaskStatus;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+// One accepted task event in the append-only transition journal. Rows are inserted in batches by
+// TransitionJournal through JDBC and never updated; the mapping keeps the table in the managed schema.
+@Entity
+@Table(
+  name = "task_transitions",
+  indexes = {
+    // The history of one task, in the order it was written
+    @Index(name = "idx_task_transitions_task_id", columnList = "task_id, id"),
+  }
+)
+public class TaskTransition {
+
+  // Generated by the database, as the journal inserts without reading keys back
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @Column(name = "task_id", nullable = false)
+  private Long taskId;
+
+  @Column(name = "order_id", nullable = false)
+  private Long orderId;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "from_status", nullable = false, length = 50)
+  private TaskStatus fromStatus;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "to_status", nullable = false, length = 50)
+  private TaskStatus toStatus;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, length = 50)
+  private TaskEvent event;
+
+  @Column(length = 1000)
+  private String reason;
+
+  @Column(name = "occurred_at", nullable = false)
+  private LocalDateTime occurredAt;
+
+  // From receiving the event (or the batch carrying it) to writing the new status
+  @Column(name = "latency_micros", nullable = false)
+  private long latencyMicros;
+
+  protected TaskTransition() {
+  }
+
+  // Getters
+  public Long getId() {
+    return id;
+  }
+
+  public Long getTaskId() {
+    return taskId;
+  }
+
+  public Long getOrderId() {
+    return orderId;
+  }
+
+  public TaskStatus getFromStatus() {
+    return fromStatus;
+  }
+
+  public TaskStatus getToStatus() {
+    return toStatus;
+  }
+
+  public TaskEvent getEvent() {
+    return event;
+  }
+
+  public String getReason() {
+    return reason;
+  }
+
+  public LocalDateTime getOccurredAt() {
+    return occurredAt;
+  }
+
+  public long getLatencyMicros() {
+    return latencyMicros;
+  }
+}
@@ -0,0 +1,140 @@
+package com.example.orderprocessing.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * In-database updates of {@code orders.metadata} (PostgreSQL {@code jsonb}).
+ * <p>
+ * A JSON Merge Patch (RFC 7396) is compiled into one {@code jsonb} expression over the stored document
+ * and applied by a single {@code UPDATE ... RETURNING version}. The document never leaves the database
+ * and the row is locked for just that statement. For every object in the patch, the matching part of
+ * the document is taken as is if it is an object and as {@code {}} otherwise. Keys patched to
+ * {@code null} are removed with {@code -}. Nested objects are merged recursively. All other values
+ * replace what was there via {@code || jsonb_build_object(...)}. Keys and values are bound as
+ * parameters, so the SQL grows with the shape of the patch but never contains its content.
+ */
+@Repository
+@RequiredArgsConstructor
+public class OrderMetadataRepository {
+
+    // PostgreSQL functions take at most 100 arguments, i.e. 50 key/value pairs per jsonb_build_object
+    private static final int PAIRS_PER_BUILD = 50;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Applies the merge patch to the order's metadata and bumps its version.
+     *
+     * @return the new version, or empty if there is no such order
+     */
+    public Optional<Long> mergePatch(Long orderId, JsonNode patch, LocalDateTime now) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        List<Long> versions = jdbcTemplate.queryForList(mergePatchStatement(orderId, patch, now, params) + "version",
+                params, Long.class);
+        return versions.stream().findFirst();
+    }
+
+    /**
+     * Applies the merge patch like {@link #mergePatch}, and reads the merged document back in the same
+     * statement, for callers that derive something from it. The order's lane is returned as it was.
+     *
+     * @return the new version, document and lane, or empty if there is no such order
+     */
+    public Optional<Merged> mergePatchReturningMetadata(Long orderId, JsonNode patch, LocalDateTime now) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        List<Merged> merged = jdbcTemplate.query(
+                mergePatchStatement(orderId, patch, now, params) + "version, metadata, lane", params,
+                (rs, rowNum) -> new Merged(rs.getLong("version"), readJson(rs.getString("metadata")),
+                        rs.getString("lane")));
+        return merged.stream().findFirst();
+    }
+
+    // Moves the order and its tasks to another priority lane; see PriorityLanes
+    public void updateLane(Long orderId, String lane) {
+        Map<String, Object> params = Map.of("id", orderId, "lane", lane);
+        jdbcTemplate.update("update orders set lane = :lane where id = :id", params);
+        jdbcTemplate.update("update tasks set lane = :lane where order_id = :id", params);
+    }
+
+    // Everything up to the RETURNING list
+    private String mergePatchStatement(Long orderId, JsonNode patch, LocalDateTime now, MapSqlParameterSource params) {
+        params.addValue("id", orderId).addValue("updatedDate", Timestamp.valueOf(now));
+        String metadata = mergeExpression("metadata", patch, params);
+        return "update orders set metadata = " + metadata + ", version = version + 1, updated_date = :updatedDate " +
+                "where id = :id returning ";
+    }
+
+    private JsonNode readJson(String json) {
+        try {
+            return json == null ? null : objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not parse merged metadata", e);
+        }
+    }
+
+    // A patch that is not an object replaces the whole document (a null patch clears it)
+    private String mergeExpression(String target, JsonNode patch, MapSqlParameterSource params) {
+        if (patch.isObject()) {
+            return mergeObject(target, patch, params);
+        }
+        return patch.isNull() ? "null" : bindJson(patch, params);
+    }
+
+    private String mergeObject(String target, JsonNode patch, MapSqlParameterSource params) {
+        String merged = "(case when jsonb_typeof(" + target + ") = 'object' then " + target
+                + " else cast('{}' as jsonb) end)";
+        List<String> replacements = new ArrayList<>();
+        for (Iterator<Map.Entry<String, JsonNode>> fields = patch.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String key = bindKey(field.getKey(), params);
+            JsonNode value = field.getValue();
+            if (value.isNull()) {
+                merged = "(" + merged + " - " + key + ")";
+            } else if (value.isObject()) {
+                replacements.add(key + ", " + mergeObject("(" + target + " -> " + key + ")", value, params));
+            } else {
+                replacements.add(key + ", " + bindJson(value, params));
+            }
+        }
+        StringBuilder expression = new StringBuilder(merged);
+        for (int from = 0; from < replacements.size(); from += PAIRS_PER_BUILD) {
+            List<String> pairs = replacements.subList(from, Math.min(from + PAIRS_PER_BUILD, replacements.size()));
+            expression.insert(0, '(').append(" || jsonb_build_object(").append(String.join(", ", pairs)).append("))");
+        }
+        return expression.toString();
+    }
+
+    private static String bindKey(String key, MapSqlParameterSource params) {
+        String name = "p" + params.getValues().size();
+        params.addValue(name, key);
+        return "cast(:" + name + " as text)";
+    }
+
+    private String bindJson(JsonNode value, MapSqlParameterSource params) {
+        String name = "p" + params.getValues().size();
+        try {
+            params.addValue(name, objectMapper.writeValueAsString(value));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not serialize merge patch value " + value, e);
+        }
+        return "cast(:" + name + " as jsonb)";
+    }
+
+    public record Merged(long version, JsonNode metadata, String lane) {
+    }
+}
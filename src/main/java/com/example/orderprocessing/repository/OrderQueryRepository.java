@@ -0,0 +1,408 @@
+package com.example.orderprocessing.repository;
+
+import com.example.orderprocessing.dto.OrderDto;
+import com.example.orderprocessing.dto.TaskDto;
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.enums.TaskType;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+/**
+ * Read-only order queries that map rows straight into {@link OrderDto}/{@link TaskDto}, without
+ * managed entities or lazy loading.
+ * <p>
+ * A single order is read together with its tasks in one {@code left join} round trip. Pages are
+ * keyset-based ({@code id > after order by id}), so the cost of a page does not grow with its position.
+ * The tasks of a page, or of a streamed chunk, are loaded with one {@code IN} query instead of one lazy
+ * load per order.
+ * <p>
+ * Every order query takes an {@link OrderFields}: only the requested columns are selected (plus the id
+ * and version, which paging and ETags need), and tasks are only read when asked for.
+ */
+@Repository
+public class OrderQueryRepository {
+
+    // Aliased so that the same task mapper reads plain and joined rows
+    private static final String TASK_COLUMNS = "t.id as task_id, t.task_type, t.status as task_status, " +
+            "t.created_date as task_created_date, t.updated_date as task_updated_date, t.version as task_version, " +
+            "t.completed_date as task_completed_date";
+    private static final String TASK_SELECT = "select t.order_id, " + TASK_COLUMNS + " from tasks t";
+    private static final String ORDER_TASKS_SELECT = "select o.id, " + TASK_COLUMNS
+            + " from orders o left join tasks t on t.order_id = o.id where o.id = :id order by t.id";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    public OrderQueryRepository(NamedParameterJdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Reads an order and its tasks in one statement.
+     */
+    public Optional<OrderDto> findById(long orderId) {
+        return findById(orderId, OrderFields.ALL);
+    }
+
+    /**
+     * Reads the requested fields of an order, and its tasks if requested, in one statement.
+     */
+    public Optional<OrderDto> findById(long orderId, OrderFields fields) {
+        if (!fields.tasks()) {
+            List<OrderDto> orders = jdbcTemplate.query(orderSelect(fields) + " where o.id = :id",
+                    Map.of("id", orderId), orderRowMapper(fields));
+            return orders.stream().findFirst();
+        }
+        String sql = "select " + orderColumns(fields) + ", " + TASK_COLUMNS
+                + " from orders o left join tasks t on t.order_id = o.id where o.id = :id order by t.id";
+        return jdbcTemplate.query(sql, Map.of("id", orderId), rs -> {
+            if (!rs.next()) {
+                return Optional.empty();
+            }
+            OrderDto order = mapOrder(rs, fields);
+            List<TaskDto> tasks = new ArrayList<>();
+            do {
+                if (rs.getObject("task_id") != null) {
+                    tasks.add(mapTask(rs, orderId));
+                }
+            } while (rs.next());
+            order.setTasks(tasks);
+            return Optional.of(order);
+        });
+    }
+
+    /**
+     * Reads the tasks of an order in one statement; empty if the order does not exist, which the join tells
+     * apart from an order without tasks.
+     */
+    public Optional<List<TaskDto>> findTasksByOrderId(long orderId) {
+        return jdbcTemplate.query(ORDER_TASKS_SELECT, Map.of("id", orderId), rs -> {
+            if (!rs.next()) {
+                return Optional.empty();
+            }
+            List<TaskDto> tasks = new ArrayList<>();
+            do {
+                if (rs.getObject("task_id") != null) {
+                    tasks.add(mapTask(rs, orderId));
+                }
+            } while (rs.next());
+            return Optional.of(tasks);
+        });
+    }
+
+    /**
+     * Returns up to {@code limit} orders with an id greater than {@code after}, in id order, with their tasks
+     * if requested. One extra row is read to tell whether another page follows.
+     */
+    public OrderPage findPage(OrderFilter filter, long after, int limit, OrderFields fields) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        return page(where(filter, after, params), params, limit, fields);
+    }
+
+    /**
+     * Like {@link #findPage} for the orders whose metadata matches every given criterion. PostgreSQL only:
+     * relies on the generated columns and GIN index created by {@code schema-postgresql.sql}.
+     */
+    public OrderPage search(MetadataSearch search, long after, int limit, OrderFields fields) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        return page(where(search, after, params), params, limit, fields);
+    }
+
+    private OrderPage page(String where, MapSqlParameterSource params, int limit, OrderFields fields) {
+        params.addValue("limit", limit + 1);
+        String sql = orderSelect(fields) + where + " order by o.id limit :limit";
+        List<OrderDto> orders = jdbcTemplate.query(sql, params, orderRowMapper(fields));
+        Long nextAfter = null;
+        if (orders.size() > limit) {
+            orders = orders.subList(0, limit);
+            nextAfter = orders.get(limit - 1).getId();
+        }
+        if (fields.tasks()) {
+            attachTasks(orders);
+        }
+        return new OrderPage(orders, nextAfter);
+    }
+
+    /**
+     * Hands every matching order, with its tasks, to {@code sink} in id order while reading the rows from a
+     * cursor. At most {@code fetchSize} orders are held in memory at a time. Must run inside a transaction,
+     * which PostgreSQL needs to honour the fetch size instead of buffering the whole result.
+     */
+    public void stream(OrderFilter filter, long after, int fetchSize, OrderFields fields, Consumer<OrderDto> sink) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String sql = orderSelect(fields) + where(filter, after, params) + " order by o.id";
+
+        JdbcTemplate cursorTemplate = new JdbcTemplate(jdbcTemplate.getJdbcTemplate().getDataSource());
+        cursorTemplate.setFetchSize(fetchSize);
+        List<OrderDto> chunk = new ArrayList<>(fetchSize);
+        new NamedParameterJdbcTemplate(cursorTemplate).query(sql, params, rs -> {
+            chunk.add(mapOrder(rs, fields));
+            if (chunk.size() == fetchSize) {
+                flush(chunk, fields, sink);
+            }
+        });
+        flush(chunk, fields, sink);
+    }
+
+    private void flush(List<OrderDto> chunk, OrderFields fields, Consumer<OrderDto> sink) {
+        if (fields.tasks()) {
+            attachTasks(chunk);
+        }
+        chunk.forEach(sink);
+        chunk.clear();
+    }
+
+    private static String orderSelect(OrderFields fields) {
+        return "select " + orderColumns(fields) + " from orders o";
+    }
+
+    // The id and version are always read: paging and task attachment need the id, the ETag the version
+    private static String orderColumns(OrderFields fields) {
+        StringJoiner columns = new StringJoiner(", ").add("o.id").add("o.version");
+        for (OrderField field : fields.fields()) {
+            if (field != OrderField.ID && field != OrderField.VERSION) {
+                columns.add(field.column);
+            }
+        }
+        return columns.toString();
+    }
+
+    private static String where(OrderFilter filter, long after, MapSqlParameterSource params) {
+        StringBuilder where = new StringBuilder(" where o.id > :after");
+        params.addValue("after", after);
+        if (filter.status() != null) {
+            where.append(" and o.status = :status");
+            params.addValue("status", filter.status().name());
+        }
+        if (filter.createdFrom() != null) {
+            where.append(" and o.created_date >= :createdFrom");
+            params.addValue("createdFrom", filter.createdFrom());
+        }
+        if (filter.createdTo() != null) {
+            where.append(" and o.created_date < :createdTo");
+            params.addValue("createdTo", filter.createdTo());
+        }
+        return where.toString();
+    }
+
+    // Scalar paths are compared on their generated, b-tree indexed columns; array members are matched by
+    // containment, which the jsonb_path_ops GIN index on metadata answers
+    private String where(MetadataSearch search, long after, MapSqlParameterSource params) {
+        StringBuilder where = new StringBuilder(" where o.id > :after");
+        params.addValue("after", after);
+        if (search.customerId() != null) {
+            where.append(" and o.customer_id = :customerId");
+            params.addValue("customerId", search.customerId());
+        }
+        if (search.transactionId() != null) {
+            where.append(" and o.payment_transaction_id = :transactionId");
+            params.addValue("transactionId", search.transactionId());
+        }
+        if (search.productId() != null) {
+            ObjectNode item = objectMapper.createObjectNode().put("productId", search.productId());
+            ObjectNode contained = objectMapper.createObjectNode();
+            contained.putArray("items").add(item);
+            where.append(" and o.metadata @> cast(:items as jsonb)");
+            params.addValue("items", contained.toString());
+        }
+        return where.toString();
+    }
+
+    private void attachTasks(List<OrderDto> orders) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        Map<Long, OrderDto> byId = new HashMap<>(orders.size() * 2);
+        for (OrderDto order : orders) {
+            order.setTasks(new ArrayList<>());
+            byId.put(order.getId(), order);
+        }
+        jdbcTemplate.query(TASK_SELECT + " where t.order_id in (:orderIds) order by t.order_id, t.id",
+                new MapSqlParameterSource("orderIds", byId.keySet()),
+                rs -> {
+                    long orderId = rs.getLong("order_id");
+                    byId.get(orderId).getTasks().add(mapTask(rs, orderId));
+                });
+    }
+
+    private RowMapper<OrderDto> orderRowMapper(OrderFields fields) {
+        return (rs, rowNum) -> mapOrder(rs, fields);
+    }
+
+    // Fields that were not requested, and so not selected, stay null
+    private OrderDto mapOrder(ResultSet rs, OrderFields fields) throws SQLException {
+        long id = rs.getLong("id");
+        Set<OrderField> requested = fields.fields();
+        return new OrderDto(
+                id,
+                requested.contains(OrderField.STATUS) ? OrderStatus.valueOf(rs.getString("status")) : null,
+                requested.contains(OrderField.CREATED_DATE) ? rs.getObject("created_date", LocalDateTime.class) : null,
+                requested.contains(OrderField.UPDATED_DATE) ? rs.getObject("updated_date", LocalDateTime.class) : null,
+                rs.getLong("version"),
+                requested.contains(OrderField.METADATA) ? readMetadata(id, rs.getString("metadata")) : null,
+                null
+        );
+    }
+
+    private static TaskDto mapTask(ResultSet rs, long orderId) throws SQLException {
+        return new TaskDto(
+                rs.getLong("task_id"),
+                orderId,
+                TaskType.valueOf(rs.getString("task_type")),
+                TaskStatus.valueOf(rs.getString("task_status")),
+                rs.getObject("task_created_date", LocalDateTime.class),
+                rs.getObject("task_updated_date", LocalDateTime.class),
+                rs.getLong("task_version"),
+                rs.getObject("task_completed_date", LocalDateTime.class)
+        );
+    }
+
+    private JsonNode readMetadata(long orderId, String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable metadata for order " + orderId, e);
+        }
+    }
+
+    // nextAfter is the cursor for the following page, or null on the last page
+    public record OrderPage(List<OrderDto> orders, Long nextAfter) {
+    }
+
+    public record OrderFilter(OrderStatus status, LocalDateTime createdFrom, LocalDateTime createdTo) {
+    }
+
+    /**
+     * Metadata criteria of the order search: {@code customerInfo.customerId},
+     * {@code paymentDetails.transactionId} and the {@code productId} of any of {@code items}. Null criteria
+     * are ignored.
+     */
+    public record MetadataSearch(String customerId, String transactionId, String productId) {
+
+        public boolean isEmpty() {
+            return customerId == null && transactionId == null && productId == null;
+        }
+    }
+
+    /**
+     * The order attributes a client asked for ({@code fields=id,status}) and whether it asked for the tasks
+     * ({@code include=tasks}).
+     */
+    public record OrderFields(Set<OrderField> fields, boolean tasks) {
+
+        public static final OrderFields ALL = new OrderFields(EnumSet.allOf(OrderField.class), true);
+
+        /**
+         * Without either parameter the whole order is returned, tasks included. Once {@code fields} or
+         * {@code include} is given, tasks are only returned with {@code include=tasks}.
+         *
+         * @throws IllegalArgumentException for an unknown field or include
+         */
+        public static OrderFields parse(String fields, String include) {
+            if (fields == null && include == null) {
+                return ALL;
+            }
+            Set<OrderField> requested = EnumSet.noneOf(OrderField.class);
+            if (fields == null) {
+                requested.addAll(ALL.fields());
+            } else {
+                for (String name : fields.split(",")) {
+                    if (!name.isBlank()) {
+                        requested.add(OrderField.byProperty(name.trim()));
+                    }
+                }
+            }
+            boolean tasks = false;
+            if (include != null) {
+                for (String name : include.split(",")) {
+                    if (name.trim().equals("tasks")) {
+                        tasks = true;
+                    } else if (!name.isBlank()) {
+                        throw new IllegalArgumentException("Unknown include '" + name.trim() + "'; only 'tasks' is supported");
+                    }
+                }
+            }
+            return new OrderFields(requested, tasks);
+        }
+
+        public boolean isAll() {
+            return tasks && fields.containsAll(ALL.fields());
+        }
+
+        /**
+         * Identifies the requested fields and include, whatever their order, spelling or repetition in the
+         * query string, for the ETag of a narrowed response.
+         */
+        public String fingerprint() {
+            int bits = tasks ? 1 : 0;
+            for (OrderField field : fields) {
+                bits |= 2 << field.ordinal();
+            }
+            return "f" + Integer.toHexString(bits);
+        }
+
+        // The OrderDto properties to serialize
+        public Set<String> propertyNames() {
+            Set<String> names = new HashSet<>();
+            for (OrderField field : fields) {
+                names.add(field.property);
+            }
+            if (tasks) {
+                names.add("tasks");
+            }
+            return names;
+        }
+    }
+
+    public enum OrderField {
+        ID("id", "o.id"),
+        STATUS("status", "o.status"),
+        CREATED_DATE("createdDate", "o.created_date"),
+        UPDATED_DATE("updatedDate", "o.updated_date"),
+        VERSION("version", "o.version"),
+        METADATA("metadata", "o.metadata");
+
+        private final String property;
+        private final String column;
+
+        OrderField(String property, String column) {
+            this.property = property;
+            this.column = column;
+        }
+
+        static OrderField byProperty(String property) {
+            for (OrderField field : values()) {
+                if (field.property.equals(property)) {
+                    return field;
+                }
+            }
+            throw new IllegalArgumentException("Unknown order field '" + property + "'");
+        }
+    }
+}
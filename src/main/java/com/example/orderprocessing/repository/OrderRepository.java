@@ -1,9 +1,15 @@
 package com.example.orderprocessing.repository;
 
+import com.example.orderprocessing.enums.OrderStatus;
 import com.example.orderprocessing.model.Order;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -12,4 +18,62 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
     // For example:
     // List<Order> findByStatus(OrderStatus status);
     // Optional<Order> findByCustomerId(String customerId); // If you add customerId
-}
\ No newline at end of file
+
+    // Reads only the status column, so event handling never loads the entity or its metadata
+    @Query("select o.status from Order o where o.id = :id")
+    Optional<OrderStatus> findStatusById(@Param("id") Long id);
+
+    // Status and task progress in one primary-key read
+    @Query("select o.status as status, o.taskCount as taskCount, o.completedTaskCount as completedTaskCount, " +
+            "o.failedTaskCount as failedTaskCount, o.cancelledTaskCount as cancelledTaskCount " +
+            "from Order o where o.id = :id")
+    Optional<OrderProgress> findProgressById(@Param("id") Long id);
+
+    // Applies a transition of one of the order's tasks, in the transition's transaction: adjusts the task
+    // counters and bumps the version, which covers the order together with its tasks (the ETag of its view)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Order o set o.completedTaskCount = o.completedTaskCount + :completed, " +
+            "o.failedTaskCount = o.failedTaskCount + :failed, " +
+            "o.cancelledTaskCount = o.cancelledTaskCount + :cancelled, " +
+            "o.version = o.version + 1 " +
+            "where o.id = :id")
+    int applyTaskTransition(@Param("id") Long id,
+                            @Param("completed") int completed,
+                            @Param("failed") int failed,
+                            @Param("cancelled") int cancelled);
+
+    // Enough to answer a conditional GET without reading the order itself
+    @Query("select o.version from Order o where o.id = :id")
+    Optional<Long> findVersionById(@Param("id") Long id);
+
+    // Single-statement transition: matches no row if another writer moved the order first
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Order o set o.status = :target, o.version = o.version + 1, o.updatedDate = :now, " +
+            "o.statusChangedAt = :now " +
+            "where o.id = :id and o.status = :expected")
+    int compareAndSetStatus(@Param("id") Long id,
+                            @Param("expected") OrderStatus expected,
+                            @Param("target") OrderStatus target,
+                            @Param("now") LocalDateTime now);
+
+    // Full scan; only used to seed and reconcile the in-memory StatusCounters
+    @Query("select o.status as status, count(o) as count from Order o group by o.status")
+    List<StatusCount> countByStatus();
+
+    interface StatusCount {
+        OrderStatus getStatus();
+        long getCount();
+    }
+
+    interface OrderProgress {
+        OrderStatus getStatus();
+        int getTaskCount();
+        int getCompletedTaskCount();
+        int getFailedTaskCount();
+        int getCancelledTaskCount();
+
+        default boolean allTasksCompleted() {
+            return getCompletedTaskCount() == getTaskCount();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.orderprocessing.repository;
+
+import com.example.orderprocessing.model.OutboxEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // Claims the oldest due rows of one priority lane for the current transaction. Rows locked by another
+    // relay are skipped, so several instances drain the outbox side by side without waiting on each other.
+    // afterId continues a claim of the same lane in the same transaction.
+    @Query(value = "select * from outbox_events where lane = :lane and available_at <= :now and id > :afterId " +
+            "order by id limit :limit for update skip locked",
+            nativeQuery = true)
+    List<OutboxEvent> lockDueBatch(@Param("lane") String lane,
+                                   @Param("now") LocalDateTime now,
+                                   @Param("afterId") long afterId,
+                                   @Param("limit") int limit);
+
+    // Claims the completions of the given orders that have never been attempted and are due by windowEnd,
+    // so that one check of each order answers all of them. Failed rows keep their retry delay, and rows
+    // leased by another relay are due later.
+    @Query(value = "select * from outbox_events where event_type = 'TASK_COMPLETED' and attempts = 0 " +
+            "and order_id in (:orderIds) and available_at <= :windowEnd order by id for update skip locked",
+            nativeQuery = true)
+    List<OutboxEvent> lockPendingCompletions(@Param("orderIds") Collection<Long> orderIds,
+                                             @Param("windowEnd") LocalDateTime windowEnd);
+
+    // Records a failed delivery and schedules the next attempt
+    @Modifying
+    @Query("update OutboxEvent e set e.attempts = e.attempts + 1, e.lastError = :error, e.availableAt = :retryAt " +
+            "where e.id in :ids")
+    int recordFailure(@Param("ids") Collection<Long> ids,
+                      @Param("error") String error,
+                      @Param("retryAt") LocalDateTime retryAt);
+
+    @Query("select min(e.createdDate) from OutboxEvent e")
+    LocalDateTime findOldestCreatedDate();
+}
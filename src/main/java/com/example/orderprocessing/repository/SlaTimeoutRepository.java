@@ -0,0 +1,81 @@
+package com.example.orderprocessing.repository;
+
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskStatus;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The status of orders and tasks and when it last changed, which is what their SLA deadlines are computed
+ * from. See {@code SlaDeadlines}.
+ */
+@Repository
+@RequiredArgsConstructor
+public class SlaTimeoutRepository {
+
+    // Rows written before the column existed, and not yet backfilled by schema-postgresql.sql
+    private static final String STATUS_CHANGED_AT = "coalesce(status_changed_at, updated_date)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    // Both read from a cursor, fetchSize rows at a time. Must run inside a transaction, which PostgreSQL needs
+    // to honour the fetch size instead of buffering the whole result.
+    public void forEachTask(Collection<TaskStatus> statuses, int fetchSize, Consumer<Entered<TaskStatus>> sink) {
+        forEach("tasks", statuses, fetchSize, TaskStatus::valueOf, sink);
+    }
+
+    public void forEachOrder(Collection<OrderStatus> statuses, int fetchSize, Consumer<Entered<OrderStatus>> sink) {
+        forEach("orders", statuses, fetchSize, OrderStatus::valueOf, sink);
+    }
+
+    public Map<Long, Entered<TaskStatus>> findTasks(Collection<Long> ids) {
+        return find("tasks", ids, TaskStatus::valueOf);
+    }
+
+    public Map<Long, Entered<OrderStatus>> findOrders(Collection<Long> ids) {
+        return find("orders", ids, OrderStatus::valueOf);
+    }
+
+    private <S extends Enum<S>> void forEach(String table, Collection<S> statuses, int fetchSize,
+                                             Function<String, S> status, Consumer<Entered<S>> sink) {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        JdbcTemplate cursorTemplate = new JdbcTemplate(jdbcTemplate.getJdbcTemplate().getDataSource());
+        cursorTemplate.setFetchSize(fetchSize);
+        new NamedParameterJdbcTemplate(cursorTemplate).query(
+                "select id, status, " + STATUS_CHANGED_AT + " as status_changed_at from " + table + " where status in (:statuses)",
+                Map.of("statuses", statuses.stream().map(Enum::name).toList()),
+                rs -> {
+                    sink.accept(new Entered<>(rs.getLong("id"), status.apply(rs.getString("status")),
+                            rs.getTimestamp("status_changed_at").toLocalDateTime()));
+                });
+    }
+
+    private <S extends Enum<S>> Map<Long, Entered<S>> find(String table, Collection<Long> ids,
+                                                           Function<String, S> status) {
+        Map<Long, Entered<S>> entered = new HashMap<>();
+        if (ids.isEmpty()) {
+            return entered;
+        }
+        jdbcTemplate.query("select id, status, " + STATUS_CHANGED_AT + " as status_changed_at from " + table + " where id in (:ids)",
+                Map.of("ids", ids),
+                rs -> {
+                    entered.put(rs.getLong("id"), new Entered<>(rs.getLong("id"), status.apply(rs.getString("status")),
+                            rs.getTimestamp("status_changed_at").toLocalDateTime()));
+                });
+        return entered;
+    }
+
+    public record Entered<S extends Enum<S>>(Long id, S status, LocalDateTime statusChangedAt) {
+    }
+}
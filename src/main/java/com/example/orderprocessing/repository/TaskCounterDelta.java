@@ -0,0 +1,26 @@
+package com.example.orderprocessing.repository;
+
+import com.example.orderprocessing.enums.TaskStatus;
+
+/**
+ * Change to an order's completed/failed/cancelled task counters caused by task transitions.
+ */
+public record TaskCounterDelta(int completed, int failed, int cancelled) {
+
+    public static final TaskCounterDelta NONE = new TaskCounterDelta(0, 0, 0);
+
+    public static TaskCounterDelta of(TaskStatus source, TaskStatus target) {
+        return new TaskCounterDelta(
+                count(target, TaskStatus.COMPLETED) - count(source, TaskStatus.COMPLETED),
+                count(target, TaskStatus.FAILED) - count(source, TaskStatus.FAILED),
+                count(target, TaskStatus.CANCELLED) - count(source, TaskStatus.CANCELLED));
+    }
+
+    public TaskCounterDelta plus(TaskCounterDelta other) {
+        return new TaskCounterDelta(completed + other.completed, failed + other.failed, cancelled + other.cancelled);
+    }
+
+    private static int count(TaskStatus status, TaskStatus counted) {
+        return status == counted ? 1 : 0;
+    }
+}
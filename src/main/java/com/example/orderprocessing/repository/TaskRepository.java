@@ -1,12 +1,19 @@
 package com.example.orderprocessing.repository;
 
+import com.example.orderprocessing.dto.TaskDto;
 import com.example.orderprocessing.model.Task;
 import com.example.orderprocessing.enums.TaskStatus;
 import com.example.orderprocessing.enums.TaskType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface TaskRepository extends JpaRepository<Task, Long> {
@@ -14,5 +21,79 @@ public interface TaskRepository extends JpaRepository<Task, Long> {
     List<Task> findByOrderId(Long orderId);
     List<Task> findByOrderIdAndStatus(Long orderId, TaskStatus status);
     List<Task> findByOrderIdAndTaskType(Long orderId, TaskType taskType);
-    long countByOrderIdAndStatusIsNot(Long orderId, TaskStatus status);
-}
\ No newline at end of file
+
+    // The columns event handling needs, without loading the entity
+    @Query("select t.id as id, t.order.id as orderId, t.taskType as taskType, t.status as status, t.lane as lane " +
+            "from Task t where t.id = :id")
+    Optional<TaskSnapshot> findSnapshotById(@Param("id") Long id);
+
+    // Projects straight into the DTO; t.order.id is the foreign key column, so no join or proxy is involved
+    @Query("select new com.example.orderprocessing.dto.TaskDto(t.id, t.order.id, t.taskType, t.status, " +
+            "t.createdDate, t.updatedDate, t.version, t.completedDate) from Task t where t.id = :id")
+    Optional<TaskDto> findDtoById(@Param("id") Long id);
+
+    // Enough to answer a conditional GET without reading the task itself
+    @Query("select t.version from Task t where t.id = :id")
+    Optional<Long> findVersionById(@Param("id") Long id);
+
+    // Single-statement transition; completedDate is only set when a non-null value is passed, and a
+    // failure counts as an attempt
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Task t set t.status = :target, t.version = t.version + 1, t.updatedDate = :now, " +
+            "t.statusChangedAt = :now, " +
+            "t.completedDate = coalesce(t.completedDate, :completedDate), " +
+            "t.attempts = t.attempts + case when :target = com.example.orderprocessing.enums.TaskStatus.FAILED then 1 else 0 end " +
+            "where t.id = :id and t.status = :expected")
+    int compareAndSetStatus(@Param("id") Long id,
+                            @Param("expected") TaskStatus expected,
+                            @Param("target") TaskStatus target,
+                            @Param("now") LocalDateTime now,
+                            @Param("completedDate") LocalDateTime completedDate);
+
+    @Query("select t.attempts from Task t where t.id = :id")
+    int findAttemptsById(@Param("id") Long id);
+
+    // Claims the oldest PENDING tasks of the given types in one priority lane whose prerequisites have
+    // completed, for the current transaction. Tasks locked by another worker are skipped, so the workers of
+    // all instances claim disjoint tasks without waiting on each other. afterId continues a claim of the
+    // same lane in the same transaction, whose own locks do not skip anything.
+    @Query(value = "select id, order_id as orderId, task_type as taskType, status, lane, created_date as createdDate " +
+            "from tasks where status = 'PENDING' and pending_prerequisites = 0 and lane = :lane " +
+            "and task_type in (:taskTypes) and id > :afterId order by id limit :limit for update skip locked",
+            nativeQuery = true)
+    List<ReadyTask> lockPending(@Param("taskTypes") Collection<String> taskTypes,
+                                @Param("lane") String lane,
+                                @Param("afterId") long afterId,
+                                @Param("limit") int limit);
+
+    // A task of one of the given types in the order has completed; see TaskDependencies. Only PENDING tasks
+    // wait for their prerequisites, so only they are counted down
+    @Modifying(flushAutomatically = true)
+    @Query("update Task t set t.pendingPrerequisites = t.pendingPrerequisites - 1 " +
+            "where t.order.id = :orderId and t.taskType in :taskTypes " +
+            "and t.status = com.example.orderprocessing.enums.TaskStatus.PENDING")
+    int releaseDependents(@Param("orderId") Long orderId, @Param("taskTypes") Collection<TaskType> taskTypes);
+
+    // Full scan; only used to seed and reconcile the in-memory StatusCounters
+    @Query("select t.taskType as taskType, t.status as status, count(t) as count from Task t " +
+            "group by t.taskType, t.status")
+    List<StatusCount> countByTaskTypeAndStatus();
+
+    interface StatusCount {
+        TaskType getTaskType();
+        TaskStatus getStatus();
+        long getCount();
+    }
+
+    interface TaskSnapshot {
+        Long getId();
+        Long getOrderId();
+        TaskType getTaskType();
+        TaskStatus getStatus();
+        String getLane();
+    }
+
+    interface ReadyTask extends TaskSnapshot {
+        LocalDateTime getCreatedDate();
+    }
+}
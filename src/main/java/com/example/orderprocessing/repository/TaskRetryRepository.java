@@ -0,0 +1,24 @@
+package com.example.orderprocessing.repository;
+
+import com.example.orderprocessing.model.TaskRetry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface TaskRetryRepository extends JpaRepository<TaskRetry, Long> {
+
+    // Claims the earliest due retries for the current transaction. Rows locked by another scheduler are
+    // skipped, so several instances fire retries side by side without firing any twice.
+    @Query(value = "select * from task_retries where due_at <= :now order by due_at, task_id limit :limit " +
+            "for update skip locked",
+            nativeQuery = true)
+    List<TaskRetry> lockDue(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    @Query("select min(r.dueAt) from TaskRetry r")
+    LocalDateTime findEarliestDueAt();
+}
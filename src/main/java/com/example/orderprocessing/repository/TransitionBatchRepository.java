@@ -0,0 +1,153 @@
+package com.example.orderprocessing.repository;
+
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.enums.TaskType;
+import com.example.orderprocessing.exception.TransitionConflictException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Set-based status reads and writes for the batch event endpoints.
+ * <p>
+ * A chunk locks all of its rows with one {@code SELECT ... FOR UPDATE} (in id order, so concurrent
+ * chunks cannot deadlock), decides every event in memory and writes the net status changes back as a
+ * single JDBC batch of compare-and-set updates. The updates have the same shape as the single-event
+ * {@code compareAndSetStatus} queries, so both paths bump {@code version} the same way.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransitionBatchRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public Map<Long, OrderStatus> lockOrderStatuses(Collection<Long> ids) {
+        Map<Long, OrderStatus> statuses = new HashMap<>();
+        if (ids.isEmpty()) {
+            return statuses;
+        }
+        jdbcTemplate.query("select id, status from orders where id in (:ids) order by id for update",
+                Map.of("ids", ids),
+                rs -> {
+                    statuses.put(rs.getLong("id"), OrderStatus.valueOf(rs.getString("status")));
+                });
+        return statuses;
+    }
+
+    public Map<Long, LockedTask> lockTasks(Collection<Long> ids) {
+        Map<Long, LockedTask> tasks = new HashMap<>();
+        if (ids.isEmpty()) {
+            return tasks;
+        }
+        jdbcTemplate.query("select id, order_id, task_type, status, attempts, lane from tasks where id in (:ids) order by id for update",
+                Map.of("ids", ids),
+                rs -> {
+                    tasks.put(rs.getLong("id"), new LockedTask(rs.getLong("order_id"),
+                            TaskType.valueOf(rs.getString("task_type")), TaskStatus.valueOf(rs.getString("status")),
+                            rs.getInt("attempts"), rs.getString("lane")));
+                });
+        return tasks;
+    }
+
+    public void updateOrderStatuses(List<StatusChange<OrderStatus>> changes, LocalDateTime now) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Timestamp updatedDate = Timestamp.valueOf(now);
+        List<Object[]> args = new ArrayList<>(changes.size());
+        for (StatusChange<OrderStatus> change : changes) {
+            args.add(new Object[]{change.target().name(), updatedDate, updatedDate, change.id(), change.expected().name()});
+        }
+        int[] counts = jdbcTemplate.getJdbcTemplate().batchUpdate(
+                "update orders set status = ?, version = version + 1, updated_date = ?, status_changed_at = ? " +
+                        "where id = ? and status = ?",
+                args);
+        checkApplied("Order", changes, counts);
+    }
+
+    // failures: how often each task failed on the way to its target, which is added to its attempts. A task
+    // may fail more than once in one batch, or fail and be retried back into the status it started in.
+    public void updateTaskStatuses(List<StatusChange<TaskStatus>> changes, Map<Long, Integer> failures,
+                                   LocalDateTime now) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Timestamp updatedDate = Timestamp.valueOf(now);
+        List<Object[]> args = new ArrayList<>(changes.size());
+        for (StatusChange<TaskStatus> change : changes) {
+            Timestamp completedDate = change.target() == TaskStatus.COMPLETED ? updatedDate : null;
+            args.add(new Object[]{change.target().name(), updatedDate, updatedDate, completedDate,
+                    failures.getOrDefault(change.id(), 0), change.id(),
+                    change.expected().name()});
+        }
+        int[] counts = jdbcTemplate.getJdbcTemplate().batchUpdate(
+                "update tasks set status = ?, version = version + 1, updated_date = ?, status_changed_at = ?, " +
+                        "completed_date = coalesce(completed_date, ?), attempts = attempts + ? where id = ? and status = ?",
+                args);
+        checkApplied("Task", changes, counts);
+    }
+
+    // The batch counterpart of OrderRepository.applyTaskTransition: one statement per order whose tasks
+    // changed, in a single JDBC batch applied in order id order. Bumps the version even when the counters
+    // stay the same, as the order's view embeds its tasks.
+    public void applyTaskTransitions(Map<Long, TaskCounterDelta> deltasByOrderId) {
+        if (deltasByOrderId.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(deltasByOrderId.size());
+        new TreeMap<>(deltasByOrderId).forEach((orderId, delta) ->
+                args.add(new Object[]{delta.completed(), delta.failed(), delta.cancelled(), orderId}));
+        jdbcTemplate.getJdbcTemplate().batchUpdate(
+                "update orders set completed_task_count = completed_task_count + ?, " +
+                        "failed_task_count = failed_task_count + ?, cancelled_task_count = cancelled_task_count + ?, " +
+                        "version = version + 1 where id = ?",
+                args);
+    }
+
+    // The batch counterpart of TaskRepository.releaseDependents: one statement per completed task and
+    // dependent type, in order id order
+    public void releaseDependents(List<LockedTask> completed, Function<TaskType, Set<TaskType>> dependentsOf) {
+        List<Object[]> args = new ArrayList<>();
+        completed.stream().sorted(Comparator.comparing(LockedTask::orderId)).forEach(task -> {
+            for (TaskType dependent : dependentsOf.apply(task.taskType())) {
+                args.add(new Object[]{task.orderId(), dependent.name()});
+            }
+        });
+        if (args.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.getJdbcTemplate().batchUpdate(
+                "update tasks set pending_prerequisites = pending_prerequisites - 1 " +
+                        "where order_id = ? and task_type = ? and status = 'PENDING'",
+                args);
+    }
+
+    // The rows are locked, so a miss means someone bypassed the lock; fail the chunk rather than lose a write
+    private static void checkApplied(String entityType, List<? extends StatusChange<?>> changes, int[] counts) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                StatusChange<?> change = changes.get(i);
+                throw new TransitionConflictException(entityType, change.id(), change.expected());
+            }
+        }
+    }
+
+    public record LockedTask(Long orderId, TaskType taskType, TaskStatus status, int attempts, String lane) {
+    }
+
+    public record StatusChange<S extends Enum<S>>(Long id, S expected, S target) {
+    }
+}
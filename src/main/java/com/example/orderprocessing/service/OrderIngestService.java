@@ -0,0 +1,118 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.dto.IngestLineResult;
+import com.example.orderprocessing.model.Order;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bulk creation of orders from newline-delimited {@link CreateOrderRequest} JSON.
+ * <p>
+ * Input is parsed one line at a time and written in chunks of {@code workflow.ingest.chunk-size} orders,
+ * one transaction per chunk. Each chunk is persisted, flushed as batched INSERTs (ids come from the pooled
+ * sequences) and then cleared from the persistence context, so memory use does not grow with the input.
+ * No state machine is involved: new orders are always CREATED with PENDING tasks.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OrderIngestService {
+
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final WorkflowProperties workflowProperties;
+    private final StatusCounters statusCounters;
+    private final TaskDependencies taskDependencies;
+    private final PriorityLanes priorityLanes;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Creates an order for every non-blank input line. Results are handed to {@code sink} in line order,
+     * once the chunk containing the line has been committed (or has failed).
+     *
+     * @return the number of orders created
+     */
+    public long ingest(BufferedReader ndjson, Consumer<IngestLineResult> sink) throws IOException {
+        int chunkSize = workflowProperties.getIngest().getChunkSize();
+        List<IngestLineResult> results = new ArrayList<>(chunkSize);
+        List<Order> orders = new ArrayList<>(chunkSize);
+        List<IngestLineResult> orderResults = new ArrayList<>(chunkSize);
+        long created = 0;
+        long lineNumber = 0;
+
+        String line;
+        while ((line = ndjson.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            IngestLineResult result = new IngestLineResult(lineNumber);
+            results.add(result);
+            try {
+                orders.add(OrderService.newOrder(objectMapper.readValue(line, CreateOrderRequest.class),
+                        taskDependencies, priorityLanes));
+                orderResults.add(result);
+            } catch (JsonProcessingException e) {
+                result.setError("Invalid JSON: " + e.getOriginalMessage());
+            }
+            if (orders.size() == chunkSize) {
+                created += writeChunk(orders, orderResults);
+                results.forEach(sink);
+                results.clear();
+            }
+        }
+        created += writeChunk(orders, orderResults);
+        results.forEach(sink);
+
+        log.info("Bulk ingest read {} lines and created {} orders", lineNumber, created);
+        return created;
+    }
+
+    private int writeChunk(List<Order> orders, List<IngestLineResult> results) {
+        if (orders.isEmpty()) {
+            return 0;
+        }
+        int written = orders.size();
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                try {
+                    orders.forEach(entityManager::persist);
+                    entityManager.flush();
+                } finally {
+                    // The request-scoped persistence context would otherwise hold every ingested order
+                    entityManager.clear();
+                }
+            });
+            StatusCounters.Delta delta = new StatusCounters.Delta();
+            for (int i = 0; i < written; i++) {
+                results.get(i).setId(orders.get(i).getId());
+                delta.created(orders.get(i));
+            }
+            statusCounters.apply(delta);
+        } catch (RuntimeException e) {
+            log.error("Bulk ingest chunk of {} orders failed: {}", written, e.getMessage(), e);
+            results.forEach(result -> result.setError("Not stored: " + e.getMessage()));
+            written = 0;
+        } finally {
+            orders.clear();
+            results.clear();
+        }
+        return written;
+    }
+}
@@ -1,22 +1,42 @@
 package com.example.orderprocessing.service;
 
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.dto.BatchEventResult;
 import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.dto.OrderDto;
+import com.example.orderprocessing.dto.OrderEventBatchItem;
+import com.example.orderprocessing.dto.TaskDto;
 import com.example.orderprocessing.dto.UpdateOrderRequest;
 import com.example.orderprocessing.enums.OrderEvent;
 import com.example.orderprocessing.enums.OrderStatus;
 import com.example.orderprocessing.enums.TaskType;
+import com.example.orderprocessing.exception.TransitionConflictException;
 import com.example.orderprocessing.model.Order;
 import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.repository.OrderMetadataRepository;
+import com.example.orderprocessing.repository.OrderQueryRepository;
+import com.example.orderprocessing.repository.OrderQueryRepository.MetadataSearch;
+import com.example.orderprocessing.repository.OrderQueryRepository.OrderFields;
+import com.example.orderprocessing.repository.OrderQueryRepository.OrderFilter;
+import com.example.orderprocessing.repository.OrderQueryRepository.OrderPage;
 import com.example.orderprocessing.repository.OrderRepository;
+import com.example.orderprocessing.repository.TransitionBatchRepository;
+import com.example.orderprocessing.repository.TransitionBatchRepository.StatusChange;
+import com.example.orderprocessing.support.KeyedMailboxExecutor;
+import com.fasterxml.jackson.databind.JsonNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.context.event.EventListener; // Add this import
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 @Slf4j
@@ -26,29 +46,46 @@ public class OrderService {
 
     private final OrderRepository orderRepository;
     private final WorkflowStateMachineService workflowStateMachineService;
-    private final TaskService taskService; // To create initial tasks
+    private final WorkflowProperties workflowProperties;
+    private final KeyedMailboxExecutor orderEventMailbox;
+    private final TransactionTemplate transactionTemplate;
+    private final TransitionBatchRepository transitionBatchRepository;
+    private final OrderQueryRepository orderQueryRepository;
+    private final OrderViewCache orderViewCache;
+    private final OrderMetadataRepository orderMetadataRepository;
+    private final StatusCounters statusCounters;
+    private final TransitionJournal transitionJournal;
+    private final SlaDeadlines slaDeadlines;
+    private final TaskDependencies taskDependencies;
+    private final PriorityLanes priorityLanes;
 
     @Transactional
     public Order createOrder(CreateOrderRequest request) {
+        // No state machine is needed here: creation IS the initial state, and a pooled machine is
+        // rehydrated on demand when the first event arrives.
+        // An explicit PROCESS_ORDER event will be sent by the controller/client.
+        Order savedOrder = orderRepository.save(newOrder(request, taskDependencies, priorityLanes));
+        statusCounters.apply(new StatusCounters.Delta().created(savedOrder));
+        log.info("Order created with ID: {} and {} initial tasks", savedOrder.getId(), savedOrder.getTasks().size());
+        return savedOrder;
+    }
+
+    // A new, unsaved order with its initial tasks attached. Shared by single and bulk creation.
+    static Order newOrder(CreateOrderRequest request, TaskDependencies taskDependencies, PriorityLanes priorityLanes) {
         Order order = new Order();
         order.setMetadata(request.getMetadata());
+        // Before the tasks are added, which take the order's lane
+        order.setLane(priorityLanes.laneOf(request.getMetadata()));
         // Initial status is CREATED by default in Order entity constructor
-        Order savedOrder = orderRepository.save(order);
-        log.info("Order created with ID: {}", savedOrder.getId());
-
-        // Initialize and start the state machine for this new order
-        workflowStateMachineService.initializeStateMachine(savedOrder);
-        // No event is sent here yet, creation IS the initial state.
-        // An explicit PROCESS_ORDER event will be sent by the controller/client.
 
         // Create initial set of tasks based on order type or metadata (example)
         // This is a simplified example; in a real app, task creation might be more dynamic
         // or triggered by the state machine itself.
+        // The tasks are cascaded with the order, so the flush writes one batched INSERT per table.
         Stream.of(TaskType.VALIDATE_ORDER_DETAILS, TaskType.PROCESS_PAYMENT, TaskType.CHECK_INVENTORY)
-                .forEach(taskType -> taskService.createTask(savedOrder, taskType));
-
-        log.info("Initial tasks created for order ID: {}", savedOrder.getId());
-        return savedOrder;
+                .forEach(taskType -> order.addTask(new Task(order, taskType)));
+        taskDependencies.count(order.getTasks());
+        return order;
     }
 
     @Transactional(readOnly = true)
@@ -56,9 +93,67 @@ public class OrderService {
         return orderRepository.findById(orderId);
     }
 
+    // The order and its tasks in one statement, without loading entities
+    @Transactional(readOnly = true)
+    public Optional<OrderDto> findOrderDto(Long orderId) {
+        return orderQueryRepository.findById(orderId);
+    }
+
+    // Only the requested columns, and the tasks only if requested
+    @Transactional(readOnly = true)
+    public Optional<OrderDto> findOrderDto(Long orderId, OrderFields fields) {
+        return orderQueryRepository.findById(orderId, fields);
+    }
+
+    // Empty if the order does not exist; checked by the same statement that reads the tasks
     @Transactional(readOnly = true)
-    public List<Order> getAllOrders() {
-        return orderRepository.findAll();
+    public Optional<List<TaskDto>> findTaskDtosForOrder(Long orderId) {
+        return orderQueryRepository.findTasksByOrderId(orderId);
+    }
+
+    // The serialized OrderDto, from the view cache when possible. The view methods are deliberately not
+    // @Transactional: a hit must not open a transaction or borrow a connection.
+    public Optional<OrderViewCache.View> findOrderView(Long orderId) {
+        return orderViewCache.order(orderId, () -> orderQueryRepository.findById(orderId));
+    }
+
+    // The current ETag of the order view, from the cached view or a read of the version column alone
+    public Optional<String> findOrderETag(Long orderId) {
+        return orderViewCache.orderETag(orderId, () -> orderRepository.findVersionById(orderId));
+    }
+
+    // The ETag of the order narrowed to these fields; see OrderFields.fingerprint
+    public Optional<String> findOrderETag(Long orderId, OrderFields fields) {
+        if (fields.isAll()) {
+            return findOrderETag(orderId);
+        }
+        return orderViewCache.orderETag(orderId, fields.fingerprint(), () -> orderRepository.findVersionById(orderId));
+    }
+
+    public Optional<byte[]> findTaskViewsForOrder(Long orderId) {
+        return orderViewCache.orderTasks(orderId, () -> orderQueryRepository.findTasksByOrderId(orderId));
+    }
+
+    // One keyset page; a null or out-of-range limit falls back to the configured bounds
+    @Transactional(readOnly = true)
+    public OrderPage findOrders(OrderFilter filter, Long after, Integer limit, OrderFields fields) {
+        WorkflowProperties.Listing listing = workflowProperties.getListing();
+        int pageSize = limit == null ? listing.getDefaultLimit() : Math.max(1, Math.min(limit, listing.getMaxLimit()));
+        return orderQueryRepository.findPage(filter, after == null ? 0L : after, pageSize, fields);
+    }
+
+    @Transactional(readOnly = true)
+    public OrderPage searchOrders(MetadataSearch search, Long after, Integer limit, OrderFields fields) {
+        WorkflowProperties.Listing listing = workflowProperties.getListing();
+        int pageSize = limit == null ? listing.getDefaultLimit() : Math.max(1, Math.min(limit, listing.getMaxLimit()));
+        return orderQueryRepository.search(search, after == null ? 0L : after, pageSize, fields);
+    }
+
+    // Unbounded listing; rows are handed to the sink as they are read, so memory use does not grow with the result
+    @Transactional(readOnly = true)
+    public void streamOrders(OrderFilter filter, Long after, OrderFields fields, Consumer<OrderDto> sink) {
+        orderQueryRepository.stream(filter, after == null ? 0L : after,
+                workflowProperties.getListing().getStreamFetchSize(), fields, sink);
     }
 
     @Transactional
@@ -67,53 +162,193 @@ public class OrderService {
                 .orElseThrow(() -> new RuntimeException("Order not found with ID: " + orderId)); // Replace with specific exception
 
         if (request.getMetadata() != null) {
+            // Replaces the lazy payload without selecting the old one first
             order.setMetadata(request.getMetadata());
+            moveToLaneOf(orderId, order.getLane(), request.getMetadata());
         }
         // Updating status should go through the state machine
         Order updatedOrder = orderRepository.save(order);
+        orderViewCache.evictOrder(orderId);
         log.info("Order metadata updated for ID: {}", updatedOrder.getId());
         return updatedOrder;
     }
 
+    // RFC 7396 merge patch, applied to the stored jsonb by a single UPDATE; returns the new version, or
+    // empty if the order does not exist
+    @Transactional
+    public Optional<Long> patchOrderMetadata(Long orderId, JsonNode patch) {
+        Optional<Long> version;
+        if (priorityLanes.hasConditions()) {
+            // The merged document is only read back when the lane depends on it
+            Optional<OrderMetadataRepository.Merged> merged =
+                    orderMetadataRepository.mergePatchReturningMetadata(orderId, patch, LocalDateTime.now());
+            merged.ifPresent(result -> moveToLaneOf(orderId, result.lane(), result.metadata()));
+            version = merged.map(OrderMetadataRepository.Merged::version);
+        } else {
+            version = orderMetadataRepository.mergePatch(orderId, patch, LocalDateTime.now());
+        }
+        if (version.isPresent()) {
+            orderViewCache.evictOrder(orderId);
+            log.info("Order metadata patched for ID: {}", orderId);
+        }
+        return version;
+    }
+
+    // Moves the order and its tasks to the priority lane of its new metadata, if that is another one
+    private void moveToLaneOf(Long orderId, String lane, JsonNode metadata) {
+        String target = priorityLanes.laneOf(metadata);
+        if (!target.equals(lane)) {
+            orderMetadataRepository.updateLane(orderId, target);
+            log.info("Order {} moved from priority lane '{}' to '{}'", orderId, lane, target);
+        }
+    }
+
     // Method to trigger an event on the order's state machine
     // This is the primary way to change an order's status
-    @Transactional
+    // Events for one order are queued in its mailbox and applied one at a time, each in its own transaction,
+    // so concurrent requests for a hot order no longer race on its row. The caller blocks until it is applied
+    // and must not hold a transaction (and with it a pooled connection) while waiting.
     public boolean sendOrderEvent(Long orderId, OrderEvent event, String reason) {
-        Order order = orderRepository.findById(orderId)
-                .orElseThrow(() -> new RuntimeException("Order not found: " + orderId)); // Specific exception
-        log.info("Attempting to send event {} to order {}", event, orderId);
-        return workflowStateMachineService.sendEvent(order, event, reason);
+        return orderEventMailbox.execute(orderId, () ->
+                Boolean.TRUE.equals(transactionTemplate.execute(tx -> applyOrderEvent(orderId, event, reason))));
+    }
+
+    // Only the status is read; the transition is a single compare-and-set UPDATE, re-evaluated against
+    // the fresh status if a concurrent event changed it in between.
+    private boolean applyOrderEvent(Long orderId, OrderEvent event, String reason) {
+        int maxAttempts = workflowProperties.getTransition().getMaxAttempts();
+        for (int attempt = 1; ; attempt++) {
+            OrderStatus status = orderRepository.findStatusById(orderId)
+                    .orElseThrow(() -> new RuntimeException("Order not found: " + orderId)); // Specific exception
+            log.info("Attempting to send event {} to order {} in status {}", event, orderId, status);
+            try {
+                return workflowStateMachineService.sendEvent(orderId, status, event, reason);
+            } catch (TransitionConflictException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                log.info("Order {} changed status concurrently while applying {}; retrying (attempt {} of {})",
+                        orderId, event, attempt + 1, maxAttempts);
+            }
+        }
+    }
+
+    /**
+     * Applies a list of events in request order and reports the outcome of each item.
+     * <p>
+     * Items are applied in chunks of {@code workflow.batch.chunk-size}, each chunk in its own transaction:
+     * its orders are locked with one query, the events are decided against the transition table in memory
+     * (so several events for the same order see each other's effect) and the net status changes are
+     * written as one JDBC batch. Chunks that committed before a failing chunk stay applied.
+     * <p>
+     * Batches bypass the per-order mailboxes; the row locks keep them consistent with concurrent
+     * single events, whose compare-and-set updates wait for the chunk and then retry.
+     */
+    public List<BatchEventResult> sendOrderEvents(List<OrderEventBatchItem> items) {
+        WorkflowProperties.Batch batch = workflowProperties.getBatch();
+        if (items.size() > batch.getMaxItems()) {
+            throw new IllegalArgumentException("Batch of " + items.size() + " events exceeds the limit of " + batch.getMaxItems());
+        }
+        for (int i = 0; i < items.size(); i++) {
+            OrderEventBatchItem item = items.get(i);
+            if (item == null || item.getOrderId() == null || item.getEvent() == null) {
+                throw new IllegalArgumentException("Batch item " + i + " needs an orderId and an event");
+            }
+        }
+
+        long receivedAt = System.nanoTime();
+        List<BatchEventResult> results = new ArrayList<>(items.size());
+        for (int from = 0; from < items.size(); from += batch.getChunkSize()) {
+            List<OrderEventBatchItem> chunk = items.subList(from, Math.min(from + batch.getChunkSize(), items.size()));
+            results.addAll(transactionTemplate.execute(tx -> applyOrderEventChunk(chunk, receivedAt)));
+        }
+        log.info("Applied batch of {} order events", items.size());
+        return results;
+    }
+
+    private List<BatchEventResult> applyOrderEventChunk(List<OrderEventBatchItem> chunk, long receivedAt) {
+        Map<Long, OrderStatus> persisted = transitionBatchRepository.lockOrderStatuses(
+                chunk.stream().map(OrderEventBatchItem::getOrderId).distinct().toList());
+        Map<Long, OrderStatus> current = new LinkedHashMap<>(persisted);
+
+        List<BatchEventResult> results = new ArrayList<>(chunk.size());
+        // Every accepted item is journaled, including the intermediate steps of an order's net change
+        List<OrderEventBatchItem> acceptedItems = new ArrayList<>();
+        List<StatusChange<OrderStatus>> acceptedSteps = new ArrayList<>();
+        for (OrderEventBatchItem item : chunk) {
+            Long orderId = item.getOrderId();
+            OrderStatus status = current.get(orderId);
+            if (status == null) {
+                results.add(BatchEventResult.notFound(orderId));
+                continue;
+            }
+            OrderStatus target = workflowStateMachineService.evaluate(orderId, status, item.getEvent(), item.getReason());
+            if (target == null) {
+                log.warn("Batch event {} NOT accepted for Order ID: {} in state: {}", item.getEvent(), orderId, status);
+                results.add(BatchEventResult.rejected(orderId, status));
+            } else {
+                current.put(orderId, target);
+                results.add(BatchEventResult.accepted(orderId, target));
+                acceptedItems.add(item);
+                acceptedSteps.add(new StatusChange<>(orderId, status, target));
+            }
+        }
+
+        List<StatusChange<OrderStatus>> changes = new ArrayList<>();
+        current.forEach((orderId, status) -> {
+            if (status != persisted.get(orderId)) {
+                changes.add(new StatusChange<>(orderId, persisted.get(orderId), status));
+            }
+        });
+        transitionBatchRepository.updateOrderStatuses(changes, LocalDateTime.now());
+        orderViewCache.evictOrders(changes.stream().map(StatusChange::id).toList());
+        StatusCounters.Delta delta = new StatusCounters.Delta();
+        changes.forEach(change -> delta.order(change.expected(), change.target()));
+        statusCounters.apply(delta);
+
+        long latencyMicros = TransitionJournal.latencyMicros(receivedAt);
+        List<TransitionJournal.Entry> entries = new ArrayList<>(acceptedSteps.size());
+        for (int i = 0; i < acceptedSteps.size(); i++) {
+            StatusChange<OrderStatus> step = acceptedSteps.get(i);
+            OrderEventBatchItem item = acceptedItems.get(i);
+            entries.add(TransitionJournal.Entry.order(step.id(), step.expected(), step.target(), item.getEvent(),
+                    item.getReason(), latencyMicros));
+        }
+        transitionJournal.record(entries);
+        slaDeadlines.track(entries);
+        return results;
     }
 
 
     // Convenience method, often called by the controller
-    @Transactional
-    public Order completeOrder(Long orderId) {
+    public OrderDto completeOrder(Long orderId) {
         if(sendOrderEvent(orderId, OrderEvent.COMPLETE_ORDER, null)){
-            return getOrderById(orderId).orElseThrow(() -> new RuntimeException("Order disappeared after completion event: " + orderId));
+            return findOrderDto(orderId).orElseThrow(() -> new RuntimeException("Order disappeared after completion event: " + orderId));
         }
         throw new IllegalStateException("Could not transition order " + orderId + " to COMPLETED.");
     }
 
     // Example of how tasks being completed could trigger an order state change.
-    // This method would be called by the TaskService when a task is completed.
-    @Async // Make the listener asynchronous to avoid blocking the task completion transaction
-    @EventListener
-    @Transactional // This listener method will also run in a transaction
-    public void handleTaskCompletion(TaskService.TaskCompletedApplicationEvent event) {
-        Long orderId = event.getOrderId();
-        Long taskId = event.getTaskId();
-
-        log.info("Listener: Task {} completed for order {}. Checking if all tasks are done.", taskId, orderId);
-
-        // It's good practice to re-fetch the order to ensure we have the latest state,
-        // especially since this listener might run in a separate transaction or after some delay.
-        Order order = orderRepository.findById(orderId)
-                .orElseThrow(() -> new RuntimeException("Order not found for task completion event: " + orderId));
+    // Called by the OutboxRelay with the TASK_COMPLETED notifications of one order that it coalesced,
+    // at least once per completed task, so it must stay idempotent: a duplicate finds the order already
+    // past IN_PROGRESS/ON_HOLD.
+    public void onTasksCompleted(Long orderId, List<Long> taskIds) {
+        log.info("Listener: Tasks {} completed for order {}. Checking if all tasks are done.", taskIds, orderId);
+
+        // It's good practice to re-read the order's status to ensure we have the latest state,
+        // especially since the notification is delivered in a separate transaction and after some delay.
+        // Status and task counters come from one primary-key read.
+        // A deleted order has nothing left to progress; failing would only make the relay retry forever.
+        OrderRepository.OrderProgress progress = orderRepository.findProgressById(orderId).orElse(null);
+        if (progress == null) {
+            log.warn("Order {} no longer exists; ignoring completion of tasks {}.", orderId, taskIds);
+            return;
+        }
+        OrderStatus status = progress.getStatus();
 
         // Only proceed if the order is still in a state where it expects tasks to be completed (e.g., IN_PROGRESS)
-        if (order.getStatus() == OrderStatus.IN_PROGRESS || order.getStatus() == OrderStatus.ON_HOLD) {
-            if (taskService.areAllTasksCompletedForOrder(orderId)) {
+        if (status == OrderStatus.IN_PROGRESS || status == OrderStatus.ON_HOLD) {
+            if (progress.allTasksCompleted()) {
                 log.info("All tasks completed for order {}. Sending ALL_TASKS_COMPLETED event to order state machine.", orderId);
                 // Send event to Order State Machine
                 // The 'reason' parameter is null here, could be adapted if needed
@@ -123,11 +358,11 @@ public class OrderService {
                     // Potentially add retry logic or error handling here
                 }
             } else {
-                log.info("Order {} still has pending/in-progress tasks after task {} completion.", orderId, taskId);
+                log.info("Order {} still has pending/in-progress tasks after completion of tasks {}.", orderId, taskIds);
             }
         } else {
-            log.warn("Received task completion event for order {} (task {}), but order is in state {}, not expecting task completions.",
-                    orderId, taskId, order.getStatus());
+            log.warn("Received task completion events for order {} (tasks {}), but order is in state {}, not expecting task completions.",
+                    orderId, taskIds, status);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.dto.OrderDto;
+import com.example.orderprocessing.dto.TaskDto;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-process cache of the JSON served by {@code GET /orders/{id}}, {@code GET /orders/{id}/tasks}
+ * and {@code GET /tasks/{id}}.
+ * <p>
+ * Views are cached serialized, so a hit costs neither a query nor a Jackson pass. Each kind of view holds
+ * at most {@code workflow.view-cache.maximum-size} entries for at most {@code workflow.view-cache.time-to-live}.
+ * Entries are evicted wherever the rows behind them change: the transition writes of both state machine
+ * services, the batch event chunks and {@code updateOrder}. Evictions run immediately and again once the
+ * changing transaction has completed. A load still running at that point is waited for and then dropped,
+ * so a view read before the commit never outlives it. Missing ids are not cached.
+ * <p>
+ * Order and task views are stored with the version they were read at, which is their ETag, so a
+ * conditional GET for a cached view needs no query at all.
+ * <p>
+ * Hit, miss and eviction counts are published as the {@code cache.*} meters, tagged with the cache name.
+ */
+@Component
+public class OrderViewCache {
+
+    private final ObjectMapper objectMapper;
+    private final Cache<Long, View> orders;
+    private final Cache<Long, byte[]> orderTasks;
+    private final Cache<Long, View> tasks;
+
+    public OrderViewCache(ObjectMapper objectMapper, WorkflowProperties workflowProperties, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        WorkflowProperties.ViewCache settings = workflowProperties.getViewCache();
+        this.orders = build("orderViews", settings, meterRegistry);
+        this.orderTasks = build("orderTaskViews", settings, meterRegistry);
+        this.tasks = build("taskViews", settings, meterRegistry);
+    }
+
+    private static <V> Cache<Long, V> build(String name, WorkflowProperties.ViewCache settings, MeterRegistry meterRegistry) {
+        Cache<Long, V> cache = Caffeine.newBuilder()
+                .maximumSize(settings.getMaximumSize())
+                .expireAfterWrite(settings.getTimeToLive())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        return cache;
+    }
+
+    public Optional<View> order(Long orderId, Supplier<Optional<OrderDto>> loader) {
+        return get(orders, orderId, () -> loader.get().map(order -> new View(order.getVersion(), serialize(order))));
+    }
+
+    public Optional<byte[]> orderTasks(Long orderId, Supplier<Optional<List<TaskDto>>> loader) {
+        return get(orderTasks, orderId, () -> loader.get().map(this::serialize));
+    }
+
+    public Optional<View> task(Long taskId, Supplier<Optional<TaskDto>> loader) {
+        return get(tasks, taskId, () -> loader.get().map(task -> new View(task.getVersion(), serialize(task))));
+    }
+
+    // The ETag of the cached view if there is one, otherwise of the version the loader reads
+    public Optional<String> orderETag(Long orderId, Supplier<Optional<Long>> versionLoader) {
+        return version(orders, orderId, versionLoader).map(View::eTag);
+    }
+
+    // The ETag of a view of the order narrowed to some fields, which is not cached itself
+    public Optional<String> orderETag(Long orderId, String variant, Supplier<Optional<Long>> versionLoader) {
+        return version(orders, orderId, versionLoader).map(version -> View.eTag(version, variant));
+    }
+
+    public Optional<String> taskETag(Long taskId, Supplier<Optional<Long>> versionLoader) {
+        return version(tasks, taskId, versionLoader).map(View::eTag);
+    }
+
+    // Status or metadata of the order changed; its tasks did not
+    public void evictOrder(Long orderId) {
+        evict(() -> orders.invalidate(orderId));
+    }
+
+    public void evictOrders(Collection<Long> orderIds) {
+        evict(() -> orders.invalidateAll(orderIds));
+    }
+
+    // A task changed, and with it the views of its order that embed it
+    public void evictTask(Long taskId, Long orderId) {
+        evict(() -> {
+            tasks.invalidate(taskId);
+            orders.invalidate(orderId);
+            orderTasks.invalidate(orderId);
+        });
+    }
+
+    public void evictTasks(Map<Long, Long> orderIdsByTaskId) {
+        evict(() -> {
+            tasks.invalidateAll(orderIdsByTaskId.keySet());
+            orders.invalidateAll(orderIdsByTaskId.values());
+            orderTasks.invalidateAll(orderIdsByTaskId.values());
+        });
+    }
+
+    private static <V> Optional<V> get(Cache<Long, V> cache, Long id, Supplier<Optional<V>> loader) {
+        // Concurrent misses for one id share a single load; an empty result is not stored
+        return Optional.ofNullable(cache.get(id, key -> loader.get().orElse(null)));
+    }
+
+    private static Optional<Long> version(Cache<Long, View> cache, Long id, Supplier<Optional<Long>> versionLoader) {
+        View view = cache.getIfPresent(id);
+        if (view != null) {
+            return Optional.of(view.version());
+        }
+        return versionLoader.get();
+    }
+
+    private byte[] serialize(Object view) {
+        try {
+            return objectMapper.writeValueAsBytes(view);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize view " + view, e);
+        }
+    }
+
+    /**
+     * A serialized view and the version of the rows it was read from.
+     */
+    public record View(long version, byte[] body) {
+
+        public String eTag() {
+            return eTag(version);
+        }
+
+        // Strong: the version changes with every change to the serialized view
+        public static String eTag(long version) {
+            return "\"" + version + "\"";
+        }
+
+        // A variant of the view at the same version, such as one narrowed to some fields, gets a tag of its
+        // own, so a cache never answers a request for one variant with the body of another
+        public static String eTag(long version, String variant) {
+            return "\"" + version + "-" + variant + "\"";
+        }
+    }
+
+    private static void evict(Runnable eviction) {
+        eviction.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Again after the commit, for views loaded from the old rows while the transaction was open
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    eviction.run();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.model.OutboxEvent;
+import com.example.orderprocessing.repository.OutboxEventRepository;
+import com.example.orderprocessing.support.WeightedLanes;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drains the outbox and hands each notification to its handler, at least once.
+ * <p>
+ * Every poll claims up to {@code workflow.outbox.batch-size} due rows with {@code FOR UPDATE SKIP LOCKED}
+ * and leases them, by moving their {@code available_at} {@code workflow.outbox.lease} ahead, in one short
+ * transaction. The rows are then delivered outside of any transaction, as the handlers wait on order
+ * mailboxes that open transactions of their own, and the delivered ones are deleted in a second short
+ * transaction. A crash in between leaves the rows to be claimed again once their lease runs out, so
+ * handlers must tolerate duplicates. A failed delivery stays in the outbox and is retried after
+ * {@code workflow.outbox.retry-delay}. Each batch is split between the
+ * priority lanes by weight (see {@link PriorityLanes}) and delivered in lane order, so completions of
+ * expedited orders are not held up by a bulk backlog.
+ * <p>
+ * Task completions are coalesced per order: they become due {@code workflow.outbox.completion-window}
+ * after they are written, and once one of an order's completions is claimed, the order's other pending
+ * completions are claimed with it. The order is then checked once for all of them. The relay is a single
+ * scheduled thread, so at most one check per order is in flight in each instance.
+ */
+@Slf4j
+@Service
+public class OutboxRelay {
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final OrderService orderService;
+    private final PriorityLanes priorityLanes;
+    private final WeightedLanes<String> lanes;
+    private final TransactionTemplate transactionTemplate;
+    private final WorkflowProperties workflowProperties;
+
+    private final Timer lag;
+    private final Counter delivered;
+    private final Counter failed;
+    private final Counter completionChecks;
+    private final Counter completionsMerged;
+
+    public OutboxRelay(OutboxEventRepository outboxEventRepository, OrderService orderService,
+                       PriorityLanes priorityLanes, TransactionTemplate transactionTemplate,
+                       WorkflowProperties workflowProperties, MeterRegistry meterRegistry) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.orderService = orderService;
+        this.priorityLanes = priorityLanes;
+        this.lanes = priorityLanes.newWeightedLanes();
+        this.transactionTemplate = transactionTemplate;
+        this.workflowProperties = workflowProperties;
+        WorkflowProperties.Outbox settings = workflowProperties.getOutbox();
+        if (settings.getLease().compareTo(settings.getCompletionWindow()) <= 0) {
+            throw new IllegalStateException("workflow.outbox.lease must be longer than workflow.outbox.completion-window");
+        }
+
+        this.lag = Timer.builder("outbox.relay.lag")
+                .description("Time from writing a notification to delivering it").register(meterRegistry);
+        this.delivered = Counter.builder("outbox.relay.delivered")
+                .description("Notifications delivered and removed from the outbox").register(meterRegistry);
+        this.failed = Counter.builder("outbox.relay.failed")
+                .description("Delivery attempts that failed and were rescheduled").register(meterRegistry);
+        this.completionChecks = Counter.builder("outbox.relay.completion.checks")
+                .description("Order completion checks run for task completions").register(meterRegistry);
+        this.completionsMerged = Counter.builder("outbox.relay.completion.merged")
+                .description("Task completions answered by a check run for another completion of the same order")
+                .register(meterRegistry);
+        // Both gauges are evaluated on scrape, not per poll
+        Gauge.builder("outbox.backlog", outboxEventRepository, OutboxEventRepository::count)
+                .description("Notifications waiting in the outbox").register(meterRegistry);
+        Gauge.builder("outbox.oldest.age", outboxEventRepository, OutboxRelay::oldestAgeSeconds)
+                .baseUnit("seconds")
+                .description("Age of the oldest undelivered notification").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "#{@workflowProperties.outbox.pollInterval.toMillis()}")
+    public void poll() {
+        int batchSize = workflowProperties.getOutbox().getBatchSize();
+        // Keep draining while full batches come back, so a burst is not worked off one interval at a time
+        while (relayBatch(batchSize) == batchSize) {
+            log.debug("Outbox relay claimed a full batch of {}; polling again", batchSize);
+        }
+    }
+
+    /**
+     * Claims, delivers and removes one batch.
+     *
+     * @return the number of due rows claimed
+     */
+    public int relayBatch(int batchSize) {
+        Claimed claimed = transactionTemplate.execute(tx -> claim(batchSize));
+        if (claimed == null || claimed.completionsByOrder().isEmpty()) {
+            return 0;
+        }
+
+        List<Long> done = new ArrayList<>();
+        List<Failure> failures = new ArrayList<>();
+        claimed.completionsByOrder().forEach((orderId, completions) -> {
+            Failure failure = deliverCompletions(orderId, completions);
+            if (failure == null) {
+                completions.forEach(event -> done.add(event.getId()));
+            } else {
+                failures.add(failure);
+            }
+        });
+
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                outboxEventRepository.deleteAllByIdInBatch(done);
+                for (Failure failure : failures) {
+                    outboxEventRepository.recordFailure(failure.ids(), failure.error(), failure.retryAt());
+                }
+            });
+        } catch (RuntimeException e) {
+            // The leases run out and the rows are delivered again
+            log.error("Could not remove {} delivered notifications from the outbox: {}", done.size(), e.getMessage(), e);
+        }
+        return claimed.due();
+    }
+
+    // Locks due rows and the pending completions of their orders, and leases them all until the relay is done
+    private Claimed claim(int batchSize) {
+        LocalDateTime now = LocalDateTime.now();
+        List<OutboxEvent> batch = lanes.claim(batchSize,
+                (lane, afterId, limit) -> outboxEventRepository.lockDueBatch(lane, now, afterId, limit),
+                OutboxEvent::getId);
+        Map<Long, List<OutboxEvent>> completionsByOrder = new LinkedHashMap<>();
+        for (OutboxEvent event : batch) {
+            switch (event.getEventType()) {
+                case TASK_COMPLETED -> completionsByOrder
+                        .computeIfAbsent(event.getOrderId(), orderId -> new ArrayList<>()).add(event);
+            }
+        }
+        if (!completionsByOrder.isEmpty()) {
+            claimPendingCompletions(batch, completionsByOrder, now);
+        }
+        LocalDateTime leasedUntil = now.plus(workflowProperties.getOutbox().getLease());
+        // Written by dirty checking at commit, as one JDBC batch
+        completionsByOrder.values().forEach(completions -> completions.forEach(event -> event.lease(leasedUntil)));
+        return new Claimed(batch.size(), completionsByOrder);
+    }
+
+    private static double oldestAgeSeconds(OutboxEventRepository repository) {
+        LocalDateTime oldest = repository.findOldestCreatedDate();
+        return oldest == null ? 0 : Duration.between(oldest, LocalDateTime.now()).toMillis() / 1000.0;
+    }
+
+    // Adds the not-yet-due completions of the claimed orders, so they are answered by the same check
+    private void claimPendingCompletions(List<OutboxEvent> batch, Map<Long, List<OutboxEvent>> completionsByOrder,
+                                         LocalDateTime now) {
+        Set<Long> claimed = new HashSet<>();
+        for (OutboxEvent event : batch) {
+            claimed.add(event.getId());
+        }
+        // Rows leased by another relay are due later than any completion still in its window
+        LocalDateTime windowEnd = now.plus(workflowProperties.getOutbox().getCompletionWindow());
+        for (OutboxEvent event : outboxEventRepository.lockPendingCompletions(completionsByOrder.keySet(), windowEnd)) {
+            // Rows this transaction already holds are returned again
+            if (claimed.add(event.getId())) {
+                completionsByOrder.get(event.getOrderId()).add(event);
+            }
+        }
+    }
+
+    // Null once delivered, otherwise what to record on the rows
+    private Failure deliverCompletions(Long orderId, List<OutboxEvent> completions) {
+        List<Long> taskIds = new ArrayList<>(completions.size());
+        for (OutboxEvent event : completions) {
+            taskIds.add(event.getTaskId());
+        }
+        try {
+            orderService.onTasksCompleted(orderId, taskIds);
+            completionChecks.increment();
+            completionsMerged.increment(completions.size() - 1);
+            LocalDateTime now = LocalDateTime.now();
+            for (OutboxEvent event : completions) {
+                delivered.increment();
+                lag.record(Duration.between(event.getCreatedDate(), now));
+                priorityLanes.recordCompletion(event.getLane(), event.getCreatedDate());
+            }
+            return null;
+        } catch (RuntimeException e) {
+            Duration retryDelay = workflowProperties.getOutbox().getRetryDelay();
+            List<Long> ids = new ArrayList<>(completions.size());
+            for (OutboxEvent event : completions) {
+                failed.increment();
+                log.warn("Delivery of {} failed (attempt {}), retrying in {}: {}",
+                        event, event.getAttempts() + 1, retryDelay, e.getMessage());
+                ids.add(event.getId());
+            }
+            return new Failure(ids, OutboxEvent.truncateError(e.getMessage()), LocalDateTime.now().plus(retryDelay));
+        }
+    }
+
+    private record Claimed(int due, Map<Long, List<OutboxEvent>> completionsByOrder) {
+    }
+
+    private record Failure(List<Long> ids, String error, LocalDateTime retryAt) {
+    }
+}
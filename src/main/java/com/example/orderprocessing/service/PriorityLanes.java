@@ -0,0 +1,228 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.support.WeightedLanes;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.expression.AccessException;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.EvaluationException;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ParseException;
+import org.springframework.expression.PropertyAccessor;
+import org.springframework.expression.TypedValue;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.SimpleEvaluationContext;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The priority lanes of {@code workflow.priority.*}, and the lane of each order.
+ * <p>
+ * A lane has a name, a weight and a condition on the order's metadata: a SpEL expression such as
+ * {@code shippingMethod == "EXPRESS"}, whose names are looked up in the metadata object ({@code a?.b} for
+ * nested objects that may be missing). An order joins the first lane whose condition holds, or the default
+ * lane {@value #DEFAULT_LANE} when none does; a condition that cannot be evaluated does not hold. The lane
+ * is stored on the order, copied to its tasks and completion notifications as they are written, and
+ * evaluated again whenever the metadata is replaced or patched.
+ * <p>
+ * The {@link TaskWorkerPool} and the {@link OutboxRelay} split every claim between the lanes by weight
+ * (see {@link WeightedLanes}), so expedited work does not queue behind a bulk backlog and no lane starves.
+ * The time from writing a task or notification to its outcome is published per lane as
+ * {@code priority.lane.latency}, with percentile histograms.
+ */
+@Slf4j
+@Component
+public class PriorityLanes {
+
+    public static final String DEFAULT_LANE = "standard";
+
+    // SimpleEvaluationContext: no type references, constructors or bean references in conditions
+    private static final EvaluationContext CONTEXT = SimpleEvaluationContext
+            .forPropertyAccessors(new MetadataAccessor()).build();
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Map<String, Expression> conditions = new LinkedHashMap<>();
+    private final Map<String, Integer> weights = new LinkedHashMap<>();
+    private final Map<String, Timer> taskLatency = new HashMap<>();
+    private final Map<String, Timer> completionLatency = new HashMap<>();
+
+    public PriorityLanes(NamedParameterJdbcTemplate jdbcTemplate, WorkflowProperties workflowProperties,
+                         MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        WorkflowProperties.Priority settings = workflowProperties.getPriority();
+        SpelExpressionParser parser = new SpelExpressionParser();
+        for (WorkflowProperties.PriorityLane lane : settings.getLanes()) {
+            String name = lane.getName();
+            if (name == null || name.isBlank() || name.length() > 50 || DEFAULT_LANE.equals(name)
+                    || weights.containsKey(name)) {
+                throw new IllegalStateException("workflow.priority.lanes needs unique names of at most 50 characters"
+                        + " other than '" + DEFAULT_LANE + "', got '" + name + "'");
+            }
+            if (lane.getCondition() == null || lane.getCondition().isBlank()) {
+                throw new IllegalStateException("Priority lane '" + name + "' has no condition");
+            }
+            try {
+                conditions.put(name, parser.parseExpression(lane.getCondition()));
+            } catch (ParseException e) {
+                throw new IllegalStateException("Priority lane '" + name + "' has an invalid condition '"
+                        + lane.getCondition() + "': " + e.getMessage(), e);
+            }
+            weights.put(name, lane.getWeight());
+        }
+        weights.put(DEFAULT_LANE, settings.getDefaultWeight());
+        weights.forEach((name, weight) -> {
+            if (weight < 1) {
+                throw new IllegalStateException("Priority lane '" + name + "' has weight " + weight
+                        + "; it must be at least 1");
+            }
+        });
+
+        for (String name : weights.keySet()) {
+            taskLatency.put(name, latencyTimer(name, "task", meterRegistry));
+            completionLatency.put(name, latencyTimer(name, "completion", meterRegistry));
+        }
+        log.info("Priority lanes {} with weights {}", weights.keySet(), weights.values());
+    }
+
+    private static Timer latencyTimer(String lane, String path, MeterRegistry meterRegistry) {
+        return Timer.builder("priority.lane.latency").tag("lane", lane).tag("path", path)
+                .description("Time from writing a task (path=task) or completion notification (path=completion) "
+                        + "to its outcome")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return the lane an order with this metadata belongs in
+     */
+    public String laneOf(JsonNode metadata) {
+        if (conditions.isEmpty()) {
+            return DEFAULT_LANE;
+        }
+        JsonNode root = metadata == null ? MissingNode.getInstance() : metadata;
+        for (Map.Entry<String, Expression> condition : conditions.entrySet()) {
+            try {
+                if (Boolean.TRUE.equals(condition.getValue().getValue(CONTEXT, root, Boolean.class))) {
+                    return condition.getKey();
+                }
+            } catch (EvaluationException e) {
+                log.debug("Condition of priority lane '{}' does not apply to {}: {}", condition.getKey(), root,
+                        e.getMessage());
+            }
+        }
+        return DEFAULT_LANE;
+    }
+
+    // Whether the lane depends on the metadata at all
+    public boolean hasConditions() {
+        return !conditions.isEmpty();
+    }
+
+    /**
+     * @return the lane itself, or the default lane if it is no longer configured
+     */
+    public String resolve(String lane) {
+        return lane != null && weights.containsKey(lane) ? lane : DEFAULT_LANE;
+    }
+
+    /**
+     * A fresh share-out of claims between the lanes, in the order they are configured, default last.
+     */
+    public WeightedLanes<String> newWeightedLanes() {
+        return new WeightedLanes<>(weights);
+    }
+
+    public void recordTask(String lane, LocalDateTime createdDate) {
+        record(taskLatency, lane, createdDate);
+    }
+
+    public void recordCompletion(String lane, LocalDateTime createdDate) {
+        record(completionLatency, lane, createdDate);
+    }
+
+    private static void record(Map<String, Timer> timers, String lane, LocalDateTime createdDate) {
+        Timer timer = timers.get(lane);
+        if (timer != null && createdDate != null) {
+            timer.record(Duration.between(createdDate, LocalDateTime.now()).toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Moves waiting tasks and notifications out of lanes that are no longer configured, which nothing
+     * would claim otherwise. Their orders are moved the next time a task is added or the metadata changes.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void adoptUnknownLanes() {
+        try {
+            Map<String, Object> params = Map.of("default", DEFAULT_LANE, "known", List.copyOf(weights.keySet()));
+            int tasks = jdbcTemplate.update(
+                    "update tasks set lane = :default where status = 'PENDING' and lane not in (:known)", params);
+            int notifications = jdbcTemplate.update(
+                    "update outbox_events set lane = :default where lane not in (:known)", params);
+            if (tasks + notifications > 0) {
+                log.info("Moved {} tasks and {} notifications of unconfigured lanes to '{}'",
+                        tasks, notifications, DEFAULT_LANE);
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not move work out of unconfigured priority lanes: {}", e.getMessage(), e);
+        }
+    }
+
+    // Resolves names in conditions to the fields of a JSON object, as their plain values; missing
+    // fields and JSON null are null, nested objects and arrays stay JSON
+    private static final class MetadataAccessor implements PropertyAccessor {
+
+        @Override
+        public Class<?>[] getSpecificTargetClasses() {
+            return new Class<?>[]{JsonNode.class};
+        }
+
+        @Override
+        public boolean canRead(EvaluationContext context, Object target, String name) {
+            return target instanceof JsonNode;
+        }
+
+        @Override
+        public TypedValue read(EvaluationContext context, Object target, String name) {
+            JsonNode value = ((JsonNode) target).get(name);
+            if (value == null || value.isNull()) {
+                return TypedValue.NULL;
+            }
+            if (value.isTextual()) {
+                return new TypedValue(value.textValue());
+            }
+            if (value.isNumber()) {
+                return new TypedValue(value.numberValue());
+            }
+            if (value.isBoolean()) {
+                return new TypedValue(value.booleanValue());
+            }
+            return new TypedValue(value);
+        }
+
+        @Override
+        public boolean canWrite(EvaluationContext context, Object target, String name) {
+            return false;
+        }
+
+        @Override
+        public void write(EvaluationContext context, Object target, String name, Object newValue)
+                throws AccessException {
+            throw new AccessException("Metadata is read-only in lane conditions");
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.repository.SlaTimeoutRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The SLA deadlines of tasks and orders in a status with a timeout ({@code workflow.timeouts.*}), held in
+ * one {@link TimingWheel} per kind.
+ * <p>
+ * Every accepted transition sets or cancels the deadline of its task or order once it commits: entering a
+ * timed status sets it to {@code after} from now, any other status cancels it. On startup the wheels are
+ * rebuilt from the rows in timed statuses, with deadlines counted from their {@code status_changed_at}. The
+ * {@link SlaTimeoutScheduler} advances the wheels and sends the configured events for what expired.
+ * <p>
+ * Initial statuses cannot be timed, as entities are created in them without a transition.
+ */
+@Slf4j
+@Component
+public class SlaDeadlines {
+
+    private static final int REBUILD_FETCH_SIZE = 1_000;
+
+    private final SlaTimeoutRepository slaTimeoutRepository;
+    private final TransactionTemplate rebuildTransaction;
+    private final long tickMillis;
+    private final Map<TaskStatus, Duration> taskTimeouts = new EnumMap<>(TaskStatus.class);
+    private final Map<OrderStatus, Duration> orderTimeouts = new EnumMap<>(OrderStatus.class);
+    private final TimingWheel tasks;
+    private final TimingWheel orders;
+
+    public SlaDeadlines(SlaTimeoutRepository slaTimeoutRepository, PlatformTransactionManager transactionManager,
+                        WorkflowProperties workflowProperties, MeterRegistry meterRegistry) {
+        this.slaTimeoutRepository = slaTimeoutRepository;
+        this.rebuildTransaction = new TransactionTemplate(transactionManager);
+        this.rebuildTransaction.setReadOnly(true);
+        WorkflowProperties.Timeouts settings = workflowProperties.getTimeouts();
+        this.tickMillis = settings.getTick().toMillis();
+        if (tickMillis < 1) {
+            throw new IllegalStateException("workflow.timeouts.tick must be at least 1ms");
+        }
+        settings.getTasks().forEach((status, timeout) -> {
+            if (timeout.getAfter() != null && !timeout.getAfter().isNegative() && !timeout.getAfter().isZero()) {
+                taskTimeouts.put(status, timeout.getAfter());
+            }
+        });
+        settings.getOrders().forEach((status, timeout) -> {
+            if (timeout.getAfter() != null && !timeout.getAfter().isNegative() && !timeout.getAfter().isZero()) {
+                orderTimeouts.put(status, timeout.getAfter());
+            }
+        });
+        if (taskTimeouts.containsKey(TaskStatus.PENDING) || orderTimeouts.containsKey(OrderStatus.CREATED)) {
+            throw new IllegalStateException("workflow.timeouts cannot time PENDING tasks or CREATED orders");
+        }
+        long now = currentTick();
+        this.tasks = new TimingWheel(now);
+        this.orders = new TimingWheel(now);
+
+        Gauge.builder("sla.timers", this, deadlines -> deadlines.size(deadlines.tasks)).tag("kind", "task")
+                .description("SLA deadlines waiting in the timing wheel").register(meterRegistry);
+        Gauge.builder("sla.timers", this, deadlines -> deadlines.size(deadlines.orders)).tag("kind", "order")
+                .description("SLA deadlines waiting in the timing wheel").register(meterRegistry);
+    }
+
+    public Duration timeoutOf(TaskStatus status) {
+        return taskTimeouts.get(status);
+    }
+
+    public Duration timeoutOf(OrderStatus status) {
+        return orderTimeouts.get(status);
+    }
+
+    /**
+     * Sets or cancels the deadlines of the journaled transitions once the current transaction commits, or
+     * right away outside of one.
+     */
+    public void track(List<TransitionJournal.Entry> entries) {
+        if (taskTimeouts.isEmpty() && orderTimeouts.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(entries);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                apply(entries);
+            }
+        });
+    }
+
+    // In journal order, so the last step of an entity's net change decides
+    private synchronized void apply(List<TransitionJournal.Entry> entries) {
+        for (TransitionJournal.Entry entry : entries) {
+            if (entry.taskId() != null) {
+                TaskStatus status = TaskStatus.valueOf(entry.toStatus());
+                Duration after = taskTimeouts.get(status);
+                if (after != null) {
+                    tasks.schedule(entry.taskId(), status.ordinal(), tickOf(entry.occurredAt().plus(after)));
+                } else {
+                    tasks.cancel(entry.taskId());
+                }
+            } else {
+                OrderStatus status = OrderStatus.valueOf(entry.toStatus());
+                Duration after = orderTimeouts.get(status);
+                if (after != null) {
+                    orders.schedule(entry.orderId(), status.ordinal(), tickOf(entry.occurredAt().plus(after)));
+                } else {
+                    orders.cancel(entry.orderId());
+                }
+            }
+        }
+    }
+
+    // Sets a deadline directly, replacing the current one
+    public synchronized void schedule(Long taskId, TaskStatus status, LocalDateTime deadline) {
+        tasks.schedule(taskId, status.ordinal(), tickOf(deadline));
+    }
+
+    public synchronized void schedule(Long orderId, OrderStatus status, LocalDateTime deadline) {
+        orders.schedule(orderId, status.ordinal(), tickOf(deadline));
+    }
+
+    /**
+     * Moves both wheels up to the current time.
+     *
+     * @return the ids whose deadline passed, by the status they were set for
+     */
+    public synchronized Expired advance() {
+        long now = currentTick();
+        Map<TaskStatus, List<Long>> expiredTasks = new EnumMap<>(TaskStatus.class);
+        Map<OrderStatus, List<Long>> expiredOrders = new EnumMap<>(OrderStatus.class);
+        tasks.advance(now, (id, status) -> expiredTasks
+                .computeIfAbsent(TaskStatus.values()[status], s -> new ArrayList<>()).add(id));
+        orders.advance(now, (id, status) -> expiredOrders
+                .computeIfAbsent(OrderStatus.values()[status], s -> new ArrayList<>()).add(id));
+        return new Expired(expiredTasks, expiredOrders);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long start = System.nanoTime();
+        try {
+            // One read-only transaction, so both scans run from a cursor
+            rebuildTransaction.executeWithoutResult(tx -> {
+                slaTimeoutRepository.forEachTask(taskTimeouts.keySet(), REBUILD_FETCH_SIZE,
+                        task -> schedule(task.id(), task.status(), task.statusChangedAt().plus(timeoutOf(task.status()))));
+                slaTimeoutRepository.forEachOrder(orderTimeouts.keySet(), REBUILD_FETCH_SIZE,
+                        order -> schedule(order.id(), order.status(), order.statusChangedAt().plus(timeoutOf(order.status()))));
+            });
+            log.info("SLA deadlines rebuilt in {} ms: {} tasks, {} orders",
+                    Duration.ofNanos(System.nanoTime() - start).toMillis(), size(tasks), size(orders));
+        } catch (RuntimeException e) {
+            // Entities that change status from now on are still tracked; the others time out after a restart
+            log.error("Could not rebuild SLA deadlines: {}", e.getMessage(), e);
+        }
+    }
+
+    private synchronized int size(TimingWheel wheel) {
+        return wheel.size();
+    }
+
+    private long currentTick() {
+        return System.currentTimeMillis() / tickMillis;
+    }
+
+    // Rounded up, so a deadline never fires early
+    private long tickOf(LocalDateTime time) {
+        long millis = time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return Math.floorDiv(millis + tickMillis - 1, tickMillis);
+    }
+
+    public record Expired(Map<TaskStatus, List<Long>> tasks, Map<OrderStatus, List<Long>> orders) {
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.dto.BatchEventResult;
+import com.example.orderprocessing.dto.OrderEventBatchItem;
+import com.example.orderprocessing.dto.TaskEventBatchItem;
+import com.example.orderprocessing.enums.OrderEvent;
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.repository.SlaTimeoutRepository;
+import com.example.orderprocessing.repository.SlaTimeoutRepository.Entered;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Sends the configured event to tasks and orders whose SLA deadline in {@link SlaDeadlines} has passed.
+ * <p>
+ * Every {@code workflow.timeouts.tick} the wheels are advanced to the current time. Expired ids are checked
+ * against the database before anything is sent. Entities that left the status are dropped. Entities that
+ * re-entered it since their deadline was set get a new deadline from their {@code status_changed_at}. The rest
+ * are sent {@code FAIL_TASK}, {@code CANCEL_ORDER} or whatever event is configured, through the batch event
+ * path of {@link TaskService} and {@link OrderService}, so a burst of expiries costs one transaction per
+ * chunk. Events that cannot be sent are tried again after {@code workflow.timeouts.retry-delay}.
+ */
+@Slf4j
+@Service
+public class SlaTimeoutScheduler {
+
+    private final SlaDeadlines slaDeadlines;
+    private final SlaTimeoutRepository slaTimeoutRepository;
+    private final TaskService taskService;
+    private final OrderService orderService;
+    private final WorkflowProperties workflowProperties;
+
+    private final Counter taskTimeouts;
+    private final Counter orderTimeouts;
+
+    public SlaTimeoutScheduler(SlaDeadlines slaDeadlines, SlaTimeoutRepository slaTimeoutRepository,
+                               TaskService taskService, OrderService orderService,
+                               WorkflowProperties workflowProperties, MeterRegistry meterRegistry) {
+        this.slaDeadlines = slaDeadlines;
+        this.slaTimeoutRepository = slaTimeoutRepository;
+        this.taskService = taskService;
+        this.orderService = orderService;
+        this.workflowProperties = workflowProperties;
+
+        this.taskTimeouts = Counter.builder("sla.timeouts").tag("kind", "task")
+                .description("Timeout events accepted by entities that overran their SLA").register(meterRegistry);
+        this.orderTimeouts = Counter.builder("sla.timeouts").tag("kind", "order")
+                .description("Timeout events accepted by entities that overran their SLA").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "#{@workflowProperties.timeouts.tick.toMillis()}")
+    public void poll() {
+        SlaDeadlines.Expired expired = slaDeadlines.advance();
+        expired.tasks().forEach((status, ids) -> forEachSlice(ids, slice -> expireTasks(status, slice)));
+        expired.orders().forEach((status, ids) -> forEachSlice(ids, slice -> expireOrders(status, slice)));
+    }
+
+    // Slices no larger than a batch request may be
+    private void forEachSlice(List<Long> ids, Consumer<List<Long>> action) {
+        int maxItems = workflowProperties.getBatch().getMaxItems();
+        for (int from = 0; from < ids.size(); from += maxItems) {
+            action.accept(ids.subList(from, Math.min(from + maxItems, ids.size())));
+        }
+    }
+
+    private void expireTasks(TaskStatus status, List<Long> ids) {
+        Duration after = slaDeadlines.timeoutOf(status);
+        TaskEvent event = workflowProperties.getTimeouts().getTasks().get(status).getEvent();
+        LocalDateTime now = LocalDateTime.now();
+        List<TaskEventBatchItem> items = new ArrayList<>();
+        try {
+            Map<Long, Entered<TaskStatus>> current = slaTimeoutRepository.findTasks(ids);
+            for (Long id : ids) {
+                Entered<TaskStatus> task = current.get(id);
+                if (task == null || task.status() != status) {
+                    continue;
+                }
+                LocalDateTime deadline = task.statusChangedAt().plus(after);
+                if (deadline.isAfter(now)) {
+                    slaDeadlines.schedule(id, status, deadline);
+                } else {
+                    items.add(new TaskEventBatchItem(id, event, "No progress for " + after + " in " + status));
+                }
+            }
+            if (!items.isEmpty()) {
+                taskTimeouts.increment(accepted(taskService.sendTaskEvents(items)));
+                log.info("Sent {} to {} tasks that stayed {} for {}", event, items.size(), status, after);
+            }
+        } catch (RuntimeException e) {
+            Duration retryDelay = workflowProperties.getTimeouts().getRetryDelay();
+            log.error("Could not time out {} tasks in {}, retrying in {}: {}", ids.size(), status, retryDelay,
+                    e.getMessage(), e);
+            ids.forEach(id -> slaDeadlines.schedule(id, status, now.plus(retryDelay)));
+        }
+    }
+
+    private void expireOrders(OrderStatus status, List<Long> ids) {
+        Duration after = slaDeadlines.timeoutOf(status);
+        OrderEvent event = workflowProperties.getTimeouts().getOrders().get(status).getEvent();
+        LocalDateTime now = LocalDateTime.now();
+        List<OrderEventBatchItem> items = new ArrayList<>();
+        try {
+            Map<Long, Entered<OrderStatus>> current = slaTimeoutRepository.findOrders(ids);
+            for (Long id : ids) {
+                Entered<OrderStatus> order = current.get(id);
+                if (order == null || order.status() != status) {
+                    continue;
+                }
+                LocalDateTime deadline = order.statusChangedAt().plus(after);
+                if (deadline.isAfter(now)) {
+                    slaDeadlines.schedule(id, status, deadline);
+                } else {
+                    items.add(new OrderEventBatchItem(id, event, "No progress for " + after + " in " + status));
+                }
+            }
+            if (!items.isEmpty()) {
+                orderTimeouts.increment(accepted(orderService.sendOrderEvents(items)));
+                log.info("Sent {} to {} orders that stayed {} for {}", event, items.size(), status, after);
+            }
+        } catch (RuntimeException e) {
+            Duration retryDelay = workflowProperties.getTimeouts().getRetryDelay();
+            log.error("Could not time out {} orders in {}, retrying in {}: {}", ids.size(), status, retryDelay,
+                    e.getMessage(), e);
+            ids.forEach(id -> slaDeadlines.schedule(id, status, now.plus(retryDelay)));
+        }
+    }
+
+    private static long accepted(List<BatchEventResult> results) {
+        return results.stream().filter(result -> result.getOutcome() == BatchEventResult.Outcome.ACCEPTED).count();
+    }
+}
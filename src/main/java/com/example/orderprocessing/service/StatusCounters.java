@@ -0,0 +1,225 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.dto.StatusCountsDto;
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.enums.TaskType;
+import com.example.orderprocessing.model.Order;
+import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.repository.OrderRepository;
+import com.example.orderprocessing.repository.TaskRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counts of orders per {@link OrderStatus} and of tasks per {@link TaskType} and {@link TaskStatus},
+ * read by {@code GET /api/v1/stats/status-counts} without touching the database.
+ * <p>
+ * The counts are {@link LongAdder}s in arrays indexed by enum ordinal. Concurrent transitions therefore
+ * update them without contending on a shared value. Every path that creates orders or tasks or changes
+ * their status describes its change as a {@link Delta}. The delta is applied once the transaction
+ * commits, so a rolled back change is never counted.
+ * <p>
+ * The counts are seeded from grouped {@code count(*)} queries at startup and reconciled against them every
+ * {@code workflow.stats.reconcile-interval}. It corrects any drift, such as writes made by other instances
+ * or outside the application. The counts are sampled before and after the queries, and a count that moved
+ * in between is left for the next reconciliation: the queries may or may not have seen the change, so
+ * correcting it could count the change twice. A change committed just before the queries but applied only
+ * after the second sample can still be counted twice, until the next reconciliation corrects it. The
+ * absolute drift corrected is published as {@code stats.status.drift}.
+ */
+@Slf4j
+@Component
+public class StatusCounters {
+
+    private static final OrderStatus[] ORDER_STATUSES = OrderStatus.values();
+    private static final TaskStatus[] TASK_STATUSES = TaskStatus.values();
+    private static final TaskType[] TASK_TYPES = TaskType.values();
+
+    private final OrderRepository orderRepository;
+    private final TaskRepository taskRepository;
+    private final Counter drift;
+
+    private final LongAdder[] orders = newAdders(ORDER_STATUSES.length);
+    private final LongAdder[][] tasks = new LongAdder[TASK_TYPES.length][];
+    private volatile Instant reconciledAt;
+
+    public StatusCounters(OrderRepository orderRepository, TaskRepository taskRepository, MeterRegistry meterRegistry) {
+        this.orderRepository = orderRepository;
+        this.taskRepository = taskRepository;
+        for (int type = 0; type < TASK_TYPES.length; type++) {
+            tasks[type] = newAdders(TASK_STATUSES.length);
+        }
+        this.drift = Counter.builder("stats.status.drift")
+                .description("Difference between the in-memory status counts and the database, corrected by reconciling")
+                .register(meterRegistry);
+    }
+
+    private static LongAdder[] newAdders(int length) {
+        LongAdder[] adders = new LongAdder[length];
+        for (int i = 0; i < length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Applies the delta once the current transaction commits, or right away outside of one.
+     */
+    public void apply(Delta delta) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            add(delta);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                add(delta);
+            }
+        });
+    }
+
+    private void add(Delta delta) {
+        for (int status = 0; status < ORDER_STATUSES.length; status++) {
+            if (delta.orders[status] != 0) {
+                orders[status].add(delta.orders[status]);
+            }
+        }
+        for (int type = 0; type < TASK_TYPES.length; type++) {
+            for (int status = 0; status < TASK_STATUSES.length; status++) {
+                if (delta.tasks[type][status] != 0) {
+                    tasks[type][status].add(delta.tasks[type][status]);
+                }
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void seed() {
+        try {
+            reconcile();
+            log.info("Status counters seeded from the database");
+        } catch (RuntimeException e) {
+            log.warn("Could not seed status counters, they are corrected by the next reconciliation: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Moves every count that did not change while the queries ran to the database's.
+     *
+     * @return the total absolute difference that was corrected
+     */
+    @Scheduled(fixedDelayString = "#{@workflowProperties.stats.reconcileInterval.toMillis()}",
+            initialDelayString = "#{@workflowProperties.stats.reconcileInterval.toMillis()}")
+    public long reconcile() {
+        long[] orderCounts = new long[ORDER_STATUSES.length];
+        long[][] taskCounts = new long[TASK_TYPES.length][TASK_STATUSES.length];
+        long[] ordersBefore = sums(orders);
+        long[][] tasksBefore = new long[TASK_TYPES.length][];
+        for (int type = 0; type < TASK_TYPES.length; type++) {
+            tasksBefore[type] = sums(tasks[type]);
+        }
+
+        orderRepository.countByStatus().forEach(count -> orderCounts[count.getStatus().ordinal()] = count.getCount());
+        taskRepository.countByTaskTypeAndStatus().forEach(count ->
+                taskCounts[count.getTaskType().ordinal()][count.getStatus().ordinal()] = count.getCount());
+
+        long corrected = correct(orders, ordersBefore, sums(orders), orderCounts);
+        for (int type = 0; type < TASK_TYPES.length; type++) {
+            corrected += correct(tasks[type], tasksBefore[type], sums(tasks[type]), taskCounts[type]);
+        }
+        reconciledAt = Instant.now();
+        if (corrected != 0) {
+            drift.increment(corrected);
+            log.info("Reconciled status counters, corrected a drift of {}", corrected);
+        }
+        return corrected;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            sums[i] = adders[i].sum();
+        }
+        return sums;
+    }
+
+    // Counts that moved between the samples are skipped; the queries are not ordered with the changes
+    private static long correct(LongAdder[] adders, long[] before, long[] after, long[] actual) {
+        long corrected = 0;
+        for (int i = 0; i < adders.length; i++) {
+            if (before[i] != after[i]) {
+                continue;
+            }
+            long difference = actual[i] - before[i];
+            if (difference != 0) {
+                adders[i].add(difference);
+                corrected += Math.abs(difference);
+            }
+        }
+        return corrected;
+    }
+
+    public StatusCountsDto snapshot() {
+        Map<OrderStatus, Long> orderCounts = new EnumMap<>(OrderStatus.class);
+        for (OrderStatus status : ORDER_STATUSES) {
+            orderCounts.put(status, orders[status.ordinal()].sum());
+        }
+        Map<TaskType, Map<TaskStatus, Long>> taskCounts = new EnumMap<>(TaskType.class);
+        for (TaskType type : TASK_TYPES) {
+            Map<TaskStatus, Long> byStatus = new EnumMap<>(TaskStatus.class);
+            for (TaskStatus status : TASK_STATUSES) {
+                byStatus.put(status, tasks[type.ordinal()][status.ordinal()].sum());
+            }
+            taskCounts.put(type, byStatus);
+        }
+        return new StatusCountsDto(orderCounts, taskCounts, reconciledAt);
+    }
+
+    /**
+     * Status changes made by one transaction, collected before they are applied.
+     */
+    public static final class Delta {
+
+        private final long[] orders = new long[ORDER_STATUSES.length];
+        private final long[][] tasks = new long[TASK_TYPES.length][TASK_STATUSES.length];
+
+        // A new order and the tasks attached to it
+        public Delta created(Order order) {
+            orders[order.getStatus().ordinal()]++;
+            for (Task task : order.getTasks()) {
+                created(task);
+            }
+            return this;
+        }
+
+        public Delta created(Task task) {
+            tasks[task.getTaskType().ordinal()][task.getStatus().ordinal()]++;
+            return this;
+        }
+
+        public Delta order(OrderStatus source, OrderStatus target) {
+            orders[source.ordinal()]--;
+            orders[target.ordinal()]++;
+            return this;
+        }
+
+        public Delta task(TaskType type, TaskStatus source, TaskStatus target) {
+            tasks[type.ordinal()][source.ordinal()]--;
+            tasks[type.ordinal()][target.ordinal()]++;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.enums.TaskType;
+import com.example.orderprocessing.model.Task;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which task types must complete before a task of another type may run within the same order, from
+ * {@code workflow.tasks.dependencies}. Checked to be acyclic at startup.
+ * <p>
+ * Every task carries {@code pending_prerequisites}, the number of its order's tasks of a prerequisite
+ * type that have not completed yet. It is counted when the task is created and decremented when one of
+ * those tasks completes while the task is still PENDING. The {@link TaskWorkerPool} only claims tasks
+ * whose count is zero, so a task is released the moment its last prerequisite completes, and tasks
+ * without a path between them run side by side. Prerequisite types an order has no task for are ignored. Events sent through the API are not
+ * held back by dependencies.
+ */
+@Slf4j
+@Component
+public class TaskDependencies {
+
+    private final Map<TaskType, Set<TaskType>> prerequisites = new EnumMap<>(TaskType.class);
+    private final Map<TaskType, Set<TaskType>> dependents = new EnumMap<>(TaskType.class);
+
+    public TaskDependencies(WorkflowProperties workflowProperties) {
+        for (TaskType type : TaskType.values()) {
+            prerequisites.put(type, EnumSet.noneOf(TaskType.class));
+            dependents.put(type, EnumSet.noneOf(TaskType.class));
+        }
+        workflowProperties.getTasks().getDependencies().forEach((type, required) -> {
+            for (TaskType prerequisite : required) {
+                prerequisites.get(type).add(prerequisite);
+                dependents.get(prerequisite).add(type);
+            }
+        });
+        checkAcyclic();
+        log.info("Task dependencies: {}", workflowProperties.getTasks().getDependencies());
+    }
+
+    // Kahn's algorithm: whatever cannot be ordered is on or behind a cycle
+    private void checkAcyclic() {
+        Map<TaskType, Integer> remaining = new EnumMap<>(TaskType.class);
+        Deque<TaskType> ready = new ArrayDeque<>();
+        prerequisites.forEach((type, required) -> {
+            remaining.put(type, required.size());
+            if (required.isEmpty()) {
+                ready.add(type);
+            }
+        });
+        while (!ready.isEmpty()) {
+            TaskType type = ready.poll();
+            remaining.remove(type);
+            for (TaskType dependent : dependents.get(type)) {
+                if (remaining.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (!remaining.isEmpty()) {
+            throw new IllegalStateException("workflow.tasks.dependencies has a cycle through " + remaining.keySet());
+        }
+    }
+
+    public Set<TaskType> prerequisitesOf(TaskType type) {
+        return prerequisites.get(type);
+    }
+
+    public Set<TaskType> dependentsOf(TaskType type) {
+        return dependents.get(type);
+    }
+
+    /**
+     * Sets the {@code pendingPrerequisites} of tasks created together for a new order, all still PENDING.
+     */
+    public void count(Collection<Task> siblings) {
+        for (Task task : siblings) {
+            Set<TaskType> required = prerequisitesOf(task.getTaskType());
+            task.setPendingPrerequisites((int) siblings.stream()
+                    .filter(sibling -> required.contains(sibling.getTaskType()))
+                    .count());
+        }
+    }
+}
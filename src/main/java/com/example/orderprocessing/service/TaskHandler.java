@@ -0,0 +1,17 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.enums.TaskType;
+
+/**
+ * Executes the tasks of one {@link TaskType} for the {@link TaskWorkerPool}. Every handler bean in the
+ * context is picked up; tasks of types without a handler stay {@code PENDING} until an event moves them.
+ * <p>
+ * {@code handle} runs after the task has been started ({@code IN_PROGRESS}) and outside of any
+ * transaction. Returning completes the task. Throwing fails it, with the exception message as the reason.
+ */
+public interface TaskHandler {
+
+    TaskType taskType();
+
+    void handle(Long taskId, Long orderId) throws Exception;
+}
@@ -0,0 +1,60 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.enums.TaskType;
+import com.example.orderprocessing.model.TaskRetry;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When a failed task is retried automatically, from {@code workflow.retry.policies} per task type and
+ * {@code workflow.retry.default-policy} otherwise.
+ * <p>
+ * The n-th failure of a task is retried after {@code base-delay * 2^(n-1)}, at most {@code max-delay}, of
+ * which a random share up to {@code jitter} is taken off. Tasks that failed together in an outage therefore
+ * come due spread over an interval instead of all at once. Once a task has failed {@code max-attempts}
+ * times it stays FAILED.
+ */
+@Component
+public class TaskRetryPolicies {
+
+    private final WorkflowProperties.Retry settings;
+
+    public TaskRetryPolicies(WorkflowProperties workflowProperties) {
+        this.settings = workflowProperties.getRetry();
+    }
+
+    public WorkflowProperties.RetryPolicy policyOf(TaskType taskType) {
+        return settings.getPolicies().getOrDefault(taskType, settings.getDefaultPolicy());
+    }
+
+    /**
+     * The retry to schedule for a task that has just failed for the {@code attempts}-th time, if its policy
+     * allows another run.
+     */
+    public Optional<TaskRetry> retryAfter(Long taskId, Long orderId, TaskType taskType, int attempts,
+                                          LocalDateTime failedAt) {
+        WorkflowProperties.RetryPolicy policy = policyOf(taskType);
+        if (attempts >= policy.getMaxAttempts()) {
+            return Optional.empty();
+        }
+        return Optional.of(new TaskRetry(taskId, orderId, taskType, attempts, failedAt.plus(delay(policy, attempts))));
+    }
+
+    static Duration delay(WorkflowProperties.RetryPolicy policy, int attempts) {
+        long baseMillis = policy.getBaseDelay().toMillis();
+        long maxMillis = policy.getMaxDelay().toMillis();
+        // Doubling stops at the cap, so it cannot overflow
+        long millis = baseMillis;
+        for (int i = 1; i < attempts && millis < maxMillis; i++) {
+            millis *= 2;
+        }
+        millis = Math.min(millis, maxMillis);
+        double jitter = Math.max(0, Math.min(1, policy.getJitter()));
+        return Duration.ofMillis(millis - (long) (millis * jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+}
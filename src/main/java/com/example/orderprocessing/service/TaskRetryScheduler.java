@@ -0,0 +1,74 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.model.TaskRetry;
+import com.example.orderprocessing.repository.TaskRetryRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Fires the automatic retries of failed tasks once they are due.
+ * <p>
+ * A task that fails is given a row in {@code task_retries} in the same transaction, due after the backoff
+ * of its type's policy (see {@link TaskRetryPolicies}). Every poll claims up to
+ * {@code workflow.retry.batch-size} due rows with {@code FOR UPDATE SKIP LOCKED}, sends {@code RETRY_TASK}
+ * to their tasks as one batch and deletes the rows, all in one transaction. Tasks with a {@link TaskHandler}
+ * are then run again by the {@link TaskWorkerPool}.
+ * <p>
+ * Unlike the outbox relay, a poll never claims more than one batch. However many retries came due during an
+ * outage, they are fired at no more than {@code batch-size} per {@code poll-interval} and instance, and the
+ * jitter of the policies spreads them further, so a recovering downstream is not hit by all of them at once.
+ * The rows outlive restarts; retries due while no instance ran are fired on the next start.
+ */
+@Slf4j
+@Service
+public class TaskRetryScheduler {
+
+    private final TaskService taskService;
+    private final TaskWorkerPool taskWorkerPool;
+    private final WorkflowProperties workflowProperties;
+
+    private final Counter fired;
+
+    public TaskRetryScheduler(TaskService taskService, TaskWorkerPool taskWorkerPool,
+                              TaskRetryRepository taskRetryRepository, WorkflowProperties workflowProperties,
+                              MeterRegistry meterRegistry) {
+        this.taskService = taskService;
+        this.taskWorkerPool = taskWorkerPool;
+        this.workflowProperties = workflowProperties;
+
+        this.fired = Counter.builder("task.retry.fired")
+                .description("Automatic retries that moved a failed task back to IN_PROGRESS").register(meterRegistry);
+        // Both gauges are evaluated on scrape, not per poll
+        Gauge.builder("task.retry.backlog", taskRetryRepository, TaskRetryRepository::count)
+                .description("Automatic retries scheduled, due or not").register(meterRegistry);
+        Gauge.builder("task.retry.overdue", taskRetryRepository, TaskRetryScheduler::overdueSeconds)
+                .baseUnit("seconds")
+                .description("How long the earliest scheduled retry has been due").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "#{@workflowProperties.retry.pollInterval.toMillis()}")
+    public void poll() {
+        List<TaskRetry> retried = taskService.fireDueRetries(workflowProperties.getRetry().getBatchSize());
+        for (TaskRetry retry : retried) {
+            taskWorkerPool.resume(retry.getTaskId(), retry.getOrderId(), retry.getTaskType());
+        }
+        fired.increment(retried.size());
+        if (!retried.isEmpty()) {
+            log.info("Fired {} automatic task retries", retried.size());
+        }
+    }
+
+    private static double overdueSeconds(TaskRetryRepository repository) {
+        LocalDateTime earliest = repository.findEarliestDueAt();
+        return earliest == null ? 0 : Math.max(0, Duration.between(earliest, LocalDateTime.now()).toMillis() / 1000.0);
+    }
+}
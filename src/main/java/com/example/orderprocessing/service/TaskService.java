@@ -1,19 +1,37 @@
 package com.example.orderprocessing.service;
 
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.dto.BatchEventResult;
+import com.example.orderprocessing.dto.TaskDto;
+import com.example.orderprocessing.dto.TaskEventBatchItem;
 import com.example.orderprocessing.enums.TaskEvent;
 import com.example.orderprocessing.enums.TaskStatus;
 import com.example.orderprocessing.enums.TaskType;
-import com.example.orderprocessing.model.Order;
+import com.example.orderprocessing.exception.TransitionConflictException;
+import com.example.orderprocessing.model.OutboxEvent;
 import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.model.TaskRetry;
+import com.example.orderprocessing.repository.OutboxEventRepository;
+import com.example.orderprocessing.repository.TaskCounterDelta;
 import com.example.orderprocessing.repository.TaskRepository;
+import com.example.orderprocessing.repository.TaskRetryRepository;
+import com.example.orderprocessing.repository.TransitionBatchRepository;
+import com.example.orderprocessing.repository.TransitionBatchRepository.LockedTask;
+import com.example.orderprocessing.repository.TransitionBatchRepository.StatusChange;
+import com.example.orderprocessing.support.WeightedLanes;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Slf4j
 @Service
@@ -22,32 +40,39 @@ public class TaskService {
 
   private final TaskRepository taskRepository;
   private final TaskStateMachineService taskStateMachineService;
-  private final ApplicationEventPublisher eventPublisher; // For decoupling, to notify OrderService
-
-  @Transactional
-  public Task createTask(Order order, TaskType taskType) {
-    Task task = new Task(order, taskType);
-    // Initial status is PENDING by default
-    Task savedTask = taskRepository.save(task);
-    log.info(
-      "Task {} created with ID: {} for order ID: {}",
-      taskType,
-      savedTask.getId(),
-      order.getId()
-    );
-
-    // Initialize and start state machine for this new task
-    taskStateMachineService.initializeStateMachine(savedTask);
-    // Consider sending START_TASK event immediately if appropriate or let it be explicit
-    // For now, let's make it explicit via an endpoint or another service call.
-    return savedTask;
-  }
+  private final OutboxEventRepository outboxEventRepository; // Notifies OrderService via the OutboxRelay
+  private final WorkflowProperties workflowProperties;
+  private final TransitionBatchRepository transitionBatchRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final OrderViewCache orderViewCache;
+  private final StatusCounters statusCounters;
+  private final TransitionJournal transitionJournal;
+  private final SlaDeadlines slaDeadlines;
+  private final TaskDependencies taskDependencies;
+  private final TaskRetryPolicies taskRetryPolicies;
+  private final TaskRetryRepository taskRetryRepository;
 
   @Transactional(readOnly = true)
   public Optional<Task> getTaskById(Long taskId) {
     return taskRepository.findById(taskId);
   }
 
+  @Transactional(readOnly = true)
+  public Optional<TaskDto> findTaskDto(Long taskId) {
+    return taskRepository.findDtoById(taskId);
+  }
+
+  // The serialized TaskDto, from the view cache when possible. Deliberately not @Transactional: a hit
+  // must not open a transaction or borrow a connection.
+  public Optional<OrderViewCache.View> findTaskView(Long taskId) {
+    return orderViewCache.task(taskId, () -> taskRepository.findDtoById(taskId));
+  }
+
+  // The current ETag of the task view, from the cached view or a read of the version column alone
+  public Optional<String> findTaskETag(Long taskId) {
+    return orderViewCache.taskETag(taskId, () -> taskRepository.findVersionById(taskId));
+  }
+
   @Transactional(readOnly = true)
   public List<Task> getTasksForOrder(Long orderId) {
     return taskRepository.findByOrderId(orderId);
@@ -55,81 +80,311 @@ public class TaskService {
 
   @Transactional
   public boolean sendTaskEvent(Long taskId, TaskEvent event, String reason) {
-    Task task = taskRepository
-      .findById(taskId)
-      .orElseThrow(() -> new RuntimeException("Task not found: " + taskId)); // Specific exception
-    log.info("Attempting to send event {} to task {}", event, taskId);
-    boolean eventAccepted = taskStateMachineService.sendEvent(
-      task,
-      event,
-      reason
-    );
+    int maxAttempts = workflowProperties.getTransition().getMaxAttempts();
+    for (int attempt = 1; ; attempt++) {
+      // Only the columns needed for the transition are read, never the entity
+      TaskRepository.TaskSnapshot task = taskRepository
+        .findSnapshotById(taskId)
+        .orElseThrow(() -> new RuntimeException("Task not found: " + taskId)); // Specific exception
+      log.info(
+        "Attempting to send event {} to task {} in status {}",
+        event,
+        taskId,
+        task.getStatus()
+      );
+      boolean eventAccepted;
+      try {
+        eventAccepted = taskStateMachineService.sendEvent(
+          taskId,
+          task.getOrderId(),
+          task.getTaskType(),
+          task.getStatus(),
+          event,
+          reason
+        );
+      } catch (TransitionConflictException e) {
+        if (attempt >= maxAttempts) {
+          throw e;
+        }
+        log.info(
+          "Task {} changed status concurrently while applying {}; retrying (attempt {} of {})",
+          taskId,
+          event,
+          attempt + 1,
+          maxAttempts
+        );
+        continue;
+      }
 
-    // If the task was completed by this event, notify potentially interested parties (like OrderService)
-    // We re-fetch the task to ensure its status is the latest after the state machine has run.
-    if (eventAccepted && TaskEvent.COMPLETE_TASK.equals(event)) {
-      Task updatedTask = taskRepository.findById(taskId).orElse(task); // Re-fetch
-      if (TaskStatus.COMPLETED.equals(updatedTask.getStatus())) {
+      // If the task was completed by this event, notify potentially interested parties (like OrderService).
+      // The compare-and-set update has already stored the completion date.
+      if (eventAccepted && TaskEvent.COMPLETE_TASK.equals(event)) {
         log.info(
-          "Task {} for order {} has been completed. Publishing completion event.",
+          "Task {} for order {} has been completed. Writing completion to the outbox.",
           taskId,
-          updatedTask.getOrder().getId()
+          task.getOrderId()
         );
-        updatedTask.setCompletedDate(LocalDateTime.now());
-        taskRepository.save(updatedTask); // Save completion date
-        // Notify OrderService (or any other listener) that a task was completed.
-        // This is a simple way to decouple. OrderService will listen for this.
-        eventPublisher.publishEvent(
-          new TaskCompletedApplicationEvent(
-            this,
-            updatedTask.getOrder().getId(),
-            updatedTask.getId()
+        // Written in this transaction, so the notification exists if and only if the completion commits.
+        // The OutboxRelay delivers it to OrderService.
+        outboxEventRepository.save(
+          OutboxEvent.taskCompleted(
+            task.getOrderId(),
+            taskId,
+            task.getLane(),
+            workflowProperties.getOutbox().getCompletionWindow()
           )
         );
       }
+      return eventAccepted;
     }
-    return eventAccepted;
   }
 
-  @Transactional(readOnly = true)
-  public boolean areAllTasksCompletedForOrder(Long orderId) {
-    // A task is considered "not completed" if its status is not COMPLETED.
-    // This means PENDING, IN_PROGRESS, FAILED, CANCELLED tasks are considered incomplete.
-    long incompleteTasks = taskRepository.countByOrderIdAndStatusIsNot(
-      orderId,
-      TaskStatus.COMPLETED
-    );
-    log.debug(
-      "Order {} has {} tasks that are not in COMPLETED state.",
-      orderId,
-      incompleteTasks
-    );
-    return incompleteTasks == 0;
-  }
+  /**
+   * Applies a list of task events in request order and reports the outcome of each item.
+   * <p>
+   * Same chunking as {@link OrderService#sendOrderEvents}: each chunk locks its tasks with one query,
+   * decides the events in memory and writes the net status changes as one JDBC batch, in its own
+   * transaction. Completion notifications go to the outbox in the same transaction.
+   */
+  public List<BatchEventResult> sendTaskEvents(List<TaskEventBatchItem> items) {
+    WorkflowProperties.Batch batch = workflowProperties.getBatch();
+    if (items.size() > batch.getMaxItems()) {
+      throw new IllegalArgumentException(
+        "Batch of " +
+        items.size() +
+        " events exceeds the limit of " +
+        batch.getMaxItems()
+      );
+    }
+    for (int i = 0; i < items.size(); i++) {
+      TaskEventBatchItem item = items.get(i);
+      if (item == null || item.getTaskId() == null || item.getEvent() == null) {
+        throw new IllegalArgumentException(
+          "Batch item " + i + " needs a taskId and an event"
+        );
+      }
+    }
 
-  // Define an application event for when a task is completed
-  public static class TaskCompletedApplicationEvent
-    extends org.springframework.context.ApplicationEvent {
-
-    private final Long orderId;
-    private final Long taskId;
-
-    public TaskCompletedApplicationEvent(
-      Object source,
-      Long orderId,
-      Long taskId
-    ) {
-      super(source);
-      this.orderId = orderId;
-      this.taskId = taskId;
+    long receivedAt = System.nanoTime();
+    List<BatchEventResult> results = new ArrayList<>(items.size());
+    for (int from = 0; from < items.size(); from += batch.getChunkSize()) {
+      List<TaskEventBatchItem> chunk = items.subList(
+        from,
+        Math.min(from + batch.getChunkSize(), items.size())
+      );
+      results.addAll(
+        transactionTemplate.execute(tx -> applyTaskEventChunk(chunk, receivedAt))
+      );
     }
+    log.info("Applied batch of {} task events", items.size());
+    return results;
+  }
+
+  /**
+   * Claims up to {@code limit} of the oldest PENDING tasks of the given types and starts them, in one
+   * transaction. The claim is split between the priority lanes by {@code lanes}. Tasks claimed
+   * concurrently by other workers are skipped rather than waited for.
+   *
+   * @return the tasks this call moved to IN_PROGRESS
+   */
+  public List<TaskRepository.ReadyTask> claimTasks(
+    Collection<TaskType> taskTypes,
+    WeightedLanes<String> lanes,
+    int limit
+  ) {
+    long receivedAt = System.nanoTime();
+    List<String> typeNames = taskTypes.stream().map(TaskType::name).toList();
+    return transactionTemplate.execute(tx -> {
+      List<TaskRepository.ReadyTask> claimed = lanes.claim(
+        limit,
+        (lane, afterId, n) -> taskRepository.lockPending(typeNames, lane, afterId, n),
+        TaskRepository.ReadyTask::getId
+      );
+      if (claimed.isEmpty()) {
+        return List.of();
+      }
+      List<BatchEventResult> results = applyTaskEventChunk(
+        claimed
+          .stream()
+          .map(task -> new TaskEventBatchItem(task.getId(), TaskEvent.START_TASK, null))
+          .toList(),
+        receivedAt
+      );
+      List<TaskRepository.ReadyTask> started = new ArrayList<>(claimed.size());
+      for (int i = 0; i < claimed.size(); i++) {
+        if (results.get(i).getOutcome() == BatchEventResult.Outcome.ACCEPTED) {
+          started.add(claimed.get(i));
+        }
+      }
+      return started;
+    });
+  }
 
-    public Long getOrderId() {
-      return orderId;
+  /**
+   * Claims up to {@code limit} of the earliest due automatic retries and fires {@code RETRY_TASK} for
+   * them, in one transaction. The claimed retries are deleted whether or not their task still accepts
+   * the event, e.g. after it was retried or cancelled through the API in the meantime.
+   *
+   * @return the retries whose task this call moved back to IN_PROGRESS
+   */
+  public List<TaskRetry> fireDueRetries(int limit) {
+    long receivedAt = System.nanoTime();
+    return transactionTemplate.execute(tx -> {
+      List<TaskRetry> due = taskRetryRepository.lockDue(
+        LocalDateTime.now(),
+        limit
+      );
+      if (due.isEmpty()) {
+        return List.of();
+      }
+      List<BatchEventResult> results = applyTaskEventChunk(
+        due
+          .stream()
+          .map(retry ->
+            new TaskEventBatchItem(
+              retry.getTaskId(),
+              TaskEvent.RETRY_TASK,
+              "Automatic retry after failure " + retry.getAttempt()
+            )
+          )
+          .toList(),
+        receivedAt
+      );
+      taskRetryRepository.deleteAllInBatch(due);
+      List<TaskRetry> fired = new ArrayList<>(due.size());
+      for (int i = 0; i < due.size(); i++) {
+        if (results.get(i).getOutcome() == BatchEventResult.Outcome.ACCEPTED) {
+          fired.add(due.get(i));
+        }
+      }
+      return fired;
+    });
+  }
+
+  private List<BatchEventResult> applyTaskEventChunk(
+    List<TaskEventBatchItem> chunk,
+    long receivedAt
+  ) {
+    Map<Long, LockedTask> persisted = transitionBatchRepository.lockTasks(
+      chunk.stream().map(TaskEventBatchItem::getTaskId).distinct().toList()
+    );
+    Map<Long, TaskStatus> current = new LinkedHashMap<>();
+    persisted.forEach((taskId, task) -> current.put(taskId, task.status()));
+
+    List<BatchEventResult> results = new ArrayList<>(chunk.size());
+    List<OutboxEvent> completions = new ArrayList<>();
+    // Every accepted item is journaled, including the intermediate steps of a task's net change
+    List<TaskEventBatchItem> acceptedItems = new ArrayList<>();
+    List<StatusChange<TaskStatus>> acceptedSteps = new ArrayList<>();
+    // Every step into FAILED is an attempt, however the task's net change comes out
+    Map<Long, Integer> failures = new HashMap<>();
+    for (TaskEventBatchItem item : chunk) {
+      Long taskId = item.getTaskId();
+      TaskStatus status = current.get(taskId);
+      if (status == null) {
+        results.add(BatchEventResult.notFound(taskId));
+        continue;
+      }
+      TaskStatus target = taskStateMachineService.evaluate(
+        taskId,
+        status,
+        item.getEvent(),
+        item.getReason()
+      );
+      if (target == null) {
+        log.warn(
+          "Batch event {} NOT accepted for Task ID: {} in state: {}",
+          item.getEvent(),
+          taskId,
+          status
+        );
+        results.add(BatchEventResult.rejected(taskId, status));
+        continue;
+      }
+      current.put(taskId, target);
+      results.add(BatchEventResult.accepted(taskId, target));
+      acceptedItems.add(item);
+      acceptedSteps.add(new StatusChange<>(taskId, status, target));
+      if (target == TaskStatus.FAILED) {
+        failures.merge(taskId, 1, Integer::sum);
+      }
+      if (TaskEvent.COMPLETE_TASK.equals(item.getEvent())) {
+        completions.add(
+          OutboxEvent.taskCompleted(
+            persisted.get(taskId).orderId(),
+            taskId,
+            persisted.get(taskId).lane(),
+            workflowProperties.getOutbox().getCompletionWindow()
+          )
+        );
+      }
     }
 
-    public Long getTaskId() {
-      return taskId;
+    List<StatusChange<TaskStatus>> changes = new ArrayList<>();
+    List<LockedTask> completed = new ArrayList<>();
+    List<TaskRetry> retries = new ArrayList<>();
+    LocalDateTime now = LocalDateTime.now();
+    Map<Long, TaskCounterDelta> counterDeltas = new HashMap<>();
+    Map<Long, Long> changedOrderIds = new HashMap<>();
+    StatusCounters.Delta statusDelta = new StatusCounters.Delta();
+    current.forEach((taskId, status) -> {
+      LockedTask original = persisted.get(taskId);
+      int failed = failures.getOrDefault(taskId, 0);
+      // A task that failed again on its way back to where it started is still written, for its attempts
+      if (status != original.status() || failed > 0) {
+        changes.add(new StatusChange<>(taskId, original.status(), status));
+        changedOrderIds.put(taskId, original.orderId());
+        if (status == TaskStatus.COMPLETED) {
+          completed.add(original);
+        }
+        // Retried as of the last of its failures
+        if (status == TaskStatus.FAILED) {
+          taskRetryPolicies
+            .retryAfter(
+              taskId,
+              original.orderId(),
+              original.taskType(),
+              original.attempts() + failed,
+              now
+            )
+            .ifPresent(retries::add);
+        }
+        statusDelta.task(original.taskType(), original.status(), status);
+        counterDeltas.merge(
+          original.orderId(),
+          TaskCounterDelta.of(original.status(), status),
+          TaskCounterDelta::plus
+        );
+      }
+    });
+    // Task rows first, then their orders: the same lock order as the single-event path
+    transitionBatchRepository.updateTaskStatuses(changes, failures, now);
+    transitionBatchRepository.applyTaskTransitions(counterDeltas);
+    transitionBatchRepository.releaseDependents(completed, taskDependencies::dependentsOf);
+    orderViewCache.evictTasks(changedOrderIds);
+    statusCounters.apply(statusDelta);
+
+    long latencyMicros = TransitionJournal.latencyMicros(receivedAt);
+    List<TransitionJournal.Entry> entries = new ArrayList<>(acceptedSteps.size());
+    for (int i = 0; i < acceptedSteps.size(); i++) {
+      StatusChange<TaskStatus> step = acceptedSteps.get(i);
+      TaskEventBatchItem item = acceptedItems.get(i);
+      entries.add(
+        TransitionJournal.Entry.task(
+          step.id(),
+          persisted.get(step.id()).orderId(),
+          step.expected(),
+          step.target(),
+          item.getEvent(),
+          item.getReason(),
+          latencyMicros
+        )
+      );
     }
+    transitionJournal.record(entries);
+    slaDeadlines.track(entries);
+    outboxEventRepository.saveAll(completions);
+    taskRetryRepository.saveAll(retries);
+    return results;
   }
 }
@@ -1,9 +1,18 @@
 package com.example.orderprocessing.service;
 
+import com.example.orderprocessing.config.WorkflowProperties;
 import com.example.orderprocessing.enums.TaskEvent;
 import com.example.orderprocessing.enums.TaskStatus;
-import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.enums.TaskType;
+import com.example.orderprocessing.exception.TransitionConflictException;
+import com.example.orderprocessing.repository.OrderRepository;
+import com.example.orderprocessing.repository.TaskCounterDelta;
 import com.example.orderprocessing.repository.TaskRepository;
+import com.example.orderprocessing.repository.TaskRetryRepository;
+import com.example.orderprocessing.statemachine.StateMachinePool;
+import com.example.orderprocessing.statemachine.TransitionTable;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -12,7 +21,7 @@ import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.config.StateMachineFactory;
 import org.springframework.statemachine.state.State;
-import org.springframework.statemachine.support.DefaultStateMachineContext;
+import org.springframework.statemachine.support.DefaultExtendedState;
 import org.springframework.statemachine.support.StateMachineInterceptorAdapter;
 import org.springframework.statemachine.transition.Transition;
 import org.springframework.stereotype.Service;
@@ -20,90 +29,193 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class TaskStateMachineService {
 
+    static final String TASK_ID = "TASK_ID";
+    private static final String ORDER_ID = "ORDER_ID";
+    private static final String TASK_TYPE = "TASK_TYPE";
+    private static final String RECEIVED_AT = WorkflowStateMachineService.RECEIVED_AT;
+    private static final String CONFLICT = "CONFLICT";
+
     @Qualifier("taskStateMachineFactory")
     private final StateMachineFactory<TaskStatus, TaskEvent> taskStateMachineFactory;
     private final TaskRepository taskRepository; // To persist state changes
+    private final OrderRepository orderRepository; // To keep the order's task counters in step
+    private final OrderViewCache orderViewCache; // Evicted with every persisted transition
+    private final StatusCounters statusCounters; // Counted with every persisted transition
+    private final TransitionJournal transitionJournal; // Journaled with every persisted transition
+    private final SlaDeadlines slaDeadlines; // Timed statuses set or cancel a deadline
+    private final TaskDependencies taskDependencies; // Completions release dependent tasks
+    private final TaskRetryPolicies taskRetryPolicies; // Failures schedule an automatic retry
+    private final TaskRetryRepository taskRetryRepository;
+    private final WorkflowProperties workflowProperties;
+    private final MeterRegistry meterRegistry;
+
+    private StateMachinePool<TaskStatus, TaskEvent> stateMachinePool;
+    private TransitionTable<TaskStatus, TaskEvent> transitionTable;
+
+    @PostConstruct
+    void initEngines() {
+        WorkflowProperties.Pool pool = workflowProperties.getStatemachine().getPool();
+        stateMachinePool = new StateMachinePool<>("task", taskStateMachineFactory, this::registerInterceptor,
+                pool.getInitialSize(), pool.getMaxSize(), pool.getLeaseTimeout(), meterRegistry);
+        transitionTable = TransitionTable.compile(taskStateMachineFactory.getStateMachine("taskSM-table"),
+                TaskStatus.class, TaskEvent.class);
+    }
 
-    public StateMachine<TaskStatus, TaskEvent> initializeStateMachine(Task task) {
-        String machineId = "taskSM-" + task.getId();
-        StateMachine<TaskStatus, TaskEvent> stateMachine = taskStateMachineFactory.getStateMachine(machineId);
-
-        if (stateMachine.getState() != null && !stateMachine.isComplete()) {
-            stateMachine.stop();
-        }
-
-        stateMachine.getStateMachineAccessor()
-                .doWithAllRegions(sma -> {
-                    sma.addStateMachineInterceptor(new StateMachineInterceptorAdapter<>() {
-                        @Override
-                        public void postStateChange(State<TaskStatus, TaskEvent> state, Message<TaskEvent> message,
-                                                    Transition<TaskStatus, TaskEvent> transition,
-                                                    StateMachine<TaskStatus, TaskEvent> stateMachine,
-                                                    StateMachine<TaskStatus, TaskEvent> rootStateMachine) {
-                            log.debug("Interceptor: Task {} transitioned to state {}", task.getId(), state.getId());
-                            if (task.getStatus() != state.getId()) {
-                                task.setStatus(state.getId());
-                                if (state.getId() == TaskStatus.COMPLETED && task.getCompletedDate() == null) {
-                                    task.setCompletedDate(LocalDateTime.now());
-                                }
-                                taskRepository.save(task); // Persist the new status and completion date
-                                log.info("Task {} status updated to {} in database.", task.getId(), state.getId());
-                            }
+    private void registerInterceptor(StateMachine<TaskStatus, TaskEvent> pooledMachine) {
+        pooledMachine.getStateMachineAccessor()
+                .doWithAllRegions(sma -> sma.addStateMachineInterceptor(new StateMachineInterceptorAdapter<>() {
+                    @Override
+                    public void postStateChange(State<TaskStatus, TaskEvent> state, Message<TaskEvent> message,
+                                                Transition<TaskStatus, TaskEvent> transition,
+                                                StateMachine<TaskStatus, TaskEvent> stateMachine,
+                                                StateMachine<TaskStatus, TaskEvent> rootStateMachine) {
+                        Long taskId = stateMachine.getExtendedState().get(TASK_ID, Long.class);
+                        Long orderId = stateMachine.getExtendedState().get(ORDER_ID, Long.class);
+                        TaskType taskType = stateMachine.getExtendedState().get(TASK_TYPE, TaskType.class);
+                        if (taskId == null || message == null || transition == null || transition.getSource() == null) {
+                            return;
                         }
-
-                        @Override
-                        public Exception stateMachineError(StateMachine<TaskStatus, TaskEvent> machine, Exception exception) {
-                            log.error("Error in Task StateMachine (ID: {}) for Task {}: {}", machine.getId(), task.getId(), exception.getMessage(), exception);
-                            return exception; // Propagate
+                        log.debug("Interceptor: Task {} transitioned to state {}", taskId, state.getId());
+                        try {
+                            persistTransition(taskId, orderId, taskType, transition.getSource().getId(), state.getId(),
+                                    message, stateMachine.getExtendedState().get(RECEIVED_AT, Long.class));
+                        } catch (TransitionConflictException e) {
+                            stateMachine.getExtendedState().getVariables().put(CONFLICT, e);
                         }
-                    });
-                    sma.resetStateMachine(new DefaultStateMachineContext<>(task.getStatus(), null, null, null, null, machineId));
-                });
+                    }
+
+                    @Override
+                    public Exception stateMachineError(StateMachine<TaskStatus, TaskEvent> machine, Exception exception) {
+                        log.error("Error in Task StateMachine (ID: {}): {}", machine.getId(), exception.getMessage(), exception);
+                        return exception; // Propagate
+                    }
+                }));
+    }
 
-        stateMachine.start();
-        log.info("Task StateMachine (ID: {}) initialized and started for Task ID: {} in state: {}", machineId, task.getId(), stateMachine.getState().getId());
-        return stateMachine;
+    private void persistTransition(Long taskId, Long orderId, TaskType taskType, TaskStatus source, TaskStatus target,
+                                   Message<TaskEvent> message, long receivedAt) {
+        LocalDateTime now = LocalDateTime.now();
+        // Persist the new status, and the completion date when the task completes
+        int updated = taskRepository.compareAndSetStatus(taskId, source, target, now,
+                target == TaskStatus.COMPLETED ? now : null);
+        if (updated == 0) {
+            throw new TransitionConflictException("Task", taskId, source);
+        }
+        if (target == TaskStatus.FAILED) {
+            taskRetryPolicies.retryAfter(taskId, orderId, taskType, taskRepository.findAttemptsById(taskId), now)
+                    .ifPresent(taskRetryRepository::save);
+        }
+        TaskCounterDelta delta = TaskCounterDelta.of(source, target);
+        orderRepository.applyTaskTransition(orderId, delta.completed(), delta.failed(), delta.cancelled());
+        if (target == TaskStatus.COMPLETED && !taskDependencies.dependentsOf(taskType).isEmpty()) {
+            taskRepository.releaseDependents(orderId, taskDependencies.dependentsOf(taskType));
+        }
+        orderViewCache.evictTask(taskId, orderId);
+        statusCounters.apply(new StatusCounters.Delta().task(taskType, source, target));
+        List<TransitionJournal.Entry> entries = List.of(TransitionJournal.Entry.task(taskId, orderId, source, target,
+                message.getPayload(), message.getHeaders().get("REASON", String.class),
+                TransitionJournal.latencyMicros(receivedAt)));
+        transitionJournal.record(entries);
+        slaDeadlines.track(entries);
+        log.info("Task {} status updated from {} to {} in database.", taskId, source, target);
     }
 
+    /**
+     * Applies an event to a task of order {@code orderId} and type {@code taskType} whose persisted status
+     * is {@code currentStatus}.
+     *
+     * @throws TransitionConflictException if the status changed after it was read; the caller may retry
+     */
+    @Transactional(noRollbackFor = TransitionConflictException.class)
+    public boolean sendEvent(Long taskId, Long orderId, TaskType taskType, TaskStatus currentStatus, TaskEvent event,
+                             String reason) {
+        Message<TaskEvent> message = buildMessage(taskId, event, reason);
+        Map<Object, Object> variables = new HashMap<>();
+        variables.put(TASK_ID, taskId);
+        variables.put(ORDER_ID, orderId);
+        variables.put(TASK_TYPE, taskType);
+        variables.put(RECEIVED_AT, System.nanoTime());
+
+        if (workflowProperties.getStatemachine().getEngine() == WorkflowProperties.Engine.TABLE) {
+            return sendEventToTable(taskId, orderId, taskType, currentStatus, message, variables);
+        }
+        return sendEventToMachine(taskId, currentStatus, message, variables);
+    }
 
-    @Transactional
-    public boolean sendEvent(Task task, TaskEvent event, String reason) {
-        StateMachine<TaskStatus, TaskEvent> stateMachine = initializeStateMachine(task);
+    /**
+     * Decides an event against the compiled transition table without writing anything.
+     *
+     * @return the target status, or {@code null} if the event is not accepted in {@code currentStatus}
+     */
+    public TaskStatus evaluate(Long taskId, TaskStatus currentStatus, TaskEvent event, String reason) {
+        Map<Object, Object> variables = new HashMap<>();
+        variables.put(TASK_ID, taskId);
+        return transitionTable.fire(currentStatus, buildMessage(taskId, event, reason), new DefaultExtendedState(variables));
+    }
 
+    private Message<TaskEvent> buildMessage(Long taskId, TaskEvent event, String reason) {
         Map<String, Object> headers = new HashMap<>();
-        headers.put("TASK_ID", task.getId());
+        headers.put(TASK_ID, taskId);
         if (reason != null) {
             headers.put("REASON", reason);
         }
 
-        Message<TaskEvent> message = MessageBuilder
+        return MessageBuilder
                 .withPayload(event)
                 .copyHeaders(headers)
                 .build();
+    }
 
-        log.info("Sending event {} to Task StateMachine (ID: {}) for Task ID: {} with current state: {}",
-                event, stateMachine.getId(), task.getId(), stateMachine.getState().getId());
-
-        boolean eventAccepted = stateMachine.sendEvent(message);
-
-        if (eventAccepted) {
-            log.info("Event {} accepted by Task StateMachine (ID: {}) for Task ID: {}. New state: {}",
-                    event, stateMachine.getId(), task.getId(), stateMachine.getState().getId());
-        } else {
-            log.warn("Event {} NOT accepted by Task StateMachine (ID: {}) for Task ID: {} in state: {}",
-                    event, stateMachine.getId(), task.getId(), stateMachine.getState().getId());
+    private boolean sendEventToTable(Long taskId, Long orderId, TaskType taskType, TaskStatus source,
+                                     Message<TaskEvent> message, Map<Object, Object> variables) {
+        TaskStatus target = transitionTable.fire(source, message, new DefaultExtendedState(variables));
+        if (target == null) {
+            log.warn("Event {} NOT accepted for Task ID: {} in state: {}", message.getPayload(), taskId, source);
+            return false;
         }
+        log.info("Event {} accepted for Task ID: {}. Transition: {} -> {}", message.getPayload(), taskId, source, target);
+        persistTransition(taskId, orderId, taskType, source, target, message, (Long) variables.get(RECEIVED_AT));
+        return true;
+    }
 
-        stateMachine.stop();
-        log.debug("Task StateMachine (ID: {}) stopped for Task ID: {}", stateMachine.getId(), task.getId());
+    private boolean sendEventToMachine(Long taskId, TaskStatus source, Message<TaskEvent> message,
+                                       Map<Object, Object> variables) {
+        StateMachine<TaskStatus, TaskEvent> stateMachine =
+                stateMachinePool.lease(source, "taskSM-" + taskId, variables);
+
+        TransitionConflictException conflict;
+        boolean eventAccepted;
+        try {
+            TaskEvent event = message.getPayload();
+            log.info("Sending event {} to Task StateMachine (ID: {}) for Task ID: {} with current state: {}",
+                    event, stateMachine.getId(), taskId, source);
+
+            // Judge acceptance by the state change, as guard rejections are reported as accepted
+            eventAccepted = stateMachine.sendEvent(message) && stateMachine.getState().getId() != source;
+
+            if (eventAccepted) {
+                log.info("Event {} accepted by Task StateMachine (ID: {}) for Task ID: {}. New state: {}",
+                        event, stateMachine.getId(), taskId, stateMachine.getState().getId());
+            } else {
+                log.warn("Event {} NOT accepted by Task StateMachine (ID: {}) for Task ID: {} in state: {}",
+                        event, stateMachine.getId(), taskId, stateMachine.getState().getId());
+            }
+            conflict = stateMachine.getExtendedState().get(CONFLICT, TransitionConflictException.class);
+        } finally {
+            stateMachine.getExtendedState().getVariables().clear();
+            stateMachinePool.release(stateMachine);
+        }
+        if (conflict != null) {
+            throw conflict;
+        }
         return eventAccepted;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,211 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.enums.TaskType;
+import com.example.orderprocessing.repository.TaskRepository.ReadyTask;
+import com.example.orderprocessing.support.WeightedLanes;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes ready tasks, PENDING with all prerequisites completed (see {@link TaskDependencies}), with the
+ * {@link TaskHandler} registered for their type.
+ * <p>
+ * A dispatcher thread claims up to {@code workflow.worker.batch-size} tasks at a time with
+ * {@code FOR UPDATE SKIP LOCKED} and starts them in the same short transaction. It hands each task to a
+ * {@link ForkJoinPool} of {@code workflow.worker.threads} workers. Tasks claimed together never depend on
+ * each other, so their handlers run in parallel. Each handler runs outside of any transaction, and its
+ * outcome is reported on its own as {@code COMPLETE_TASK} or {@code FAIL_TASK} as soon as it returns.
+ * A completion releases the dependents of the task and wakes the dispatcher, which claims them right away.
+ * An order's tasks therefore finish after its critical path rather than the sum of all task times.
+ * <p>
+ * Each claim is split between the priority lanes by weight (see {@link PriorityLanes}), and the tasks of
+ * higher lanes are handed to the workers first, so expedited orders do not queue behind a bulk backlog.
+ * <p>
+ * No more tasks are claimed than there are idle workers. Otherwise the dispatcher waits for a worker to
+ * finish, or for {@code workflow.worker.poll-interval} when nothing was ready. Claims never wait on each
+ * other's locks, in this instance or any other on the same database. Throughput therefore grows with the
+ * number of workers until the handlers or the database are saturated. Tasks whose worker dies after
+ * claiming them stay {@code IN_PROGRESS} until their SLA timeout fails them (see {@link SlaDeadlines}).
+ * <p>
+ * A {@code FAIL_TASK} schedules an automatic retry (see {@link TaskRetryScheduler}); when it fires, the
+ * task's handler runs here again.
+ */
+@Slf4j
+@Service
+public class TaskWorkerPool {
+
+    private final TaskService taskService;
+    private final PriorityLanes priorityLanes;
+    private final WeightedLanes<String> lanes;
+    private final WorkflowProperties.Worker settings;
+    private final Map<TaskType, TaskHandler> handlers = new EnumMap<>(TaskType.class);
+    private final Map<TaskType, Timer> completed = new EnumMap<>(TaskType.class);
+    private final Map<TaskType, Timer> failed = new EnumMap<>(TaskType.class);
+
+    // Idle workers; taken by claims and given back as handlers finish
+    private final Semaphore idleWorkers;
+    // Released when a handler finishes, so the dispatcher claims whatever that made ready
+    private final Semaphore wakeUp = new Semaphore(0);
+    private volatile boolean running;
+    private ForkJoinPool workers;
+    private Thread dispatcher;
+
+    public TaskWorkerPool(TaskService taskService, List<TaskHandler> taskHandlers, PriorityLanes priorityLanes,
+                          WorkflowProperties workflowProperties, MeterRegistry meterRegistry) {
+        this.taskService = taskService;
+        this.priorityLanes = priorityLanes;
+        this.lanes = priorityLanes.newWeightedLanes();
+        this.settings = workflowProperties.getWorker();
+        this.idleWorkers = new Semaphore(settings.getThreads());
+        for (TaskHandler handler : taskHandlers) {
+            TaskHandler previous = handlers.put(handler.taskType(), handler);
+            if (previous != null) {
+                throw new IllegalStateException("Task type " + handler.taskType() + " has two handlers: "
+                        + previous.getClass().getName() + " and " + handler.getClass().getName());
+            }
+            String type = handler.taskType().name();
+            completed.put(handler.taskType(), Timer.builder("worker.task").tag("type", type).tag("outcome", "completed")
+                    .description("Time spent in task handlers").register(meterRegistry));
+            failed.put(handler.taskType(), Timer.builder("worker.task").tag("type", type).tag("outcome", "failed")
+                    .description("Time spent in task handlers").register(meterRegistry));
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (handlers.isEmpty() || settings.getThreads() < 1) {
+            log.info("Task workers not started ({} handlers, {} threads)", handlers.size(), settings.getThreads());
+            return;
+        }
+        running = true;
+        // FIFO (async mode): tasks are submitted from outside and never fork, so no work is stolen in LIFO order
+        workers = new ForkJoinPool(settings.getThreads(), pool -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("task-worker-" + worker.getPoolIndex());
+            return worker;
+        }, null, true);
+        dispatcher = new Thread(this::dispatch, "task-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        log.info("Started {} task workers for {}", settings.getThreads(), handlers.keySet());
+    }
+
+    private void dispatch() {
+        while (running) {
+            try {
+                idleWorkers.acquire();
+                int idle = 1 + idleWorkers.drainPermits();
+                int claimed = 0;
+                try {
+                    if (running) {
+                        claimed = claimAndSubmit(Math.min(idle, settings.getBatchSize()));
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Task dispatcher could not claim tasks: {}", e.getMessage(), e);
+                } finally {
+                    idleWorkers.release(idle - claimed);
+                }
+                if (claimed < idle) {
+                    // Nothing more is ready: wait for a handler to finish, or for tasks made ready elsewhere
+                    wakeUp.tryAcquire(settings.getPollInterval().toMillis(), TimeUnit.MILLISECONDS);
+                    wakeUp.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private int claimAndSubmit(int limit) {
+        List<ReadyTask> tasks = taskService.claimTasks(handlers.keySet(), lanes, limit);
+        for (ReadyTask task : tasks) {
+            workers.execute(() -> {
+                try {
+                    run(task.getId(), task.getOrderId(), task.getTaskType());
+                    priorityLanes.recordTask(task.getLane(), task.getCreatedDate());
+                } finally {
+                    idleWorkers.release();
+                    wakeUp.release();
+                }
+            });
+        }
+        return tasks.size();
+    }
+
+    /**
+     * Runs the handler of a task that was moved back to IN_PROGRESS by an automatic retry. Tasks of types
+     * without a handler here are left to whoever sends their events. Retries queue behind the tasks the
+     * workers already hold, without taking an idle worker from the dispatcher.
+     */
+    public void resume(Long taskId, Long orderId, TaskType taskType) {
+        if (!running || !handlers.containsKey(taskType)) {
+            return;
+        }
+        workers.execute(() -> {
+            try {
+                run(taskId, orderId, taskType);
+            } finally {
+                wakeUp.release();
+            }
+        });
+    }
+
+    private void run(Long taskId, Long orderId, TaskType taskType) {
+        long start = System.nanoTime();
+        TaskEvent outcome;
+        String reason = null;
+        try {
+            handlers.get(taskType).handle(taskId, orderId);
+            completed.get(taskType).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            outcome = TaskEvent.COMPLETE_TASK;
+        } catch (Exception e) {
+            failed.get(taskType).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.warn("Handler for {} task {} of order {} failed: {}", taskType, taskId, orderId, e.getMessage());
+            outcome = TaskEvent.FAIL_TASK;
+            reason = String.valueOf(e.getMessage());
+        }
+        try {
+            taskService.sendTaskEvent(taskId, outcome, reason);
+        } catch (RuntimeException e) {
+            log.error("Could not report {} for task {}; it stays IN_PROGRESS: {}", outcome, taskId, e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        // Wakes the dispatcher wherever it waits; it stops before claiming anything more
+        idleWorkers.release();
+        wakeUp.release();
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+            // Lets running handlers finish and report before the context closes
+            workers.shutdown();
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Task workers did not finish in time; their claimed tasks stay IN_PROGRESS");
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+    }
+}
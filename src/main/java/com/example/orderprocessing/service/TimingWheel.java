@@ -0,0 +1,209 @@
+package com.example.orderprocessing.service;
+
+/**
+ * Hierarchical timing wheel holding at most one timer per id, in ticks of the caller's choosing.
+ * <p>
+ * Four levels of 256 slots each cover 256, 256², 256³ and 256⁴ ticks ahead. A timer is linked into the
+ * coarsest level whose span it falls within, and moved down a level whenever the wheel below wraps around
+ * to its slot ({@code cascade}), until it reaches the finest level and expires on its tick. Scheduling and
+ * cancelling unlink and link a node in a slot's doubly linked list and in the id index, so both are O(1)
+ * whatever the number of timers, and advancing by a tick only touches the slots due on that tick.
+ * <p>
+ * Each timer is a single node that is its own list element and index entry, about 50 bytes. Not thread
+ * safe; callers synchronize.
+ */
+final class TimingWheel {
+
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    // Timers further ahead are parked in the top level and cascaded again when their slot comes round
+    private static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    @FunctionalInterface
+    interface ExpiryHandler {
+        void expired(long id, int state);
+    }
+
+    private static final class Node {
+        long id;
+        int state;
+        long deadline;
+        Node prev;
+        Node next;
+        Node chain; // Next node in the same index bucket
+
+        Node() {
+            prev = this;
+            next = this;
+        }
+    }
+
+    // Sentinel heads of circular lists
+    private final Node[][] slots = new Node[LEVELS][SLOTS];
+    private Node[] index = new Node[1024];
+    private int size;
+    // The last tick that has been expired
+    private long now;
+
+    TimingWheel(long startTick) {
+        this.now = startTick;
+        for (Node[] level : slots) {
+            for (int i = 0; i < SLOTS; i++) {
+                level[i] = new Node();
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long currentTick() {
+        return now;
+    }
+
+    /**
+     * Sets the timer of {@code id} to expire with {@code state} on {@code deadline}, replacing any timer it
+     * had. A deadline that has passed expires on the next tick.
+     */
+    void schedule(long id, int state, long deadline) {
+        Node node = find(id);
+        if (node == null) {
+            node = new Node();
+            node.id = id;
+            insert(node);
+        } else {
+            unlink(node);
+        }
+        node.state = state;
+        node.deadline = deadline;
+        place(node, now + 1);
+    }
+
+    /**
+     * @return whether {@code id} had a timer
+     */
+    boolean cancel(long id) {
+        Node node = remove(id);
+        if (node == null) {
+            return false;
+        }
+        unlink(node);
+        return true;
+    }
+
+    /**
+     * Expires every timer due up to and including {@code tick}, tick by tick.
+     */
+    void advance(long tick, ExpiryHandler handler) {
+        while (now < tick) {
+            now++;
+            cascade();
+            Node head = slots[0][(int) (now & MASK)];
+            while (head.next != head) {
+                Node node = head.next;
+                unlink(node);
+                remove(node.id);
+                handler.expired(node.id, node.state);
+            }
+        }
+    }
+
+    // On a tick where level l-1 wraps around, the timers in level l's slot for the coming span move down.
+    // Higher levels go first, so their timers are cascaded again if they land in a slot due right now.
+    private void cascade() {
+        int top = 0;
+        while (top < LEVELS - 1 && (now & ((1L << (SLOT_BITS * (top + 1))) - 1)) == 0) {
+            top++;
+        }
+        for (int level = top; level >= 1; level--) {
+            Node head = slots[level][(int) ((now >>> (SLOT_BITS * level)) & MASK)];
+            while (head.next != head) {
+                Node node = head.next;
+                unlink(node);
+                place(node, now);
+            }
+        }
+    }
+
+    private void place(Node node, long earliest) {
+        long at = Math.max(node.deadline, earliest);
+        long delay = Math.min(at - now, MAX_DELAY);
+        at = now + delay;
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        Node head = slots[level][(int) ((at >>> (SLOT_BITS * level)) & MASK)];
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    private static void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node;
+        node.next = node;
+    }
+
+    private static int bucket(long id, int length) {
+        int h = Long.hashCode(id);
+        return (h ^ (h >>> 16)) & (length - 1);
+    }
+
+    private Node find(long id) {
+        for (Node node = index[bucket(id, index.length)]; node != null; node = node.chain) {
+            if (node.id == id) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void insert(Node node) {
+        if (size >= index.length - (index.length >>> 2)) {
+            resize();
+        }
+        int b = bucket(node.id, index.length);
+        node.chain = index[b];
+        index[b] = node;
+        size++;
+    }
+
+    private Node remove(long id) {
+        int b = bucket(id, index.length);
+        Node previous = null;
+        for (Node node = index[b]; node != null; previous = node, node = node.chain) {
+            if (node.id == id) {
+                if (previous == null) {
+                    index[b] = node.chain;
+                } else {
+                    previous.chain = node.chain;
+                }
+                node.chain = null;
+                size--;
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void resize() {
+        Node[] grown = new Node[index.length * 2];
+        for (Node head : index) {
+            Node node = head;
+            while (node != null) {
+                Node next = node.chain;
+                int b = bucket(node.id, grown.length);
+                node.chain = grown[b];
+                grown[b] = node;
+                node = next;
+            }
+        }
+        index = grown;
+    }
+}
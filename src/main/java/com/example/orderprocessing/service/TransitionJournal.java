@@ -0,0 +1,275 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.enums.OrderEvent;
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.enums.TaskStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only history of accepted order and task events, in {@code order_transitions} and
+ * {@code task_transitions}.
+ * <p>
+ * In {@code ASYNC} mode (the default) entries are queued once the transition commits and written by a
+ * single background thread with group commits. A group is one JDBC batch per table in one transaction,
+ * and closes after {@code workflow.journal.batch-size} entries or {@code workflow.journal.flush-interval}
+ * after its first entry, whichever comes first. The event path only pays for the enqueue. Entries
+ * of a crashed instance that were not written yet are lost, and a failed group is logged and counted as
+ * {@code journal.dropped}. When the queue is full, a committing thread waits at most
+ * {@code workflow.journal.offer-timeout} for room, still holding its connection, and then drops its entries,
+ * also counted as {@code journal.dropped}. The writer runs while the journal is started as a lifecycle
+ * component; entries of transitions before that or during shutdown are written by the committing thread.
+ * <p>
+ * In {@code SYNC} mode entries are written in the transaction of the transition itself, so the journal
+ * row commits, or rolls back, with the status change before the response is sent.
+ */
+@Slf4j
+@Component
+public class TransitionJournal implements SmartLifecycle {
+
+    private static final String INSERT_ORDER_TRANSITION = "insert into order_transitions " +
+            "(order_id, from_status, to_status, event, reason, occurred_at, latency_micros) values (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_TASK_TRANSITION = "insert into task_transitions " +
+            "(task_id, order_id, from_status, to_status, event, reason, occurred_at, latency_micros) " +
+            "values (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final int MAX_REASON_LENGTH = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate groupTransaction;
+    private final WorkflowProperties.Journal settings;
+
+    private final BlockingQueue<Entry> queue;
+    private Thread flusher;
+    private volatile boolean running;
+
+    private final Timer flushes;
+    private final Counter written;
+    private final Counter dropped;
+
+    public TransitionJournal(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                             WorkflowProperties workflowProperties, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        // Also used from afterCommit callbacks, where the finished transaction must not be joined
+        this.groupTransaction = new TransactionTemplate(transactionManager);
+        this.groupTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.settings = workflowProperties.getJournal();
+        this.queue = new LinkedBlockingQueue<>(settings.getQueueCapacity());
+
+        this.flushes = Timer.builder("journal.flush")
+                .description("Time to write one group of journal entries").register(meterRegistry);
+        this.written = Counter.builder("journal.written")
+                .description("Journal entries written").register(meterRegistry);
+        this.dropped = Counter.builder("journal.dropped")
+                .description("Journal entries lost because the queue was full or their group could not be written")
+                .register(meterRegistry);
+        Gauge.builder("journal.queue.depth", queue, BlockingQueue::size)
+                .description("Journal entries waiting to be written").register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        flusher = new Thread(this::run, "transition-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Transition journal started in {} mode", settings.getMode());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.warn("Transition journal stopped with {} entries not written", queue.size());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Started before, and stopped after, the web server and everything else that sends events
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Journals the entries of the current transaction: queued after it commits ({@code ASYNC}), or written
+     * within it ({@code SYNC}). Outside of a transaction they are queued or written right away.
+     */
+    public void record(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (settings.getMode() == WorkflowProperties.JournalMode.SYNC) {
+            insert(entries);
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            enqueue(entries);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                enqueue(entries);
+            }
+        });
+    }
+
+    // Runs after the transition committed, usually with its connection still held, so it never waits for
+    // room for longer than the offer timeout
+    private void enqueue(List<Entry> entries) {
+        if (!running) { // No writer to hand them to
+            write(entries);
+            return;
+        }
+        long deadline = System.nanoTime() + settings.getOfferTimeout().toNanos();
+        for (int i = 0; i < entries.size(); i++) {
+            boolean queued;
+            try {
+                queued = queue.offer(entries.get(i), deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+            if (!queued) {
+                int lost = entries.size() - i;
+                dropped.increment(lost);
+                log.debug("Journal queue full; {} entries not journaled", lost);
+                return;
+            }
+        }
+    }
+
+    // The only writer in ASYNC mode, so entries are written in the order they were queued
+    private void run() {
+        List<Entry> group = new ArrayList<>(settings.getBatchSize());
+        while (running || !queue.isEmpty()) {
+            try {
+                collect(group);
+            } catch (InterruptedException e) {
+                // Stopping: write what was collected, then drain the rest without waiting
+                log.debug("Transition journal interrupted; draining {} queued entries", queue.size());
+            }
+            if (!group.isEmpty()) {
+                write(group);
+                group.clear();
+            }
+        }
+    }
+
+    // Blocks for the first entry, then keeps the group open until it is full or the interval has passed
+    private void collect(List<Entry> group) throws InterruptedException {
+        Entry first = running ? queue.poll(settings.getFlushInterval().toNanos(), TimeUnit.NANOSECONDS) : queue.poll();
+        if (first == null) {
+            return;
+        }
+        group.add(first);
+        long deadline = System.nanoTime() + settings.getFlushInterval().toNanos();
+        while (group.size() < settings.getBatchSize()) {
+            if (queue.drainTo(group, settings.getBatchSize() - group.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !running) {
+                return;
+            }
+            Entry next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            group.add(next);
+        }
+    }
+
+    private void write(List<Entry> group) {
+        long start = System.nanoTime();
+        try {
+            groupTransaction.executeWithoutResult(tx -> insert(group));
+        } catch (RuntimeException e) {
+            dropped.increment(group.size());
+            log.error("Could not write {} journal entries: {}", group.size(), e.getMessage(), e);
+        } finally {
+            flushes.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void insert(List<Entry> entries) {
+        List<Object[]> orderRows = new ArrayList<>();
+        List<Object[]> taskRows = new ArrayList<>();
+        for (Entry entry : entries) {
+            Timestamp occurredAt = Timestamp.valueOf(entry.occurredAt());
+            if (entry.taskId() == null) {
+                orderRows.add(new Object[]{entry.orderId(), entry.fromStatus(), entry.toStatus(), entry.event(),
+                        entry.reason(), occurredAt, entry.latencyMicros()});
+            } else {
+                taskRows.add(new Object[]{entry.taskId(), entry.orderId(), entry.fromStatus(), entry.toStatus(),
+                        entry.event(), entry.reason(), occurredAt, entry.latencyMicros()});
+            }
+        }
+        if (!orderRows.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_ORDER_TRANSITION, orderRows);
+        }
+        if (!taskRows.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_TASK_TRANSITION, taskRows);
+        }
+        written.increment(entries.size());
+    }
+
+    // Time since receivedAt (a System.nanoTime() reading) in microseconds
+    public static long latencyMicros(long receivedAt) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - receivedAt);
+    }
+
+    /**
+     * One accepted event. {@code taskId} is null for order transitions.
+     */
+    public record Entry(Long orderId, Long taskId, String fromStatus, String toStatus, String event, String reason,
+                        LocalDateTime occurredAt, long latencyMicros) {
+
+        public static Entry order(Long orderId, OrderStatus source, OrderStatus target, OrderEvent event,
+                                  String reason, long latencyMicros) {
+            return new Entry(orderId, null, source.name(), target.name(), event.name(), truncate(reason),
+                    LocalDateTime.now(), latencyMicros);
+        }
+
+        public static Entry task(Long taskId, Long orderId, TaskStatus source, TaskStatus target, TaskEvent event,
+                                 String reason, long latencyMicros) {
+            return new Entry(orderId, taskId, source.name(), target.name(), event.name(), truncate(reason),
+                    LocalDateTime.now(), latencyMicros);
+        }
+
+        private static String truncate(String reason) {
+            return reason != null && reason.length() > MAX_REASON_LENGTH ? reason.substring(0, MAX_REASON_LENGTH) : reason;
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package com.example.orderprocessing.service;
 
+import com.example.orderprocessing.config.WorkflowProperties;
 import com.example.orderprocessing.enums.OrderEvent;
 import com.example.orderprocessing.enums.OrderStatus;
-import com.example.orderprocessing.model.Order;
+import com.example.orderprocessing.exception.TransitionConflictException;
 import com.example.orderprocessing.repository.OrderRepository;
+import com.example.orderprocessing.statemachine.StateMachinePool;
+import com.example.orderprocessing.statemachine.TransitionTable;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -12,115 +17,193 @@ import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.config.StateMachineFactory;
 import org.springframework.statemachine.state.State;
-import org.springframework.statemachine.support.DefaultStateMachineContext;
+import org.springframework.statemachine.support.DefaultExtendedState;
 import org.springframework.statemachine.support.StateMachineInterceptorAdapter;
 import org.springframework.statemachine.transition.Transition;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class WorkflowStateMachineService {
 
+    static final String ORDER_ID = "ORDER_ID";
+    // System.nanoTime() when the event was received, for the journaled latency
+    static final String RECEIVED_AT = "RECEIVED_AT";
+    private static final String CONFLICT = "CONFLICT";
+
     @Qualifier("orderStateMachineFactory")
     private final StateMachineFactory<OrderStatus, OrderEvent> orderStateMachineFactory;
     private final OrderRepository orderRepository; // To persist state changes
+    private final OrderViewCache orderViewCache; // Evicted with every persisted transition
+    private final StatusCounters statusCounters; // Counted with every persisted transition
+    private final TransitionJournal transitionJournal; // Journaled with every persisted transition
+    private final SlaDeadlines slaDeadlines; // Timed statuses set or cancel a deadline
+    private final WorkflowProperties workflowProperties;
+    private final MeterRegistry meterRegistry;
+
+    // Machines are built once and leased per event instead of being built from the factory every time.
+    private StateMachinePool<OrderStatus, OrderEvent> stateMachinePool;
+    // The same transitions compiled into a lookup table, used when the TABLE engine is selected.
+    private TransitionTable<OrderStatus, OrderEvent> transitionTable;
+
+    @PostConstruct
+    void initEngines() {
+        WorkflowProperties.Pool pool = workflowProperties.getStatemachine().getPool();
+        stateMachinePool = new StateMachinePool<>("order", orderStateMachineFactory, this::registerInterceptor,
+                pool.getInitialSize(), pool.getMaxSize(), pool.getLeaseTimeout(), meterRegistry);
+        transitionTable = TransitionTable.compile(orderStateMachineFactory.getStateMachine("orderSM-table"),
+                OrderStatus.class, OrderEvent.class);
+        log.info("Order events are processed by the {} engine", workflowProperties.getStatemachine().getEngine());
+    }
 
-    // This service manages the lifecycle of state machines for orders.
-
-    public StateMachine<OrderStatus, OrderEvent> initializeStateMachine(Order order) {
-        // Create a unique machine ID, e.g., based on order ID
-        String machineId = "orderSM-" + order.getId();
-        StateMachine<OrderStatus, OrderEvent> stateMachine = orderStateMachineFactory.getStateMachine(machineId);
-
-        // Stop the machine if it's already running (e.g., from a previous instance or in-memory cache)
-        if (stateMachine.getState() != null && !stateMachine.isComplete()) {
-            stateMachine.stop();
-        }
-
-        // Reset the state machine to the order's current persisted state
-        stateMachine.getStateMachineAccessor()
-                .doWithAllRegions(sma -> {
-                    sma.addStateMachineInterceptor(new StateMachineInterceptorAdapter<>() {
-                        // This interceptor updates the Order entity's status after a successful state transition.
-                        @Override
-                        public void postStateChange(State<OrderStatus, OrderEvent> state, Message<OrderEvent> message,
-                                                    Transition<OrderStatus, OrderEvent> transition,
-                                                    StateMachine<OrderStatus, OrderEvent> stateMachine,
-                                                    StateMachine<OrderStatus, OrderEvent> rootStateMachine) {
-                            log.debug("Interceptor: Order {} transitioned to state {}", order.getId(), state.getId());
-                            if (order.getStatus() != state.getId()) {
-                                order.setStatus(state.getId());
-                                orderRepository.save(order); // Persist the new status
-                                log.info("Order {} status updated to {} in database.", order.getId(), state.getId());
-                            }
+    // Registered once per pooled machine. The order being processed is carried in the extended state,
+    // which is replaced every time the machine is leased.
+    private void registerInterceptor(StateMachine<OrderStatus, OrderEvent> pooledMachine) {
+        pooledMachine.getStateMachineAccessor()
+                .doWithAllRegions(sma -> sma.addStateMachineInterceptor(new StateMachineInterceptorAdapter<>() {
+                    // This interceptor writes the order's new status after a successful state transition.
+                    @Override
+                    public void postStateChange(State<OrderStatus, OrderEvent> state, Message<OrderEvent> message,
+                                                Transition<OrderStatus, OrderEvent> transition,
+                                                StateMachine<OrderStatus, OrderEvent> stateMachine,
+                                                StateMachine<OrderStatus, OrderEvent> rootStateMachine) {
+                        Long orderId = stateMachine.getExtendedState().get(ORDER_ID, Long.class);
+                        if (orderId == null || message == null || transition == null || transition.getSource() == null) {
+                            return; // Not leased for an order (e.g. initial start of a pooled machine)
                         }
-
-                        @Override
-                        public Exception stateMachineError(StateMachine<OrderStatus, OrderEvent> machine, Exception exception) {
-                            log.error("Error in Order StateMachine (ID: {}) for Order {}: {}", machine.getId(), order.getId(), exception.getMessage(), exception);
-                            // Here you could potentially transition the order to an ERROR state or take other actions
-                            return exception; // Propagate the exception
+                        log.debug("Interceptor: Order {} transitioned to state {}", orderId, state.getId());
+                        try {
+                            persistTransition(orderId, transition.getSource().getId(), state.getId(), message,
+                                    stateMachine.getExtendedState().get(RECEIVED_AT, Long.class));
+                        } catch (TransitionConflictException e) {
+                            // Surfaced by sendEventToMachine once the machine has finished processing the event
+                            stateMachine.getExtendedState().getVariables().put(CONFLICT, e);
                         }
-                    });
-                    // Reset the state of the machine instance
-                    sma.resetStateMachine(new DefaultStateMachineContext<>(order.getStatus(), null, null, null, null, machineId));
-                });
-
-        // Start the state machine instance
-        stateMachine.start();
-        log.info("Order StateMachine (ID: {}) initialized and started for Order ID: {} in state: {}", machineId, order.getId(), stateMachine.getState().getId());
-        return stateMachine;
+                    }
+
+                    @Override
+                    public Exception stateMachineError(StateMachine<OrderStatus, OrderEvent> machine, Exception exception) {
+                        log.error("Error in Order StateMachine (ID: {}): {}", machine.getId(), exception.getMessage(), exception);
+                        // Here you could potentially transition the order to an ERROR state or take other actions
+                        return exception; // Propagate the exception
+                    }
+                }));
     }
 
+    // Shared by both engines: the single place where an accepted transition reaches the database.
+    private void persistTransition(Long orderId, OrderStatus source, OrderStatus target, Message<OrderEvent> message,
+                                   long receivedAt) {
+        int updated = orderRepository.compareAndSetStatus(orderId, source, target, LocalDateTime.now());
+        if (updated == 0) {
+            throw new TransitionConflictException("Order", orderId, source);
+        }
+        orderViewCache.evictOrder(orderId);
+        statusCounters.apply(new StatusCounters.Delta().order(source, target));
+        List<TransitionJournal.Entry> entries = List.of(TransitionJournal.Entry.order(orderId, source, target,
+                message.getPayload(), message.getHeaders().get("REASON", String.class),
+                TransitionJournal.latencyMicros(receivedAt)));
+        transitionJournal.record(entries);
+        slaDeadlines.track(entries);
+        log.info("Order {} status updated from {} to {} in database.", orderId, source, target);
+    }
+
+    /**
+     * Applies an event to an order whose persisted status is {@code currentStatus}.
+     *
+     * @return whether the event was accepted in that status
+     * @throws TransitionConflictException if the status changed after it was read; the caller may retry
+     */
+    @Transactional(noRollbackFor = TransitionConflictException.class) // Conflicts are retried by the caller in the same transaction
+    public boolean sendEvent(Long orderId, OrderStatus currentStatus, OrderEvent event, String reason) {
+        Message<OrderEvent> message = buildMessage(orderId, event, reason);
+        Map<Object, Object> variables = new HashMap<>();
+        variables.put(ORDER_ID, orderId);
+        variables.put(RECEIVED_AT, System.nanoTime());
+
+        if (workflowProperties.getStatemachine().getEngine() == WorkflowProperties.Engine.TABLE) {
+            return sendEventToTable(orderId, currentStatus, message, variables);
+        }
+        return sendEventToMachine(orderId, currentStatus, message, variables);
+    }
 
-    @Transactional // Important: ensures that event sending and DB updates are atomic if possible
-    public boolean sendEvent(Order order, OrderEvent event, String reason) {
-        StateMachine<OrderStatus, OrderEvent> stateMachine = initializeStateMachine(order); // Ensures SM is current
+    /**
+     * Decides an event against the compiled transition table (running its guard and actions) without
+     * writing anything. Used by batch paths that persist many transitions at once.
+     *
+     * @return the target status, or {@code null} if the event is not accepted in {@code currentStatus}
+     */
+    public OrderStatus evaluate(Long orderId, OrderStatus currentStatus, OrderEvent event, String reason) {
+        Map<Object, Object> variables = new HashMap<>();
+        variables.put(ORDER_ID, orderId);
+        return transitionTable.fire(currentStatus, buildMessage(orderId, event, reason), new DefaultExtendedState(variables));
+    }
 
+    private Message<OrderEvent> buildMessage(Long orderId, OrderEvent event, String reason) {
         Map<String, Object> headers = new HashMap<>();
-        headers.put("ORDER_ID", order.getId()); // Pass order ID for actions/guards
+        headers.put(ORDER_ID, orderId); // Pass order ID for actions/guards
         if (reason != null) {
             headers.put("REASON", reason);
         }
+        // The ALL_TASKS_COMPLETED guard in OrderStateMachineConfig checks the order's task counters itself
 
-        // Special handling for ALL_TASKS_COMPLETED guard in OrderStateMachineConfig
-        if (OrderEvent.ALL_TASKS_COMPLETED.equals(event)) {
-            // Here, the OrderService (caller) should ensure all tasks are indeed completed.
-            // We are passing a flag via message header for the guard.
-            headers.put("allTasksCompleted", true); // This is what the guard will check
-        }
-
-        Message<OrderEvent> message = MessageBuilder
+        return MessageBuilder
                 .withPayload(event)
                 .copyHeaders(headers)
                 .build();
+    }
 
-        log.info("Sending event {} to Order StateMachine (ID: {}) for Order ID: {} with current state: {}",
-                event, stateMachine.getId(), order.getId(), stateMachine.getState().getId());
-
-        boolean eventAccepted = stateMachine.sendEvent(message);
-
-        if (eventAccepted) {
-            log.info("Event {} accepted by Order StateMachine (ID: {}) for Order ID: {}. New state: {}",
-                    event, stateMachine.getId(), order.getId(), stateMachine.getState().getId());
-            // The interceptor should have handled saving the new state to the Order entity.
-        } else {
-            log.warn("Event {} NOT accepted by Order StateMachine (ID: {}) for Order ID: {} in state: {}",
-                    event, stateMachine.getId(), order.getId(), stateMachine.getState().getId());
+    private boolean sendEventToTable(Long orderId, OrderStatus source, Message<OrderEvent> message,
+                                     Map<Object, Object> variables) {
+        OrderStatus target = transitionTable.fire(source, message, new DefaultExtendedState(variables));
+        if (target == null) {
+            log.warn("Event {} NOT accepted for Order ID: {} in state: {}", message.getPayload(), orderId, source);
+            return false;
         }
+        log.info("Event {} accepted for Order ID: {}. Transition: {} -> {}", message.getPayload(), orderId, source, target);
+        persistTransition(orderId, source, target, message, (Long) variables.get(RECEIVED_AT));
+        return true;
+    }
 
-        // Stop the machine instance after processing to free up resources
-        // This is a common pattern for per-entity state machines that are not long-lived in memory.
-        // The state is persisted in the Order entity.
-        stateMachine.stop();
-        log.debug("Order StateMachine (ID: {}) stopped for Order ID: {}", stateMachine.getId(), order.getId());
-
+    private boolean sendEventToMachine(Long orderId, OrderStatus source, Message<OrderEvent> message,
+                                       Map<Object, Object> variables) {
+        // Lease a pooled machine rehydrated to the order's current persisted state
+        StateMachine<OrderStatus, OrderEvent> stateMachine =
+                stateMachinePool.lease(source, "orderSM-" + orderId, variables);
+
+        TransitionConflictException conflict;
+        boolean eventAccepted;
+        try {
+            OrderEvent event = message.getPayload();
+            log.info("Sending event {} to Order StateMachine (ID: {}) for Order ID: {} with current state: {}",
+                    event, stateMachine.getId(), orderId, source);
+
+            // sendEvent also reports events whose guard rejected the transition as accepted,
+            // so acceptance is judged by whether the machine actually left its state.
+            eventAccepted = stateMachine.sendEvent(message) && stateMachine.getState().getId() != source;
+
+            if (eventAccepted) {
+                log.info("Event {} accepted by Order StateMachine (ID: {}) for Order ID: {}. New state: {}",
+                        event, stateMachine.getId(), orderId, stateMachine.getState().getId());
+                // The interceptor should have handled writing the new state to the database.
+            } else {
+                log.warn("Event {} NOT accepted by Order StateMachine (ID: {}) for Order ID: {} in state: {}",
+                        event, stateMachine.getId(), orderId, stateMachine.getState().getId());
+            }
+            conflict = stateMachine.getExtendedState().get(CONFLICT, TransitionConflictException.class);
+        } finally {
+            stateMachine.getExtendedState().getVariables().clear();
+            stateMachinePool.release(stateMachine);
+        }
+        if (conflict != null) {
+            throw conflict;
+        }
         return eventAccepted;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,182 @@
+package com.example.orderprocessing.statemachine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.Lifecycle;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Bounded pool of pre-built, started state machines.
+ * <p>
+ * Building a machine from a {@link StateMachineFactory} is expensive, so machines are built once,
+ * customized once (e.g. interceptors registered) and then leased per event. A lease rehydrates the
+ * machine to the entity's persisted state with {@code resetStateMachine}; the machine is handed back
+ * with {@link #release(StateMachine)} once the event has been processed.
+ * <p>
+ * Machines that stopped themselves (Spring Statemachine stops a machine when it enters an end state)
+ * or that recorded an error cannot be reused; they are discarded and replaced on release.
+ */
+@Slf4j
+public class StateMachinePool<S, E> {
+
+    private final String name;
+    private final StateMachineFactory<S, E> factory;
+    private final Consumer<StateMachine<S, E>> customizer;
+    private final int maxSize;
+    private final Duration leaseTimeout;
+
+    private final BlockingQueue<StateMachine<S, E>> idle;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter discards;
+    private final Timer waits;
+
+    public StateMachinePool(String name, StateMachineFactory<S, E> factory, Consumer<StateMachine<S, E>> customizer,
+                            int initialSize, int maxSize, Duration leaseTimeout, MeterRegistry meterRegistry) {
+        if (maxSize < 1 || initialSize < 0 || initialSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool sizing for " + name + ": initial=" + initialSize + ", max=" + maxSize);
+        }
+        this.name = name;
+        this.factory = factory;
+        this.customizer = customizer;
+        this.maxSize = maxSize;
+        this.leaseTimeout = leaseTimeout;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+
+        this.hits = Counter.builder("statemachine.pool.hits").tag("pool", name)
+                .description("Leases served by an idle pooled machine").register(meterRegistry);
+        this.misses = Counter.builder("statemachine.pool.misses").tag("pool", name)
+                .description("Leases that had to build a new machine").register(meterRegistry);
+        this.discards = Counter.builder("statemachine.pool.discards").tag("pool", name)
+                .description("Machines dropped because they stopped or failed").register(meterRegistry);
+        this.waits = Timer.builder("statemachine.pool.wait").tag("pool", name)
+                .description("Time spent waiting for a machine when the pool was exhausted").register(meterRegistry);
+        Gauge.builder("statemachine.pool.size", size, AtomicInteger::get).tag("pool", name).register(meterRegistry);
+        Gauge.builder("statemachine.pool.idle", idle, BlockingQueue::size).tag("pool", name).register(meterRegistry);
+
+        for (int i = 0; i < initialSize; i++) {
+            size.incrementAndGet();
+            idle.add(build());
+        }
+        log.info("StateMachine pool '{}' started with {} machines (max {})", name, initialSize, maxSize);
+    }
+
+    /**
+     * Leases a machine and resets it to the given state, machine id and extended state variables.
+     */
+    public StateMachine<S, E> lease(S state, String machineId, Map<Object, Object> variables) {
+        StateMachine<S, E> stateMachine = acquire();
+        try {
+            DefaultStateMachineContext<S, E> context = new DefaultStateMachineContext<>(
+                    state, null, null, new DefaultExtendedState(variables), null, machineId);
+            stateMachine.getStateMachineAccessor()
+                    .doWithAllRegions(sma -> sma.resetStateMachine(context));
+            return stateMachine;
+        } catch (RuntimeException e) {
+            release(stateMachine);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a leased machine to the pool, replacing it if it can no longer be used.
+     */
+    public void release(StateMachine<S, E> stateMachine) {
+        if (isReusable(stateMachine)) {
+            idle.offer(stateMachine);
+            return;
+        }
+        discards.increment();
+        log.debug("Discarding pooled StateMachine (ID: {}) from pool '{}'", stateMachine.getId(), name);
+        try {
+            stateMachine.stop();
+        } catch (RuntimeException e) {
+            log.warn("Failed to stop discarded StateMachine (ID: {}): {}", stateMachine.getId(), e.getMessage());
+        }
+        // Build the replacement here so that callers blocked in acquire() get a machine back
+        try {
+            idle.offer(build());
+        } catch (RuntimeException e) {
+            size.decrementAndGet();
+            log.error("Failed to replace discarded StateMachine in pool '{}': {}", name, e.getMessage(), e);
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int idleCount() {
+        return idle.size();
+    }
+
+    private StateMachine<S, E> acquire() {
+        StateMachine<S, E> stateMachine = idle.poll();
+        if (stateMachine != null) {
+            hits.increment();
+            return stateMachine;
+        }
+        if (reserveSlot()) {
+            misses.increment();
+            try {
+                return build();
+            } catch (RuntimeException e) {
+                size.decrementAndGet();
+                throw e;
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            stateMachine = idle.poll(leaseTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a state machine from pool '" + name + "'", e);
+        } finally {
+            waits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (stateMachine == null) {
+            throw new IllegalStateException("Timed out after " + leaseTimeout + " waiting for a state machine from pool '" + name + "'");
+        }
+        return stateMachine;
+    }
+
+    private boolean reserveSlot() {
+        int current;
+        do {
+            current = size.get();
+            if (current >= maxSize) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private StateMachine<S, E> build() {
+        StateMachine<S, E> stateMachine = factory.getStateMachine(name + "-pooled");
+        customizer.accept(stateMachine);
+        stateMachine.start();
+        return stateMachine;
+    }
+
+    private boolean isReusable(StateMachine<S, E> stateMachine) {
+        return stateMachine instanceof Lifecycle lifecycle
+                && lifecycle.isRunning()
+                && !stateMachine.hasStateMachineError();
+    }
+}
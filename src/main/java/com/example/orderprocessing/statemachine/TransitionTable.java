@@ -0,0 +1,123 @@
+package com.example.orderprocessing.statemachine;
+
+import org.springframework.messaging.Message;
+import org.springframework.statemachine.ExtendedState;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.state.PseudoStateKind;
+import org.springframework.statemachine.state.State;
+import org.springframework.statemachine.support.DefaultStateContext;
+import org.springframework.statemachine.transition.Transition;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * Flat {@code [state.ordinal()][event.ordinal()]} lookup table compiled from a Spring Statemachine
+ * definition.
+ * <p>
+ * Every cell holds the target state plus the guard and action slots of the configured transition, so
+ * an event is checked and applied in constant time without leasing a machine. Guards and actions are
+ * the same beans the Spring engine runs; they receive a {@link StateContext} carrying the message,
+ * extended state and transition, but no {@link StateMachine}.
+ * <p>
+ * Only flat, external, event-triggered transitions between enum states are supported, which is what
+ * the order and task configurations declare. Transitions leaving an end state are left out, matching
+ * Spring, which stops a machine as soon as it enters one.
+ */
+public final class TransitionTable<S extends Enum<S>, E extends Enum<E>> {
+
+    private static final int NO_TRANSITION = -1;
+
+    private final S[] states;
+    private final int[][] targets;
+    private final Transition<S, E>[][] transitions;
+    private final Function<StateContext<S, E>, Mono<Boolean>>[][] guards;
+    private final Function<StateContext<S, E>, Mono<Void>>[][][] actions;
+
+    @SuppressWarnings({"unchecked", "rawtypes"}) // Generic arrays can only be created raw
+    private TransitionTable(Class<S> stateType, Class<E> eventType) {
+        this.states = stateType.getEnumConstants();
+        int eventCount = eventType.getEnumConstants().length;
+        this.targets = new int[states.length][eventCount];
+        for (int[] row : targets) {
+            Arrays.fill(row, NO_TRANSITION);
+        }
+        this.transitions = new Transition[states.length][eventCount];
+        this.guards = new Function[states.length][eventCount];
+        this.actions = new Function[states.length][eventCount][];
+    }
+
+    /**
+     * Compiles the transitions of an (unstarted) machine built from the configuration into a table.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <S extends Enum<S>, E extends Enum<E>> TransitionTable<S, E> compile(
+            StateMachine<S, E> stateMachine, Class<S> stateType, Class<E> eventType) {
+        TransitionTable<S, E> table = new TransitionTable<>(stateType, eventType);
+        for (Transition<S, E> transition : stateMachine.getTransitions()) {
+            if (transition.getSource() == null || transition.getTarget() == null || transition.getTrigger() == null
+                    || transition.getTrigger().getEvent() == null) {
+                throw new IllegalStateException("Only event-triggered transitions can be compiled: " + transition);
+            }
+            if (isEndState(transition.getSource())) {
+                // A machine stops once it reaches an end state, so Spring never fires these
+                continue;
+            }
+            int source = transition.getSource().getId().ordinal();
+            int event = transition.getTrigger().getEvent().ordinal();
+            if (table.targets[source][event] != NO_TRANSITION) {
+                throw new IllegalStateException("Duplicate transition for (" + transition.getSource().getId()
+                        + ", " + transition.getTrigger().getEvent() + ")");
+            }
+            table.targets[source][event] = transition.getTarget().getId().ordinal();
+            table.transitions[source][event] = transition;
+            table.guards[source][event] = transition.getGuard();
+            Collection<Function<StateContext<S, E>, Mono<Void>>> transitionActions = transition.getActions();
+            table.actions[source][event] = transitionActions != null
+                    ? transitionActions.toArray(new Function[0])
+                    : new Function[0];
+        }
+        return table;
+    }
+
+    private static boolean isEndState(State<?, ?> state) {
+        return state.getPseudoState() != null && state.getPseudoState().getKind() == PseudoStateKind.END;
+    }
+
+    /**
+     * Whether a transition is configured for the pair, ignoring its guard.
+     */
+    public boolean isDefined(S state, E event) {
+        return targets[state.ordinal()][event.ordinal()] != NO_TRANSITION;
+    }
+
+    /**
+     * Evaluates the guard and runs the actions of the transition for {@code source} and the message's event.
+     *
+     * @return the target state, or {@code null} if no transition is configured or its guard rejects the event
+     */
+    public S fire(S source, Message<E> message, ExtendedState extendedState) {
+        int s = source.ordinal();
+        int e = message.getPayload().ordinal();
+        int target = targets[s][e];
+        if (target == NO_TRANSITION) {
+            return null;
+        }
+        Transition<S, E> transition = transitions[s][e];
+        StateContext<S, E> context = new DefaultStateContext<>(StateContext.Stage.TRANSITION, message,
+                message.getHeaders(), extendedState, transition, null,
+                transition.getSource(), transition.getTarget(), null);
+
+        Function<StateContext<S, E>, Mono<Boolean>> guard = guards[s][e];
+        if (guard != null && !Boolean.TRUE.equals(guard.apply(context).block())) {
+            return null;
+        }
+        for (Function<StateContext<S, E>, Mono<Void>> action : actions[s][e]) {
+            action.apply(context).block();
+        }
+        return states[target];
+    }
+}
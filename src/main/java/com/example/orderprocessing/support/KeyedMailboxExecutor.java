@@ -0,0 +1,146 @@
+package com.example.orderprocessing.support;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Actor-style mailboxes keyed by entity id.
+ * <p>
+ * Work for the same key is always routed to the same lane, and every lane is drained by exactly one
+ * thread, so work for a key runs strictly in submission order and never concurrently with itself.
+ * Different keys are striped across lanes and proceed in parallel. Queue depth and latency
+ * (enqueue to completion) are published per lane.
+ */
+@Slf4j
+public class KeyedMailboxExecutor implements AutoCloseable {
+
+    private final String name;
+    private final Lane[] lanes;
+
+    public KeyedMailboxExecutor(String name, int laneCount, int queueCapacity, MeterRegistry meterRegistry) {
+        if (laneCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid mailbox sizing for " + name + ": lanes=" + laneCount
+                    + ", queueCapacity=" + queueCapacity);
+        }
+        this.name = name;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, queueCapacity, meterRegistry);
+        }
+        log.info("Mailbox executor '{}' started with {} lanes", name, laneCount);
+    }
+
+    /**
+     * Queues work behind everything already submitted for the key.
+     */
+    public <T> CompletableFuture<T> submit(long key, Supplier<T> work) {
+        Lane lane = laneFor(key);
+        long enqueued = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return work.get();
+            } finally {
+                lane.latency.record(System.nanoTime() - enqueued, TimeUnit.NANOSECONDS);
+            }
+        }, lane.executor);
+    }
+
+    /**
+     * Runs work in the key's mailbox and waits for its result. Exceptions thrown by the work are rethrown
+     * unchanged. Calls made from the key's own lane run inline, as queueing them would deadlock the lane.
+     */
+    public <T> T execute(long key, Supplier<T> work) {
+        Lane lane = laneFor(key);
+        if (Thread.currentThread() == lane.thread) {
+            return work.get();
+        }
+        try {
+            return submit(key, work).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting on mailbox '" + name + "' for key " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause()
+                    : e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    public int queueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.queue.size();
+        }
+        return depth;
+    }
+
+    @Override
+    public void close() {
+        for (Lane lane : lanes) {
+            lane.executor.shutdown();
+        }
+        for (Lane lane : lanes) {
+            try {
+                if (!lane.executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.warn("Mailbox '{}' lane {} did not drain in time; {} items dropped",
+                            name, lane.index, lane.executor.shutdownNow().size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lane.executor.shutdownNow();
+            }
+        }
+    }
+
+    private Lane laneFor(long key) {
+        int hash = Long.hashCode(key);
+        hash ^= (hash >>> 16);
+        return lanes[Math.floorMod(hash, lanes.length)];
+    }
+
+    private final class Lane {
+        private final int index;
+        private final BlockingQueue<Runnable> queue;
+        private final ThreadPoolExecutor executor;
+        private final Timer latency;
+        private volatile Thread thread;
+
+        private Lane(int index, int queueCapacity, MeterRegistry meterRegistry) {
+            this.index = index;
+            this.queue = new LinkedBlockingQueue<>(queueCapacity);
+            // A single thread per lane is what serializes work per key; rejected when the lane is full
+            this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+                Thread worker = new Thread(runnable, name + "-mailbox-" + index);
+                worker.setDaemon(true);
+                thread = worker;
+                return worker;
+            }, new ThreadPoolExecutor.AbortPolicy());
+            String laneTag = String.valueOf(index);
+            this.latency = Timer.builder("mailbox.lane.latency").tag("mailbox", name).tag("lane", laneTag)
+                    .description("Time from enqueue to completion of mailbox work")
+                    .register(meterRegistry);
+            Gauge.builder("mailbox.lane.queue.depth", queue, BlockingQueue::size)
+                    .tag("mailbox", name).tag("lane", laneTag)
+                    .description("Work items waiting in the lane")
+                    .register(meterRegistry);
+        }
+    }
+}
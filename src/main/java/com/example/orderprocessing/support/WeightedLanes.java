@@ -0,0 +1,125 @@
+package com.example.orderprocessing.support;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * Shares out claims of queued work between weighted lanes, by smooth weighted round robin.
+ * <p>
+ * Every slot of a claim goes to one lane. Each lane's credit grows by its weight, the lane with the most
+ * credit takes the slot, and that lane then pays back the sum of all weights. Over any run of slots, across
+ * as many claims as it takes, each lane gets its weighted share to within one slot, so no lane starves
+ * however small its weight. A lane's slots are spread out rather than bunched, so claims of one slot
+ * still take turns. Slots a lane leaves unused because it ran dry go to the other lanes, those that got no
+ * share in the claim included, so a claim is only short when every lane is.
+ * <p>
+ * Thread safe; each claiming component keeps its own instance, as the credits are its fairness state.
+ */
+public class WeightedLanes<K> {
+
+    /**
+     * Claims queued work of one lane in id order, without blocking on work claimed elsewhere.
+     */
+    @FunctionalInterface
+    public interface Claim<K, T> {
+        List<T> claim(K lane, long afterId, int limit);
+    }
+
+    private final List<K> lanes;
+    private final int[] weights;
+    private final long[] credits;
+    private final int totalWeight;
+
+    /**
+     * @param weights weight per lane, at least 1 each; ties go to the lane that comes first
+     */
+    public WeightedLanes(Map<K, Integer> weights) {
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("At least one lane is needed");
+        }
+        this.lanes = new ArrayList<>(weights.keySet());
+        this.weights = new int[lanes.size()];
+        this.credits = new long[lanes.size()];
+        int total = 0;
+        for (int i = 0; i < lanes.size(); i++) {
+            int weight = weights.get(lanes.get(i));
+            if (weight < 1) {
+                throw new IllegalArgumentException("Lane " + lanes.get(i) + " has weight " + weight + "; it must be at least 1");
+            }
+            this.weights[i] = weight;
+            total += weight;
+        }
+        this.totalWeight = total;
+    }
+
+    public List<K> lanes() {
+        return List.copyOf(lanes);
+    }
+
+    /**
+     * Hands out the next {@code slots} slots.
+     *
+     * @return the slots per lane, in lane order, without the lanes that got none
+     */
+    public synchronized Map<K, Integer> shares(int slots) {
+        int[] counts = new int[lanes.size()];
+        for (int slot = 0; slot < slots; slot++) {
+            int best = 0;
+            for (int i = 0; i < lanes.size(); i++) {
+                credits[i] += weights[i];
+                if (credits[i] > credits[best]) {
+                    best = i;
+                }
+            }
+            credits[best] -= totalWeight;
+            counts[best]++;
+        }
+        Map<K, Integer> shares = new LinkedHashMap<>();
+        for (int i = 0; i < lanes.size(); i++) {
+            if (counts[i] > 0) {
+                shares.put(lanes.get(i), counts[i]);
+            }
+        }
+        return shares;
+    }
+
+    /**
+     * Claims up to {@code slots} items: each lane its share first, then whatever the lanes that ran dry
+     * left over from every other lane, in lane order. A claim of a single slot thus still finds work when
+     * the lane whose turn it is has none. Meant to run in one transaction, where the rows a lane claimed
+     * are still returned by its next claim; the second round therefore continues after the last id the
+     * lane claimed.
+     *
+     * @return the claimed items, the shares in lane order followed by the leftovers
+     */
+    public <T> List<T> claim(int slots, Claim<K, T> claim, ToLongFunction<T> idOf) {
+        List<T> claimed = new ArrayList<>(slots);
+        // Where each lane's second round continues; lanes that came back short are known to be dry
+        Map<K, Long> after = new HashMap<>();
+        Set<K> dry = new HashSet<>();
+        shares(slots).forEach((lane, share) -> {
+            List<T> items = claim.claim(lane, 0L, share);
+            claimed.addAll(items);
+            if (items.size() < share) {
+                dry.add(lane);
+            } else {
+                after.put(lane, idOf.applyAsLong(items.get(items.size() - 1)));
+            }
+        });
+        for (K lane : lanes) {
+            if (claimed.size() >= slots) {
+                break;
+            }
+            if (!dry.contains(lane)) {
+                claimed.addAll(claim.claim(lane, after.getOrDefault(lane, 0L), slots - claimed.size()));
+            }
+        }
+        return claimed;
+    }
+}
@@ -0,0 +1,45 @@
+-- Metadata search (GET /api/v1/orders/search), run on every start after Hibernate has created or updated
+-- the tables (spring.jpa.defer-datasource-initialization), so every statement must be idempotent.
+-- Adding a stored generated column rewrites the table once, the first time this runs on an existing database.
+
+-- Order and task ids come from the pooled sequences (Hibernate reserves 50 ids per call). Rows written
+-- before, while the ids were BIGSERIAL, or by scripts that bypass the sequences would collide with the ids
+-- handed out next, so each sequence is moved past the largest id. It is only ever moved forward, which
+-- later runs never need to do
+SELECT setval('orders_seq', max_id) FROM (SELECT max(id) AS max_id FROM orders) ids
+    WHERE max_id > (SELECT last_value FROM orders_seq);
+SELECT setval('tasks_seq', max_id) FROM (SELECT max(id) AS max_id FROM tasks) ids
+    WHERE max_id > (SELECT last_value FROM tasks_seq);
+
+-- Scalar paths as generated columns with b-tree indexes; (customer_id, id) serves keyset pages directly
+ALTER TABLE orders ADD COLUMN IF NOT EXISTS customer_id TEXT
+    GENERATED ALWAYS AS (metadata #>> '{customerInfo,customerId}') STORED;
+ALTER TABLE orders ADD COLUMN IF NOT EXISTS payment_transaction_id TEXT
+    GENERATED ALWAYS AS (metadata #>> '{paymentDetails,transactionId}') STORED;
+CREATE INDEX IF NOT EXISTS idx_orders_customer_id_id ON orders (customer_id, id);
+CREATE INDEX IF NOT EXISTS idx_orders_payment_transaction_id ON orders (payment_transaction_id);
+
+-- Containment (metadata @> '{"items":[{"productId":"..."}]}') for array members and any other path
+CREATE INDEX IF NOT EXISTS idx_orders_metadata_path_ops ON orders USING GIN (metadata jsonb_path_ops);
+
+-- Task workers claim ready tasks (PENDING, prerequisites completed) of their handled types oldest first,
+-- lane by lane; tasks enter the index when released and leave it when claimed
+CREATE INDEX IF NOT EXISTS idx_tasks_ready_lane_type_id ON tasks (lane, task_type, id)
+    WHERE status = 'PENDING' AND pending_prerequisites = 0;
+
+-- SLA deadlines count from status_changed_at, which only status changes write. Rows from before the
+-- column existed start from their last update; later runs match no rows
+UPDATE orders SET status_changed_at = updated_date WHERE status_changed_at IS NULL;
+UPDATE tasks SET status_changed_at = updated_date WHERE status_changed_at IS NULL;
+
+-- Per-order task counters. Orders from before the counters existed have tasks but a task_count of 0; every
+-- other order is written with its counters and its tasks in one transaction, so later runs match no rows
+UPDATE orders o SET task_count = c.total, completed_task_count = c.completed,
+        failed_task_count = c.failed, cancelled_task_count = c.cancelled
+    FROM (SELECT order_id, count(*) AS total,
+                 count(*) FILTER (WHERE status = 'COMPLETED') AS completed,
+                 count(*) FILTER (WHERE status = 'FAILED') AS failed,
+                 count(*) FILTER (WHERE status = 'CANCELLED') AS cancelled
+          FROM tasks WHERE order_id IN (SELECT id FROM orders WHERE task_count = 0)
+          GROUP BY order_id) c
+    WHERE o.id = c.order_id AND o.task_count = 0;
@@ -0,0 +1,205 @@
+package com.example.orderprocessing.controller;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.dto.OrderEventBatchItem;
+import com.example.orderprocessing.dto.TaskEventBatchItem;
+import com.example.orderprocessing.enums.OrderEvent;
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.repository.OrderRepository;
+import com.example.orderprocessing.repository.TaskRepository;
+import com.example.orderprocessing.repository.TransitionBatchRepository;
+import com.example.orderprocessing.service.OrderService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Posts event batches to both batch endpoints: one result per item in request order, later items of an
+ * entity seeing the effect of earlier ones across chunks, the item limit, and chunks that stay committed
+ * when a later chunk fails.
+ */
+// A database of its own, and chunks and limits small enough to cross with a handful of items
+@SpringBootTest(properties = {"workflow.batch.chunk-size=3",
+        "workflow.batch.max-items=5",
+        "spring.datasource.url=jdbc:h2:mem:batches;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@AutoConfigureMockMvc
+@DirtiesContext
+class BatchEventEndpointTest {
+
+    private static final long MISSING = Long.MAX_VALUE;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @SpyBean
+    private TransitionBatchRepository transitionBatchRepository;
+
+    @BeforeEach
+    void realWrites() {
+        doCallRealMethod().when(transitionBatchRepository).updateOrderStatuses(any(), any());
+        doCallRealMethod().when(transitionBatchRepository).updateTaskStatuses(any(), any(), any());
+    }
+
+    @Test
+    void orderBatchAnswersEveryItemInOrder() throws Exception {
+        Long first = newOrder();
+        Long second = newOrder();
+        postOrderEvents(List.of(
+                new OrderEventBatchItem(first, OrderEvent.PROCESS_ORDER, null),
+                new OrderEventBatchItem(MISSING, OrderEvent.PROCESS_ORDER, null),
+                new OrderEventBatchItem(first, OrderEvent.PROCESS_ORDER, null),
+                // In the next chunk, after the order's first event has been written
+                new OrderEventBatchItem(first, OrderEvent.PAYMENT_SUCCESSFUL, null),
+                new OrderEventBatchItem(second, OrderEvent.PAYMENT_SUCCESSFUL, "not yet processed")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(5))
+                .andExpect(jsonPath("$[0].id").value(first))
+                .andExpect(jsonPath("$[0].outcome").value("ACCEPTED"))
+                .andExpect(jsonPath("$[0].status").value("PAYMENT_PENDING"))
+                .andExpect(jsonPath("$[1].id").value(MISSING))
+                .andExpect(jsonPath("$[1].outcome").value("NOT_FOUND"))
+                .andExpect(jsonPath("$[1].status").doesNotExist())
+                .andExpect(jsonPath("$[2].outcome").value("REJECTED"))
+                .andExpect(jsonPath("$[2].status").value("PAYMENT_PENDING"))
+                .andExpect(jsonPath("$[3].outcome").value("ACCEPTED"))
+                .andExpect(jsonPath("$[3].status").value("IN_PROGRESS"))
+                .andExpect(jsonPath("$[4].id").value(second))
+                .andExpect(jsonPath("$[4].outcome").value("REJECTED"))
+                .andExpect(jsonPath("$[4].status").value("CREATED"));
+        assertEquals(OrderStatus.IN_PROGRESS, orderStatus(first));
+        assertEquals(OrderStatus.CREATED, orderStatus(second));
+    }
+
+    @Test
+    void taskBatchAnswersEveryItemInOrder() throws Exception {
+        List<Long> tasks = tasksOf(newOrder());
+        Long first = tasks.get(0);
+        Long second = tasks.get(1);
+        postTaskEvents(List.of(
+                new TaskEventBatchItem(first, TaskEvent.START_TASK, null),
+                new TaskEventBatchItem(first, TaskEvent.COMPLETE_TASK, null),
+                new TaskEventBatchItem(MISSING, TaskEvent.START_TASK, null),
+                new TaskEventBatchItem(second, TaskEvent.COMPLETE_TASK, "never started"),
+                new TaskEventBatchItem(first, TaskEvent.START_TASK, null)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(5))
+                .andExpect(jsonPath("$[0].id").value(first))
+                .andExpect(jsonPath("$[0].outcome").value("ACCEPTED"))
+                .andExpect(jsonPath("$[0].status").value("IN_PROGRESS"))
+                .andExpect(jsonPath("$[1].outcome").value("ACCEPTED"))
+                .andExpect(jsonPath("$[1].status").value("COMPLETED"))
+                .andExpect(jsonPath("$[2].id").value(MISSING))
+                .andExpect(jsonPath("$[2].outcome").value("NOT_FOUND"))
+                .andExpect(jsonPath("$[3].id").value(second))
+                .andExpect(jsonPath("$[3].outcome").value("REJECTED"))
+                .andExpect(jsonPath("$[3].status").value("PENDING"))
+                // In the next chunk, after the task has been completed
+                .andExpect(jsonPath("$[4].outcome").value("REJECTED"))
+                .andExpect(jsonPath("$[4].status").value("COMPLETED"));
+        assertEquals(TaskStatus.COMPLETED, taskStatus(first));
+        assertEquals(TaskStatus.PENDING, taskStatus(second));
+    }
+
+    @Test
+    void batchesOverTheLimitAreRejectedWhole() throws Exception {
+        Long orderId = newOrder();
+        Long taskId = tasksOf(orderId).get(0);
+        List<OrderEventBatchItem> orderItems = new ArrayList<>();
+        List<TaskEventBatchItem> taskItems = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            orderItems.add(new OrderEventBatchItem(orderId, OrderEvent.PROCESS_ORDER, null));
+            taskItems.add(new TaskEventBatchItem(taskId, TaskEvent.START_TASK, null));
+        }
+        postOrderEvents(orderItems).andExpect(status().isBadRequest());
+        postTaskEvents(taskItems).andExpect(status().isBadRequest());
+        assertEquals(OrderStatus.CREATED, orderStatus(orderId));
+        assertEquals(TaskStatus.PENDING, taskStatus(taskId));
+    }
+
+    @Test
+    void chunksBeforeAFailingChunkStayCommitted() throws Exception {
+        List<Long> orders = List.of(newOrder(), newOrder(), newOrder(), newOrder());
+        doCallRealMethod()
+                .doThrow(new DataAccessResourceFailureException("connection lost"))
+                .when(transitionBatchRepository).updateOrderStatuses(any(), any());
+        postOrderEvents(orders.stream()
+                .map(id -> new OrderEventBatchItem(id, OrderEvent.PROCESS_ORDER, null)).toList())
+                .andExpect(status().isInternalServerError());
+        assertEquals(List.of(OrderStatus.PAYMENT_PENDING, OrderStatus.PAYMENT_PENDING, OrderStatus.PAYMENT_PENDING,
+                OrderStatus.CREATED), orders.stream().map(this::orderStatus).toList());
+
+        List<Long> tasks = new ArrayList<>(tasksOf(newOrder()));
+        tasks.add(tasksOf(newOrder()).get(0));
+        doCallRealMethod()
+                .doThrow(new DataAccessResourceFailureException("connection lost"))
+                .when(transitionBatchRepository).updateTaskStatuses(any(), any(), any());
+        postTaskEvents(tasks.stream()
+                .map(id -> new TaskEventBatchItem(id, TaskEvent.START_TASK, null)).toList())
+                .andExpect(status().isInternalServerError());
+        assertEquals(List.of(TaskStatus.IN_PROGRESS, TaskStatus.IN_PROGRESS, TaskStatus.IN_PROGRESS,
+                TaskStatus.PENDING), tasks.stream().map(this::taskStatus).toList());
+    }
+
+    private ResultActions postOrderEvents(List<OrderEventBatchItem> items) throws Exception {
+        return mockMvc.perform(post("/api/v1/orders/events:batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(items)));
+    }
+
+    private ResultActions postTaskEvents(List<TaskEventBatchItem> items) throws Exception {
+        return mockMvc.perform(post("/api/v1/tasks/events:batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(items)));
+    }
+
+    private Long newOrder() {
+        return orderService.createOrder(new CreateOrderRequest()).getId();
+    }
+
+    private List<Long> tasksOf(Long orderId) {
+        return taskRepository.findByOrderId(orderId).stream().map(Task::getId).sorted().toList();
+    }
+
+    private OrderStatus orderStatus(Long orderId) {
+        return orderRepository.findById(orderId).orElseThrow().getStatus();
+    }
+
+    private TaskStatus taskStatus(Long taskId) {
+        return taskRepository.findById(taskId).orElseThrow().getStatus();
+    }
+}
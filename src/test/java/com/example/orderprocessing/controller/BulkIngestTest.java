@@ -0,0 +1,131 @@
+package com.example.orderprocessing.controller;
+
+import com.example.orderprocessing.dto.IngestLineResult;
+import com.example.orderprocessing.repository.OrderRepository;
+import com.example.orderprocessing.service.OrderIngestService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Ingests NDJSON orders in chunks small enough to cross with a handful of lines: malformed lines fail on
+ * their own, blank lines are skipped yet counted, and a chunk the database refuses reports every one of its
+ * lines while the chunks around it are stored.
+ */
+// A database of its own, as the test adds a constraint to the orders table
+@SpringBootTest(properties = {"workflow.ingest.chunk-size=2",
+        "spring.datasource.url=jdbc:h2:mem:ingest;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@AutoConfigureMockMvc
+@DirtiesContext
+class BulkIngestTest {
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    // Lines 1 and 4 form the first chunk, 5 and 6 the second (refused) and 8 the last
+    private static final String INPUT = """
+            {"metadata":{"n":1}}
+
+            {"metadata":
+            {"metadata":{"n":2}}
+            {"metadata":{"n":3,"refuse":true}}
+            {"metadata":{"n":4}}
+              \t
+            {"metadata":{"n":5}}
+            """;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private OrderIngestService orderIngestService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @AfterEach
+    void dropConstraint() {
+        jdbcTemplate.execute("alter table orders drop constraint if exists no_refused_orders");
+        jdbcTemplate.update("delete from tasks");
+        jdbcTemplate.update("delete from orders");
+    }
+
+    @Test
+    void eachLineIsAnsweredWithItsOrderOrItsError() throws Exception {
+        refuseMarkedOrders();
+        String body = mockMvc.perform(post("/api/v1/orders/bulk")
+                        .contentType(NDJSON)
+                        .content(INPUT))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertEquals(6, lines.length);
+        List<JsonNode> results = new ArrayList<>();
+        for (String line : lines) {
+            JsonNode result = objectMapper.readTree(line);
+            assertEquals(2, result.size(), line); // "line" and either "id" or "error", nothing else
+            results.add(result);
+        }
+        assertEquals(List.of(1L, 3L, 4L, 5L, 6L, 8L),
+                results.stream().map(result -> result.get("line").asLong()).toList());
+        assertStored(results.get(0), 1);
+        assertTrue(results.get(1).get("error").asText().startsWith("Invalid JSON"));
+        assertStored(results.get(2), 2);
+        assertTrue(results.get(3).get("error").asText().startsWith("Not stored"));
+        assertTrue(results.get(4).get("error").asText().startsWith("Not stored"));
+        assertStored(results.get(5), 5);
+        assertEquals(3, orderRepository.count());
+    }
+
+    @Test
+    void ingestHandsOverResultsInLineOrderAndCountsTheCreatedOrders() throws Exception {
+        refuseMarkedOrders();
+        List<IngestLineResult> results = new ArrayList<>();
+        long created = orderIngestService.ingest(new BufferedReader(new StringReader(INPUT)), results::add);
+
+        assertEquals(3, created);
+        assertEquals(List.of(1L, 3L, 4L, 5L, 6L, 8L), results.stream().map(IngestLineResult::getLine).toList());
+        assertEquals(List.of(true, false, true, false, false, true),
+                results.stream().map(result -> result.getId() != null).toList());
+        results.forEach(result -> assertEquals(result.getId() == null, result.getError() != null));
+    }
+
+    // Fails the flush of any chunk holding a marked order, as a constraint violation would
+    private void refuseMarkedOrders() {
+        jdbcTemplate.execute("alter table orders add constraint no_refused_orders "
+                + "check (cast(metadata as varchar) not like '%\"refuse\"%')");
+    }
+
+    private void assertStored(JsonNode result, int n) throws Exception {
+        assertNull(result.get("error"));
+        String metadata = jdbcTemplate.queryForObject("select cast(metadata as varchar) from orders where id = ?",
+                String.class, result.get("id").asLong());
+        assertEquals(n, objectMapper.readTree(metadata).get("n").asInt());
+    }
+}
@@ -0,0 +1,343 @@
+package com.example.orderprocessing.controller;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.dto.OrderEventBatchItem;
+import com.example.orderprocessing.dto.TaskEventBatchItem;
+import com.example.orderprocessing.enums.OrderEvent;
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.model.Order;
+import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.repository.OrderRepository;
+import com.example.orderprocessing.repository.TaskRepository;
+import com.example.orderprocessing.service.OrderService;
+import com.example.orderprocessing.service.StatusCounters;
+import com.example.orderprocessing.service.TaskService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.ttddyy.dsproxy.QueryCountHolder;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.hibernate.Hibernate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Guards the read endpoints against N+1 regressions and cache bypasses, and order creation against
+ * per-row inserts, by counting the SQL statements each request issues.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class EndpointStatementCountTest {
+
+    @TestConfiguration
+    static class CountingDataSourceConfig {
+        @Bean
+        static BeanPostProcessor countingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (bean instanceof DataSource dataSource && "dataSource".equals(beanName)) {
+                        return ProxyDataSourceBuilder.create(dataSource).countQuery().build();
+                    }
+                    return bean;
+                }
+            };
+        }
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private TaskService taskService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private StatusCounters statusCounters;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Order order;
+
+    @BeforeEach
+    void createOrder() throws Exception {
+        CreateOrderRequest request = new CreateOrderRequest();
+        request.setMetadata(new ObjectMapper().readTree("{\"customerInfo\":{\"name\":\"Jane Smith\"}}"));
+        order = orderService.createOrder(request);
+        orderService.createOrder(request);
+        QueryCountHolder.clear();
+    }
+
+    @Test
+    void getOrderReadsOrderAndTasksInOneStatement() throws Exception {
+        mockMvc.perform(get("/api/v1/orders/{id}", order.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tasks.length()").value(3));
+        assertStatements(1);
+    }
+
+    @Test
+    void getMissingOrderTakesOneStatement() throws Exception {
+        mockMvc.perform(get("/api/v1/orders/{id}", Long.MAX_VALUE)).andExpect(status().isNotFound());
+        assertStatements(1);
+    }
+
+    @Test
+    void getTasksForOrderChecksExistenceInTheSameStatement() throws Exception {
+        mockMvc.perform(get("/api/v1/orders/{id}/tasks", order.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3));
+        assertStatements(1);
+
+        QueryCountHolder.clear();
+        mockMvc.perform(get("/api/v1/orders/{id}/tasks", Long.MAX_VALUE)).andExpect(status().isNotFound());
+        assertStatements(1);
+    }
+
+    @Test
+    void listingLoadsTasksForTheWholePageAtOnce() throws Exception {
+        mockMvc.perform(get("/api/v1/orders").param("after", String.valueOf(order.getId() - 1)).param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[1].tasks.length()").value(3));
+        assertStatements(2);
+    }
+
+    @Test
+    void statusOnlyReadsNeitherMetadataNorTasks() throws Exception {
+        mockMvc.perform(get("/api/v1/orders/{id}", order.getId()).param("fields", "id,status"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"id\":" + order.getId() + ",\"status\":\"CREATED\"}", true));
+        assertStatements(1);
+
+        QueryCountHolder.clear();
+        // Without tasks, a page takes no second statement
+        mockMvc.perform(get("/api/v1/orders").param("after", String.valueOf(order.getId() - 1))
+                        .param("limit", "2").param("fields", "id,status"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].metadata").doesNotExist())
+                .andExpect(jsonPath("$[0].tasks").doesNotExist());
+        assertStatements(1);
+
+        mockMvc.perform(get("/api/v1/orders/{id}", order.getId()).param("fields", "status").param("include", "tasks"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tasks.length()").value(3))
+                .andExpect(jsonPath("$.id").doesNotExist());
+        mockMvc.perform(get("/api/v1/orders/{id}", order.getId()).param("fields", "status,price"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getTaskTakesOneStatement() throws Exception {
+        Long taskId = taskRepository.findByOrderId(order.getId()).get(0).getId();
+        QueryCountHolder.clear();
+        mockMvc.perform(get("/api/v1/tasks/{id}", taskId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.orderId").value(order.getId()));
+        assertStatements(1);
+    }
+
+    @Test
+    void pollingIsServedFromTheViewCacheUntilATaskTransitions() throws Exception {
+        Long taskId = taskRepository.findByOrderId(order.getId()).get(0).getId();
+        QueryCountHolder.clear();
+        for (int i = 0; i < 50; i++) {
+            mockMvc.perform(get("/api/v1/orders/{id}", order.getId())).andExpect(status().isOk());
+            mockMvc.perform(get("/api/v1/orders/{id}/tasks", order.getId())).andExpect(status().isOk());
+            mockMvc.perform(get("/api/v1/tasks/{id}", taskId)).andExpect(status().isOk());
+        }
+        // One miss per view, 147 hits
+        assertStatements(3);
+
+        taskService.sendTaskEvent(taskId, TaskEvent.START_TASK, null);
+        QueryCountHolder.clear();
+        mockMvc.perform(get("/api/v1/orders/{id}", order.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tasks[?(@.id == %d)].status", taskId).value("IN_PROGRESS"));
+        mockMvc.perform(get("/api/v1/orders/{id}/tasks", order.getId())).andExpect(status().isOk());
+        mockMvc.perform(get("/api/v1/tasks/{id}", taskId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("IN_PROGRESS"));
+        assertStatements(3);
+    }
+
+    @Test
+    void conditionalGetIsAnsweredFromTheVersion() throws Exception {
+        Long taskId = taskRepository.findByOrderId(order.getId()).get(0).getId();
+        QueryCountHolder.clear();
+        // Not cached yet, so only the version column is read
+        mockMvc.perform(get("/api/v1/orders/{id}", order.getId()).header(HttpHeaders.IF_NONE_MATCH, "\"0\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"0\""));
+        mockMvc.perform(get("/api/v1/tasks/{id}", taskId).header(HttpHeaders.IF_NONE_MATCH, "\"0\""))
+                .andExpect(status().isNotModified());
+        assertStatements(2);
+
+        // A task transition changes the task and the order that embeds it
+        taskService.sendTaskEvent(taskId, TaskEvent.START_TASK, null);
+        QueryCountHolder.clear();
+        mockMvc.perform(get("/api/v1/orders/{id}", order.getId()).header(HttpHeaders.IF_NONE_MATCH, "\"0\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""))
+                .andExpect(jsonPath("$.version").value(1));
+        mockMvc.perform(get("/api/v1/tasks/{id}", taskId).header(HttpHeaders.IF_NONE_MATCH, "\"0\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""));
+        assertStatements(4);
+
+        // Both views are cached now, with their ETags
+        QueryCountHolder.clear();
+        mockMvc.perform(get("/api/v1/orders/{id}", order.getId()).header(HttpHeaders.IF_NONE_MATCH, "\"1\""))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/v1/tasks/{id}", taskId).header(HttpHeaders.IF_NONE_MATCH, "\"1\""))
+                .andExpect(status().isNotModified());
+        assertStatements(0);
+    }
+
+    @Test
+    void narrowedResponsesHaveTagsOfTheirOwn() throws Exception {
+        String narrowed = mockMvc.perform(get("/api/v1/orders/{id}?fields=status,id", order.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertTrue(narrowed.startsWith("\"0-"), narrowed);
+
+        // The full order's tag does not validate a narrowed response, nor a narrowed tag the full order
+        mockMvc.perform(get("/api/v1/orders/{id}?fields=id,status", order.getId())
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"0\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, narrowed));
+        mockMvc.perform(get("/api/v1/orders/{id}", order.getId()).header(HttpHeaders.IF_NONE_MATCH, narrowed))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"0\""));
+        // Nor does it validate another narrowing
+        mockMvc.perform(get("/api/v1/orders/{id}?fields=id,status&include=tasks", order.getId())
+                        .header(HttpHeaders.IF_NONE_MATCH, narrowed))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tasks").isArray());
+
+        // The same fields in another order and spelling are the same narrowing, checked against the version of
+        // the full view cached above
+        QueryCountHolder.clear();
+        mockMvc.perform(get("/api/v1/orders/{id}?fields= id ,status,status", order.getId())
+                        .header(HttpHeaders.IF_NONE_MATCH, narrowed))
+                .andExpect(status().isNotModified());
+        assertStatements(0);
+    }
+
+    @Test
+    void loadingAnOrderLeavesItsMetadataInTheRow() {
+        transactionTemplate.executeWithoutResult(tx -> {
+            Order loaded = orderRepository.findById(order.getId()).orElseThrow();
+            assertFalse(Hibernate.isPropertyInitialized(loaded, "metadata"));
+            assertStatements(1);
+
+            // Read on first access only
+            assertEquals("Jane Smith", loaded.getMetadata().at("/customerInfo/name").asText());
+            assertStatements(2);
+        });
+    }
+
+    @Test
+    void statusCountsAreServedFromMemoryAndFollowEveryWritePath() throws Exception {
+        statusCounters.reconcile();
+        List<Long> taskIds = taskRepository.findByOrderId(order.getId()).stream().map(Task::getId).toList();
+        taskService.sendTaskEvent(taskIds.get(0), TaskEvent.START_TASK, null);
+        taskService.sendTaskEvents(List.of(new TaskEventBatchItem(taskIds.get(1), TaskEvent.START_TASK, null)));
+        orderService.sendOrderEvent(order.getId(), OrderEvent.PROCESS_ORDER, null);
+        orderService.sendOrderEvents(List.of(new OrderEventBatchItem(order.getId(), OrderEvent.CANCEL_ORDER, null)));
+        orderService.createOrder(new CreateOrderRequest());
+
+        QueryCountHolder.clear();
+        mockMvc.perform(get("/api/v1/stats/status-counts"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.orders.CANCELLED").isNumber())
+                .andExpect(jsonPath("$.tasks.PROCESS_PAYMENT.IN_PROGRESS").isNumber());
+        assertStatements(0);
+        // Nothing for reconciling to correct
+        assertEquals(0, statusCounters.reconcile());
+    }
+
+    @Test
+    void acceptedEventsAreJournaledOffTheRequestThread() throws InterruptedException {
+        Long taskId = taskRepository.findByOrderId(order.getId()).get(0).getId();
+        taskService.sendTaskEvent(taskId, TaskEvent.START_TASK, "picked up");
+        orderService.sendOrderEvent(order.getId(), OrderEvent.PROCESS_ORDER, null);
+        orderService.sendOrderEvents(List.of(
+                new OrderEventBatchItem(order.getId(), OrderEvent.CANCEL_ORDER, "customer request"),
+                new OrderEventBatchItem(order.getId(), OrderEvent.CANCEL_ORDER, "rejected, not journaled")));
+        // The journal is written by its own thread, never by the event request
+        assertEquals(0, QueryCountHolder.getGrandTotal().getInsert(), "journal rows inserted by the request thread");
+
+        awaitOrderTransitions(order.getId(), 2);
+        assertEquals(List.of(
+                        Map.of("FROM_STATUS", "CREATED", "TO_STATUS", "PAYMENT_PENDING", "EVENT", "PROCESS_ORDER"),
+                        Map.of("FROM_STATUS", "PAYMENT_PENDING", "TO_STATUS", "CANCELLED", "EVENT", "CANCEL_ORDER")),
+                jdbcTemplate.queryForList("select from_status, to_status, event from order_transitions " +
+                        "where order_id = ? order by id", order.getId()));
+        assertEquals("customer request", jdbcTemplate.queryForObject(
+                "select max(reason) from order_transitions where order_id = ?", String.class, order.getId()));
+        assertEquals(Map.of("ORDER_ID", order.getId(), "TO_STATUS", "IN_PROGRESS", "REASON", "picked up"),
+                jdbcTemplate.queryForMap("select order_id, to_status, reason from task_transitions where task_id = ?",
+                        taskId));
+    }
+
+    @Test
+    void createOrderWritesOneBatchPerTable() throws Exception {
+        // The ids come from blocks the order created in setUp already reserved, so no sequence call either
+        mockMvc.perform(post("/api/v1/orders").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"metadata\":{\"customerInfo\":{\"name\":\"John Doe\"}}}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.tasks.length()").value(3));
+        assertStatements(2);
+    }
+
+    private static void assertStatements(long expected) {
+        assertEquals(expected, QueryCountHolder.getGrandTotal().getTotal(), "SQL statements issued");
+    }
+
+    // The journal has a single writer, so entries queued before the last of these are written by then too
+    private void awaitOrderTransitions(Long orderId, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (jdbcTemplate.queryForObject("select count(*) from order_transitions where order_id = ?",
+                Integer.class, orderId) < count) {
+            assertTrue(System.currentTimeMillis() < deadline, "journal rows written within 10s");
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.orderprocessing.controller;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.service.OrderService;
+import com.example.orderprocessing.support.KeyedMailboxExecutor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Sends an order event while the order's mailbox lane is full: the event is answered 503 without being
+ * applied, and accepted once the lane has drained.
+ */
+// A database of its own, and a single lane with room for one waiting item
+@SpringBootTest(properties = {"workflow.mailbox.lanes=1",
+        "workflow.mailbox.queue-capacity=1",
+        "spring.datasource.url=jdbc:h2:mem:mailbox;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@AutoConfigureMockMvc
+@DirtiesContext
+class OrderMailboxTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private KeyedMailboxExecutor orderEventMailbox;
+
+    @Test
+    void eventsForAFullLaneAreRefusedWithServiceUnavailable() throws Exception {
+        Long orderId = orderService.createOrder(new CreateOrderRequest()).getId();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> busy = orderEventMailbox.submit(orderId, () -> {
+            started.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> queued = orderEventMailbox.submit(orderId, () -> true);
+
+        sendEvent(orderId)
+                .andExpect(status().isServiceUnavailable());
+
+        release.countDown();
+        assertTrue(busy.get(10, TimeUnit.SECONDS));
+        assertTrue(queued.get(10, TimeUnit.SECONDS));
+        sendEvent(orderId)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("PAYMENT_PENDING"));
+    }
+
+    private ResultActions sendEvent(Long orderId) throws Exception {
+        return mockMvc.perform(post("/api/v1/orders/{id}/event", orderId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"event\":\"PROCESS_ORDER\"}"));
+    }
+}
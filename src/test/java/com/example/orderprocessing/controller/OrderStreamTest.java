@@ -0,0 +1,105 @@
+package com.example.orderprocessing.controller;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.service.OrderService;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.reset;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Streams orders under the stream pool's limits: the configured timeout instead of the container's, and a
+ * 503 for a stream that finds every stream thread busy.
+ */
+// A database of its own, and a pool of one stream
+@SpringBootTest(properties = {"workflow.listing.stream-concurrency=1",
+        "workflow.listing.stream-timeout=10m",
+        "spring.datasource.url=jdbc:h2:mem:streams;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@AutoConfigureMockMvc
+@DirtiesContext
+class OrderStreamTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @SpyBean
+    private OrderService orderService;
+
+    @Test
+    void streamsRunWithTheConfiguredTimeoutAndAreRefusedWhenThePoolIsBusy() throws Exception {
+        Long orderId = orderService.createOrder(new CreateOrderRequest()).getId();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).when(orderService).streamOrders(any(), any(), any(), any());
+
+        MvcResult first = mockMvc.perform(get("/api/v1/orders/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertEquals(Duration.ofMinutes(10).toMillis(), first.getRequest().getAsyncContext().getTimeout());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // The only stream thread is busy
+        MvcResult second = mockMvc.perform(get("/api/v1/orders/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertTrue(WebAsyncUtils.getAsyncManager(second.getRequest()).getConcurrentResult()
+                instanceof TaskRejectedException);
+        mockMvc.perform(redispatch(second))
+                .andExpect(status().isServiceUnavailable());
+
+        release.countDown();
+        first.getAsyncResult(10_000);
+        mockMvc.perform(asyncDispatch(first))
+                .andExpect(status().isOk());
+        assertTrue(first.getResponse().getContentAsString().contains("\"id\":" + orderId));
+
+        // The thread is free again
+        reset(orderService);
+        doCallRealMethod().when(orderService).streamOrders(any(), any(), any(), any());
+        MvcResult third = mockMvc.perform(get("/api/v1/orders/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        third.getAsyncResult(10_000);
+        mockMvc.perform(asyncDispatch(third))
+                .andExpect(status().isOk());
+    }
+
+    // What asyncDispatch does, without waiting for MockMvc to see a result: a task the executor rejects
+    // fails on the request thread, before MockMvc starts watching for the result
+    private static RequestBuilder redispatch(MvcResult result) {
+        return servletContext -> {
+            MockHttpServletRequest request = result.getRequest();
+            request.setDispatcherType(DispatcherType.ASYNC);
+            request.setAsyncStarted(false);
+            return request;
+        };
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.orderprocessing.controller;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.enums.OrderEvent;
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.repository.OrderRepository;
+import com.example.orderprocessing.service.OrderService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Loses the compare-and-set status update of an order event to a concurrent writer, which commits a new
+ * status between the event's read and its write: the event is re-evaluated against the status it finds,
+ * at most {@code workflow.transition.max-attempts} times, and answered 409 when every attempt loses.
+ */
+// A database of its own, as the concurrent writer changes statuses behind the services' back
+@SpringBootTest(properties = {"workflow.transition.max-attempts=3",
+        "spring.datasource.url=jdbc:h2:mem:conflicts;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@AutoConfigureMockMvc
+@DirtiesContext
+class TransitionConflictTest {
+
+    // Another connection, so its update commits while the event's transaction is open
+    private final ExecutorService concurrentWriter = Executors.newSingleThreadExecutor();
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @SpyBean
+    private OrderRepository orderRepository;
+
+    @AfterEach
+    void stopWriter() {
+        concurrentWriter.shutdownNow();
+    }
+
+    @Test
+    void aLostUpdateIsRetriedAgainstTheNewStatus() throws Exception {
+        Long orderId = orderService.createOrder(new CreateOrderRequest()).getId();
+        List<OrderStatus> seen = changeStatusBeforeWrites(orderId, OrderStatus.PAYMENT_PENDING);
+
+        // Read CREATED, lost to the writer, then cancelled from PAYMENT_PENDING on the second attempt
+        sendEvent(orderId, OrderEvent.CANCEL_ORDER)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("CANCELLED"));
+        assertEquals(List.of(OrderStatus.CREATED, OrderStatus.PAYMENT_PENDING), seen);
+        assertEquals(OrderStatus.CANCELLED, orderRepository.findStatusById(orderId).orElseThrow());
+    }
+
+    @Test
+    void anEventThatLosesEveryAttemptIsAConflict() throws Exception {
+        Long orderId = orderService.createOrder(new CreateOrderRequest()).getId();
+        jdbcTemplate.update("update orders set status = 'PAYMENT_PENDING' where id = ?", orderId);
+        List<OrderStatus> seen = changeStatusBeforeWrites(orderId, OrderStatus.PAYMENT_FAILED,
+                OrderStatus.PAYMENT_PENDING, OrderStatus.PAYMENT_FAILED);
+
+        sendEvent(orderId, OrderEvent.CANCEL_ORDER)
+                .andExpect(status().isConflict());
+        assertEquals(List.of(OrderStatus.PAYMENT_PENDING, OrderStatus.PAYMENT_FAILED, OrderStatus.PAYMENT_PENDING),
+                seen);
+        verify(orderRepository, times(3)).compareAndSetStatus(eq(orderId), any(), any(), any());
+        // The event left no trace; the last concurrent change stands
+        assertEquals(OrderStatus.PAYMENT_FAILED, orderRepository.findStatusById(orderId).orElseThrow());
+    }
+
+    // Before each of the next compare-and-set updates of the order, another transaction commits the next of
+    // these statuses. Returns the status each update expected.
+    private List<OrderStatus> changeStatusBeforeWrites(Long orderId, OrderStatus... statuses) {
+        List<OrderStatus> expected = new ArrayList<>();
+        Iterator<OrderStatus> next = List.of(statuses).iterator();
+        // The spy of a repository proxy delegates to it by default, as there is no real method to call
+        Answer<?> delegate = mockingDetails(orderRepository).getMockCreationSettings().getDefaultAnswer();
+        doAnswer(invocation -> {
+            expected.add(invocation.getArgument(1));
+            if (next.hasNext()) {
+                String status = next.next().name();
+                concurrentWriter.submit(() -> jdbcTemplate.update(
+                        "update orders set status = ?, version = version + 1 where id = ?", status, orderId)).get();
+            }
+            return delegate.answer(invocation);
+        }).when(orderRepository).compareAndSetStatus(eq(orderId), any(), any(), any());
+        return expected;
+    }
+
+    private ResultActions sendEvent(Long orderId, OrderEvent event) throws Exception {
+        return mockMvc.perform(post("/api/v1/orders/{id}/event", orderId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"event\":\"" + event + "\"}"));
+    }
+}
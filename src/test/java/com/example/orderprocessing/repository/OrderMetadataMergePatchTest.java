@@ -0,0 +1,146 @@
+package com.example.orderprocessing.repository;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.service.OrderService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Applies JSON Merge Patches to stored metadata on PostgreSQL, as the compiled jsonb expressions only run
+ * there: the examples of RFC 7396 Appendix A, nested nulls, non-object targets and patches with more keys
+ * than one jsonb_build_object takes. Skipped where Docker is not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringBootTest(properties = {"spring.datasource.driver-class-name=org.postgresql.Driver",
+        "spring.jpa.database-platform=org.hibernate.dialect.PostgreSQLDialect",
+        "spring.sql.init.mode=always",
+        "spring.sql.init.platform=postgresql",
+        "spring.jpa.defer-datasource-initialization=true"})
+class OrderMetadataMergePatchTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(DockerImageName.parse("postgres:latest"));
+
+    @Autowired
+    private OrderMetadataRepository orderMetadataRepository;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void appendixAExamples() throws Exception {
+        String[][] examples = {
+                // target, patch, result
+                {"{\"a\":\"b\"}", "{\"a\":\"c\"}", "{\"a\":\"c\"}"},
+                {"{\"a\":\"b\"}", "{\"b\":\"c\"}", "{\"a\":\"b\",\"b\":\"c\"}"},
+                {"{\"a\":\"b\"}", "{\"a\":null}", "{}"},
+                {"{\"a\":\"b\",\"b\":\"c\"}", "{\"a\":null}", "{\"b\":\"c\"}"},
+                {"{\"a\":[\"b\"]}", "{\"a\":\"c\"}", "{\"a\":\"c\"}"},
+                {"{\"a\":\"c\"}", "{\"a\":[\"b\"]}", "{\"a\":[\"b\"]}"},
+                {"{\"a\":{\"b\":\"c\"}}", "{\"a\":{\"b\":\"d\",\"c\":null}}", "{\"a\":{\"b\":\"d\"}}"},
+                {"{\"a\":[{\"b\":\"c\"}]}", "{\"a\":[1]}", "{\"a\":[1]}"},
+                {"[\"a\",\"b\"]", "[\"c\",\"d\"]", "[\"c\",\"d\"]"},
+                {"{\"a\":\"b\"}", "[\"c\"]", "[\"c\"]"},
+                {"{\"a\":\"foo\"}", "null", "null"},
+                {"{\"a\":\"foo\"}", "\"bar\"", "\"bar\""},
+                {"{\"e\":null}", "{\"a\":1}", "{\"e\":null,\"a\":1}"},
+                {"[1,2]", "{\"a\":\"b\",\"c\":null}", "{\"a\":\"b\"}"},
+                {"{}", "{\"a\":{\"bb\":{\"ccc\":null}}}", "{\"a\":{\"bb\":{}}}"},
+        };
+        for (String[] example : examples) {
+            assertEquals(json(example[2]), merge(example[0], example[1]), example[0] + " patched with " + example[1]);
+        }
+    }
+
+    @Test
+    void nullsRemoveKeysAtAnyDepth() throws Exception {
+        assertEquals(json("{\"a\":{\"b\":{\"d\":2},\"e\":3},\"f\":4}"),
+                merge("{\"a\":{\"b\":{\"c\":1,\"d\":2},\"e\":3},\"f\":4}", "{\"a\":{\"b\":{\"c\":null}}}"));
+        // Removing a key that is not there, below an object that is not there either
+        assertEquals(json("{\"a\":{\"x\":{}},\"f\":4}"), merge("{\"f\":4}", "{\"a\":{\"x\":{\"y\":null}}}"));
+        // A null in an array is a value, not a removal
+        assertEquals(json("{\"a\":[null]}"), merge("{\"a\":1}", "{\"a\":[null]}"));
+    }
+
+    @Test
+    void objectPatchesReplaceTargetsThatAreNoObjects() throws Exception {
+        assertEquals(json("{\"a\":1}"), merge(null, "{\"a\":1}"));
+        assertEquals(json("{\"a\":1}"), merge("null", "{\"a\":1}"));
+        assertEquals(json("{\"a\":1}"), merge("\"text\"", "{\"a\":1}"));
+        assertEquals(json("{\"a\":{\"b\":1},\"c\":2}"), merge("{\"a\":\"x\",\"c\":2}", "{\"a\":{\"b\":1}}"));
+        assertEquals(json("{\"a\":{\"b\":1}}"), merge("{\"a\":[1,2]}", "{\"a\":{\"b\":1,\"c\":null}}"));
+    }
+
+    @Test
+    void patchesWithMoreKeysThanOneBuildTakes() throws Exception {
+        ObjectNode target = objectMapper.createObjectNode();
+        ObjectNode patch = objectMapper.createObjectNode();
+        ObjectNode nested = patch.putObject("nested");
+        ObjectNode expected = objectMapper.createObjectNode();
+        ObjectNode expectedNested = expected.putObject("nested");
+        for (int i = 0; i < 130; i++) {
+            target.put("k" + i, -1);
+            if (i % 7 == 0) {
+                patch.putNull("k" + i);
+            } else {
+                patch.put("k" + i, i);
+                expected.put("k" + i, i);
+            }
+            nested.put("n" + i, "v" + i);
+            expectedNested.put("n" + i, "v" + i);
+        }
+        for (int i = 130; i < 140; i++) {
+            target.put("k" + i, -1);
+            expected.put("k" + i, -1);
+        }
+        assertTrue(patch.size() > 100);
+        assertEquals(expected, merge(target.toString(), patch.toString()));
+    }
+
+    @Test
+    void ordersThatDoNotExistAreNotPatched() throws Exception {
+        assertTrue(orderMetadataRepository.mergePatch(Long.MAX_VALUE, json("{\"a\":1}"), LocalDateTime.now())
+                .isEmpty());
+    }
+
+    // Stores the target as the metadata of a new order, patches it and reads the document back
+    private JsonNode merge(String target, String patch) throws Exception {
+        Long orderId = orderService.createOrder(new CreateOrderRequest()).getId();
+        jdbcTemplate.update("update orders set metadata = cast(? as jsonb) where id = ?", target, orderId);
+        long before = jdbcTemplate.queryForObject("select version from orders where id = ?", Long.class, orderId);
+
+        Optional<Long> version = orderMetadataRepository.mergePatch(orderId, json(patch), LocalDateTime.now());
+        assertEquals(Optional.of(before + 1), version);
+        String merged = jdbcTemplate.queryForObject("select cast(metadata as text) from orders where id = ?",
+                String.class, orderId);
+        return merged == null ? NullNode.getInstance() : json(merged);
+    }
+
+    private JsonNode json(String json) throws Exception {
+        return objectMapper.readTree(json);
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.orderprocessing.repository;
+
+import com.example.orderprocessing.dto.OrderDto;
+import com.example.orderprocessing.repository.OrderQueryRepository.MetadataSearch;
+import com.example.orderprocessing.repository.OrderQueryRepository.OrderFields;
+import com.example.orderprocessing.repository.OrderQueryRepository.OrderPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Searches seeded orders by metadata on PostgreSQL and explains the statements the search issued: scalar
+ * paths must be answered from the generated column's index and array members from the GIN index that
+ * {@code schema-postgresql.sql} creates, not by scanning the table. Skipped where Docker is not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringBootTest(properties = {"spring.datasource.driver-class-name=org.postgresql.Driver",
+        "spring.jpa.database-platform=org.hibernate.dialect.PostgreSQLDialect",
+        "spring.sql.init.mode=always",
+        "spring.sql.init.platform=postgresql",
+        "spring.jpa.defer-datasource-initialization=true"})
+class OrderSearchIndexTest {
+
+    private static final int ORDERS = 50_000;
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(DockerImageName.parse("postgres:latest"));
+
+    @Autowired
+    private OrderQueryRepository orderQueryRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @SpyBean
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    // 5,000 customers with 10 orders each, 10,000 products in 5 orders each
+    @BeforeEach
+    void seed() {
+        if (jdbcTemplate.queryForObject("select count(*) from orders", Long.class) > 0) {
+            return;
+        }
+        jdbcTemplate.update("""
+                insert into orders (id, status, created_date, updated_date, metadata)
+                select nextval('orders_seq'), 'CREATED', now(), now(), jsonb_build_object(
+                        'customerInfo', jsonb_build_object('customerId', 'c-' || (g % 5000)),
+                        'paymentDetails', jsonb_build_object('transactionId', 't-' || g),
+                        'items', jsonb_build_array(jsonb_build_object('productId', 'p-' || (g % 10000), 'quantity', 1)))
+                from generate_series(1, ?) g
+                """, ORDERS);
+        jdbcTemplate.execute("analyze orders");
+    }
+
+    @Test
+    void customerSearchUsesTheCustomerIndex() {
+        OrderPage page = search(new MetadataSearch("c-42", null, null));
+
+        assertEquals(10, page.orders().size());
+        assertNull(page.nextAfter());
+        page.orders().forEach(order ->
+                assertEquals("c-42", order.getMetadata().path("customerInfo").path("customerId").asText()));
+        assertAscending(page.orders());
+        assertPlanUses("idx_orders_customer_id_id");
+    }
+
+    @Test
+    void productSearchUsesTheContainmentIndex() {
+        OrderPage page = search(new MetadataSearch(null, null, "p-4242"));
+
+        assertEquals(5, page.orders().size());
+        page.orders().forEach(order ->
+                assertEquals("p-4242", order.getMetadata().path("items").path(0).path("productId").asText()));
+        assertAscending(page.orders());
+        assertPlanUses("idx_orders_metadata_path_ops");
+    }
+
+    private OrderPage search(MetadataSearch search) {
+        clearInvocations(namedParameterJdbcTemplate);
+        return orderQueryRepository.search(search, 0, 20, OrderFields.parse("id,metadata", null));
+    }
+
+    // Explains the search statement just issued, with the parameters it was issued with
+    @SuppressWarnings("unchecked")
+    private void assertPlanUses(String index) {
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<SqlParameterSource> params = ArgumentCaptor.forClass(SqlParameterSource.class);
+        verify(namedParameterJdbcTemplate, atLeastOnce())
+                .query(sql.capture(), params.capture(), any(RowMapper.class));
+        // Background jobs share the template; the search is the last page query
+        int last = sql.getAllValues().size() - 1;
+        while (!sql.getAllValues().get(last).contains("where o.id > :after")) {
+            last--;
+        }
+        String plan = String.join("\n", namedParameterJdbcTemplate.queryForList(
+                "explain " + sql.getAllValues().get(last), params.getAllValues().get(last), String.class));
+        assertTrue(plan.contains(index), plan);
+    }
+
+    private static void assertAscending(List<OrderDto> orders) {
+        for (int i = 1; i < orders.size(); i++) {
+            assertTrue(orders.get(i - 1).getId() < orders.get(i).getId());
+        }
+    }
+}
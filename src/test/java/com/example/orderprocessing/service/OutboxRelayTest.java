@@ -0,0 +1,147 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.enums.OutboxEventType;
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.model.OutboxEvent;
+import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.repository.OutboxEventRepository;
+import com.example.orderprocessing.repository.TaskRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Drives the outbox relay by hand through the at-least-once path: a completion is written with the task
+ * change, a failed delivery is recorded and tried again after the retry delay, sibling completions are
+ * coalesced into one check, and a completion for an order that no longer exists is dropped.
+ */
+// A database of its own, and a poll interval long enough that only the test runs the relay
+@SpringBootTest(properties = {"workflow.outbox.poll-interval=1h",
+        "workflow.outbox.completion-window=100ms",
+        "workflow.outbox.retry-delay=300ms",
+        "spring.datasource.url=jdbc:h2:mem:outbox;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@DirtiesContext
+class OutboxRelayTest {
+
+    @Autowired
+    private OutboxRelay outboxRelay;
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private TaskService taskService;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @SpyBean
+    private OrderService orderService;
+
+    @BeforeEach
+    void emptyOutbox() {
+        outboxEventRepository.deleteAll();
+    }
+
+    @Test
+    void completionIsWrittenWithTheTaskChange() {
+        Task task = tasksOfNewOrder().get(0);
+        taskService.sendTaskEvent(task.getId(), TaskEvent.START_TASK, null);
+        assertEquals(0, outboxEventRepository.count());
+
+        taskService.sendTaskEvent(task.getId(), TaskEvent.COMPLETE_TASK, null);
+        List<OutboxEvent> events = outboxEventRepository.findAll();
+        assertEquals(1, events.size());
+        OutboxEvent event = events.get(0);
+        assertEquals(OutboxEventType.TASK_COMPLETED, event.getEventType());
+        assertEquals(task.getId(), event.getTaskId());
+        assertEquals(task.getOrder().getId(), event.getOrderId());
+        assertEquals(0, event.getAttempts());
+        // Held back for the completion window
+        assertTrue(event.getAvailableAt().isAfter(event.getCreatedDate()));
+
+        // A rejected event announces nothing
+        taskService.sendTaskEvent(task.getId(), TaskEvent.COMPLETE_TASK, null);
+        assertEquals(1, outboxEventRepository.count());
+    }
+
+    @Test
+    void failedDeliveryIsRecordedAndRetriedAfterTheDelay() throws Exception {
+        Task task = tasksOfNewOrder().get(0);
+        Long orderId = task.getOrder().getId();
+        doThrow(new IllegalStateException("order service down")).doCallRealMethod()
+                .when(orderService).onTasksCompleted(eq(orderId), any());
+        taskService.sendTaskEvent(task.getId(), TaskEvent.START_TASK, null);
+        taskService.sendTaskEvent(task.getId(), TaskEvent.COMPLETE_TASK, null);
+
+        Thread.sleep(150); // Past the completion window
+        assertEquals(1, outboxRelay.relayBatch(10));
+        OutboxEvent failed = outboxEventRepository.findAll().get(0);
+        assertEquals(1, failed.getAttempts());
+        assertEquals("order service down", failed.getLastError());
+        assertTrue(failed.getAvailableAt().isAfter(LocalDateTime.now().plus(Duration.ofMillis(100))));
+
+        // Not due again before the retry delay
+        assertEquals(0, outboxRelay.relayBatch(10));
+        Thread.sleep(350);
+        assertEquals(1, outboxRelay.relayBatch(10));
+        assertEquals(0, outboxEventRepository.count());
+        verify(orderService, times(2)).onTasksCompleted(orderId, List.of(task.getId()));
+    }
+
+    @Test
+    void siblingCompletionsWithinTheWindowAreAnsweredByOneCheck() throws Exception {
+        List<Task> tasks = tasksOfNewOrder();
+        Long orderId = tasks.get(0).getOrder().getId();
+        double mergedBefore = meterRegistry.get("outbox.relay.completion.merged").counter().count();
+        taskService.sendTaskEvent(tasks.get(0).getId(), TaskEvent.START_TASK, null);
+        taskService.sendTaskEvent(tasks.get(0).getId(), TaskEvent.COMPLETE_TASK, null);
+        Thread.sleep(60);
+        taskService.sendTaskEvent(tasks.get(1).getId(), TaskEvent.START_TASK, null);
+        taskService.sendTaskEvent(tasks.get(1).getId(), TaskEvent.COMPLETE_TASK, null);
+
+        // The first completion is due; the second is swept up with it whether or not it is due yet
+        Thread.sleep(60);
+        outboxRelay.relayBatch(10);
+        assertEquals(0, outboxEventRepository.count());
+        verify(orderService).onTasksCompleted(orderId, List.of(tasks.get(0).getId(), tasks.get(1).getId()));
+        verify(orderService, times(1)).onTasksCompleted(eq(orderId), any());
+        assertEquals(1, meterRegistry.get("outbox.relay.completion.merged").counter().count() - mergedBefore);
+    }
+
+    @Test
+    void completionForAMissingOrderIsDropped() {
+        outboxEventRepository.save(OutboxEvent.taskCompleted(Long.MAX_VALUE, 1L, PriorityLanes.DEFAULT_LANE,
+                Duration.ZERO));
+
+        assertEquals(1, outboxRelay.relayBatch(10));
+        assertEquals(0, outboxEventRepository.count());
+    }
+
+    private List<Task> tasksOfNewOrder() {
+        doCallRealMethod().when(orderService).onTasksCompleted(any(), any());
+        Long orderId = orderService.createOrder(new CreateOrderRequest()).getId();
+        return taskRepository.findByOrderId(orderId);
+    }
+}
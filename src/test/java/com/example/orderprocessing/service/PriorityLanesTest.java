@@ -0,0 +1,103 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.dto.UpdateOrderRequest;
+import com.example.orderprocessing.enums.TaskType;
+import com.example.orderprocessing.repository.OrderRepository;
+import com.example.orderprocessing.repository.TaskRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Puts orders in lanes by their metadata and checks that claims are split between the lanes by weight,
+ * with the slots of a lane that runs dry going to the others.
+ */
+// A database of its own, so the claims only see the orders created here
+@SpringBootTest(properties = {"workflow.priority.lanes[0].name=express",
+        "workflow.priority.lanes[0].condition=shippingMethod == \"EXPRESS\" or delivery?.sameDay == true",
+        "workflow.priority.lanes[0].weight=3",
+        "spring.datasource.url=jdbc:h2:mem:lanes;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@DirtiesContext
+class PriorityLanesTest {
+
+    @Autowired
+    private PriorityLanes priorityLanes;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private TaskService taskService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void ordersJoinTheFirstLaneWhoseConditionHolds() throws Exception {
+        assertEquals("express", priorityLanes.laneOf(json("{\"shippingMethod\":\"EXPRESS\"}")));
+        assertEquals("express", priorityLanes.laneOf(json("{\"delivery\":{\"sameDay\":true}}")));
+        assertEquals("standard", priorityLanes.laneOf(json("{\"shippingMethod\":\"GROUND\"}")));
+        assertEquals("standard", priorityLanes.laneOf(json("{\"delivery\":\"tomorrow\"}")));
+        assertEquals("standard", priorityLanes.laneOf(null));
+
+        Long orderId = createOrder("{\"shippingMethod\":\"EXPRESS\"}");
+        assertEquals("express", orderRepository.findById(orderId).orElseThrow().getLane());
+        taskRepository.findByOrderId(orderId).forEach(task -> assertEquals("express", task.getLane()));
+
+        UpdateOrderRequest update = new UpdateOrderRequest();
+        update.setMetadata(json("{\"shippingMethod\":\"GROUND\"}"));
+        orderService.updateOrder(orderId, update);
+        assertEquals("standard", orderRepository.findById(orderId).orElseThrow().getLane());
+        taskRepository.findByOrderId(orderId).forEach(task -> assertEquals("standard", task.getLane()));
+    }
+
+    @Test
+    void claimsAreSplitByWeightAndUnusedSlotsGoToTheOtherLanes() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            createOrder("{\"shippingMethod\":\"GROUND\"}");
+        }
+        Long express1 = createOrder("{\"shippingMethod\":\"EXPRESS\"}");
+        Long express2 = createOrder("{\"shippingMethod\":\"EXPRESS\"}");
+        List<TaskType> validation = List.of(TaskType.VALIDATE_ORDER_DETAILS);
+
+        // Express is due 3 of the 4 slots but has only 2 tasks; standard takes its 1 and the one left over
+        List<TaskRepository.ReadyTask> claimed =
+                taskService.claimTasks(validation, priorityLanes.newWeightedLanes(), 4);
+        assertEquals(List.of("express", "express", "standard", "standard"),
+                claimed.stream().map(TaskRepository.ReadyTask::getLane).toList());
+        assertEquals(List.of(express1, express2),
+                claimed.subList(0, 2).stream().map(TaskRepository.ReadyTask::getOrderId).toList());
+        // What the lane latency is measured from
+        claimed.forEach(task -> assertNotNull(task.getCreatedDate()));
+
+        // With express empty, standard fills every slot
+        claimed = taskService.claimTasks(validation, priorityLanes.newWeightedLanes(), 4);
+        assertEquals(List.of("standard", "standard", "standard", "standard"),
+                claimed.stream().map(TaskRepository.ReadyTask::getLane).toList());
+    }
+
+    private Long createOrder(String metadata) throws Exception {
+        CreateOrderRequest request = new CreateOrderRequest();
+        request.setMetadata(json(metadata));
+        return orderService.createOrder(request).getId();
+    }
+
+    private JsonNode json(String text) throws Exception {
+        return objectMapper.readTree(text);
+    }
+}
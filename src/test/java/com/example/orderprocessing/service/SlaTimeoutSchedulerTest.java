@@ -0,0 +1,80 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.dto.UpdateOrderRequest;
+import com.example.orderprocessing.enums.OrderEvent;
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.repository.OrderRepository;
+import com.example.orderprocessing.repository.TaskRepository;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Leaves a task and an order in timed statuses and checks that the timeout event reaches them, and only them,
+ * even while the order's metadata keeps being edited.
+ */
+// A database of its own, as the scheduler would time out entities left behind by other test classes
+@SpringBootTest(properties = {"workflow.timeouts.tick=20ms",
+        "workflow.timeouts.tasks[IN_PROGRESS].after=300ms",
+        "workflow.timeouts.orders[PAYMENT_PENDING].after=300ms",
+        "workflow.retry.default-policy.max-attempts=1",
+        "spring.datasource.url=jdbc:h2:mem:timeouts;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@DirtiesContext // Stops the scheduler once the test is done
+class SlaTimeoutSchedulerTest {
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private TaskService taskService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Test
+    void entitiesThatOverrunTheirStatusAreSentTheTimeoutEvent() throws Exception {
+        Long orderId = orderService.createOrder(new CreateOrderRequest()).getId();
+        List<Task> tasks = taskRepository.findByOrderId(orderId);
+        Long stuck = tasks.get(0).getId();
+        Long finished = tasks.get(1).getId();
+        Long untouched = tasks.get(2).getId();
+        taskService.sendTaskEvent(stuck, TaskEvent.START_TASK, null);
+        taskService.sendTaskEvent(finished, TaskEvent.START_TASK, null);
+        // Leaving the timed status in time cancels the deadline
+        taskService.sendTaskEvent(finished, TaskEvent.COMPLETE_TASK, null);
+        orderService.sendOrderEvent(orderId, OrderEvent.PROCESS_ORDER, null);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        int edits = 0;
+        while (taskRepository.findById(stuck).orElseThrow().getStatus() != TaskStatus.FAILED
+                || orderRepository.findById(orderId).orElseThrow().getStatus() != OrderStatus.CANCELLED) {
+            assertTrue(System.currentTimeMillis() < deadline, "timeouts fire within 10s");
+            // Editing the metadata is no progress and must not push the deadline back
+            UpdateOrderRequest edit = new UpdateOrderRequest();
+            edit.setMetadata(JsonNodeFactory.instance.objectNode().put("edit", ++edits));
+            try {
+                orderService.updateOrder(orderId, edit);
+            } catch (OptimisticLockingFailureException e) {
+                // Lost to the timeout itself
+            }
+            Thread.sleep(50);
+        }
+        assertEquals(TaskStatus.COMPLETED, taskRepository.findById(finished).orElseThrow().getStatus());
+        assertEquals(TaskStatus.PENDING, taskRepository.findById(untouched).orElseThrow().getStatus());
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.enums.OrderEvent;
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.repository.OrderRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.reset;
+
+/**
+ * Reconciles the status counters while a transition commits between the first sample of the counts and the
+ * count query: the moved counts are left alone instead of counting the transition twice.
+ */
+// A database of its own, and no scheduled reconciliation during the test
+@SpringBootTest(properties = {"workflow.stats.reconcile-interval=1h",
+        "spring.datasource.url=jdbc:h2:mem:counters;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@DirtiesContext
+class StatusCountersTest {
+
+    @Autowired
+    private StatusCounters statusCounters;
+
+    @Autowired
+    private OrderService orderService;
+
+    @SpyBean
+    private OrderRepository orderRepository;
+
+    @Test
+    void countsThatMoveWhileReconcilingAreLeftForTheNextRun() {
+        Long orderId = orderService.createOrder(new CreateOrderRequest()).getId();
+        orderService.createOrder(new CreateOrderRequest());
+        assertEquals(0, statusCounters.reconcile());
+
+        // The spy of a repository proxy delegates to it by default, as there is no real method to call
+        Answer<?> delegate = mockingDetails(orderRepository).getMockCreationSettings().getDefaultAnswer();
+        doAnswer(invocation -> {
+            orderService.sendOrderEvent(orderId, OrderEvent.PROCESS_ORDER, null);
+            return delegate.answer(invocation);
+        }).when(orderRepository).countByStatus();
+        statusCounters.reconcile();
+        reset(orderRepository);
+
+        assertEquals(databaseCounts(), statusCounters.snapshot().getOrders());
+        assertEquals(0, statusCounters.reconcile());
+        assertTrue(statusCounters.snapshot().getOrders().get(OrderStatus.PAYMENT_PENDING) > 0);
+    }
+
+    private Map<OrderStatus, Long> databaseCounts() {
+        Map<OrderStatus, Long> counts = new EnumMap<>(OrderStatus.class);
+        for (OrderStatus status : OrderStatus.values()) {
+            counts.put(status, 0L);
+        }
+        orderRepository.countByStatus().forEach(count -> counts.put(count.getStatus(), count.getCount()));
+        return counts;
+    }
+}
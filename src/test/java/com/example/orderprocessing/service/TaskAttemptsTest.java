@@ -0,0 +1,93 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.dto.TaskEventBatchItem;
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.model.TaskRetry;
+import com.example.orderprocessing.repository.TaskRepository;
+import com.example.orderprocessing.repository.TaskRetryRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Counts every failure of a task in a batch as an attempt, including failures hidden by the task's net
+ * change, and schedules its retry as of the last one.
+ */
+// A database of its own, and retries far enough out that none fires during the test
+@SpringBootTest(properties = {"workflow.retry.default-policy.max-attempts=4",
+        "workflow.retry.default-policy.base-delay=1h",
+        "workflow.retry.default-policy.max-delay=10h",
+        "workflow.retry.default-policy.jitter=0",
+        "spring.datasource.url=jdbc:h2:mem:attempts;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@DirtiesContext
+class TaskAttemptsTest {
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private TaskService taskService;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private TaskRetryRepository taskRetryRepository;
+
+    @Test
+    void everyFailureInABatchIsAnAttempt() {
+        Long taskId = firstTaskOfNewOrder();
+        // Net PENDING -> FAILED, through two failures
+        taskService.sendTaskEvents(List.of(
+                item(taskId, TaskEvent.START_TASK),
+                item(taskId, TaskEvent.FAIL_TASK),
+                item(taskId, TaskEvent.RETRY_TASK),
+                item(taskId, TaskEvent.FAIL_TASK)));
+        assertEquals(TaskStatus.FAILED, taskRepository.findById(taskId).orElseThrow().getStatus());
+        assertEquals(2, taskRepository.findAttemptsById(taskId));
+        TaskRetry retry = taskRetryRepository.findById(taskId).orElseThrow();
+        assertEquals(2, retry.getAttempt());
+
+        // Net no change at all, yet a third failure
+        taskService.sendTaskEvents(List.of(
+                item(taskId, TaskEvent.RETRY_TASK),
+                item(taskId, TaskEvent.FAIL_TASK)));
+        assertEquals(TaskStatus.FAILED, taskRepository.findById(taskId).orElseThrow().getStatus());
+        assertEquals(3, taskRepository.findAttemptsById(taskId));
+        assertEquals(3, taskRetryRepository.findById(taskId).orElseThrow().getAttempt());
+
+        // The fourth failure uses up the policy's attempts
+        taskService.sendTaskEvents(List.of(
+                item(taskId, TaskEvent.RETRY_TASK),
+                item(taskId, TaskEvent.FAIL_TASK)));
+        assertEquals(4, taskRepository.findAttemptsById(taskId));
+    }
+
+    @Test
+    void aBatchWithoutFailuresLeavesTheAttemptsAlone() {
+        Long taskId = firstTaskOfNewOrder();
+        taskService.sendTaskEvents(List.of(
+                item(taskId, TaskEvent.START_TASK),
+                item(taskId, TaskEvent.COMPLETE_TASK)));
+        assertEquals(0, taskRepository.findAttemptsById(taskId));
+        assertFalse(taskRetryRepository.existsById(taskId));
+    }
+
+    private Long firstTaskOfNewOrder() {
+        Long orderId = orderService.createOrder(new CreateOrderRequest()).getId();
+        return taskRepository.findByOrderId(orderId).stream().map(Task::getId).findFirst().orElseThrow();
+    }
+
+    private static TaskEventBatchItem item(Long taskId, TaskEvent event) {
+        return new TaskEventBatchItem(taskId, event, null);
+    }
+}
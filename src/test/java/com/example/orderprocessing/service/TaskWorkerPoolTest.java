@@ -0,0 +1,139 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.enums.TaskType;
+import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.repository.TaskRepository;
+import com.example.orderprocessing.repository.TaskRetryRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the worker pool against handlers for two task types and checks that every task is claimed once,
+ * only after its prerequisites, and ends in the status its handler's outcome implies. Failed tasks are
+ * retried automatically until their policy gives up.
+ */
+// A database of its own: the workers would claim tasks created by other test classes, and closing this
+// context drops its schema
+@SpringBootTest(properties = {"workflow.worker.threads=4", "workflow.worker.batch-size=5",
+        "workflow.worker.poll-interval=20ms", "workflow.retry.poll-interval=20ms",
+        "workflow.retry.policies[PROCESS_PAYMENT].max-attempts=3",
+        "workflow.retry.policies[PROCESS_PAYMENT].base-delay=10ms",
+        "workflow.retry.policies[PROCESS_PAYMENT].max-delay=20ms",
+        "spring.datasource.url=jdbc:h2:mem:workers;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@DirtiesContext // Stops the workers once the test is done
+class TaskWorkerPoolTest {
+
+    static final Map<Long, AtomicInteger> validations = new ConcurrentHashMap<>();
+    static final Map<Long, AtomicInteger> payments = new ConcurrentHashMap<>();
+    static final Set<Long> validatedOrders = ConcurrentHashMap.newKeySet();
+    static final Set<Long> paidBeforeValidation = ConcurrentHashMap.newKeySet();
+
+    @TestConfiguration
+    static class HandlerConfig {
+        @Bean
+        TaskHandler validationHandler() {
+            return handler(TaskType.VALIDATE_ORDER_DETAILS, (taskId, orderId) -> {
+                validations.computeIfAbsent(taskId, id -> new AtomicInteger()).incrementAndGet();
+                validatedOrders.add(orderId);
+            });
+        }
+
+        @Bean
+        TaskHandler paymentHandler() {
+            return handler(TaskType.PROCESS_PAYMENT, (taskId, orderId) -> {
+                // Payment depends on validation by default
+                if (!validatedOrders.contains(orderId)) {
+                    paidBeforeValidation.add(orderId);
+                }
+                payments.computeIfAbsent(taskId, id -> new AtomicInteger()).incrementAndGet();
+                throw new IllegalStateException("card declined");
+            });
+        }
+
+        private static TaskHandler handler(TaskType type, BiConsumer<Long, Long> body) {
+            return new TaskHandler() {
+                @Override
+                public TaskType taskType() {
+                    return type;
+                }
+
+                @Override
+                public void handle(Long taskId, Long orderId) {
+                    body.accept(taskId, orderId);
+                }
+            };
+        }
+    }
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private TaskRetryRepository taskRetryRepository;
+
+    @Test
+    void workersRunEachHandledTaskOnceAndReportItsOutcome() throws Exception {
+        List<Long> orderIds = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            orderIds.add(orderService.createOrder(new CreateOrderRequest()).getId());
+        }
+
+        List<Task> tasks = awaitHandledTasksSettled(orderIds);
+        for (Task task : tasks) {
+            switch (task.getTaskType()) {
+                case VALIDATE_ORDER_DETAILS -> {
+                    assertEquals(TaskStatus.COMPLETED, task.getStatus());
+                    assertEquals(1, validations.get(task.getId()).get(), "handler runs for task " + task.getId());
+                }
+                case PROCESS_PAYMENT -> {
+                    // Run once, then retried until the policy's three attempts are used up
+                    assertEquals(TaskStatus.FAILED, task.getStatus());
+                    assertEquals(3, task.getAttempts());
+                    assertEquals(3, payments.get(task.getId()).get(), "handler runs for task " + task.getId());
+                }
+                // No handler, so no worker touches it
+                default -> assertEquals(TaskStatus.PENDING, task.getStatus());
+            }
+        }
+        assertEquals(orderIds.size(), validations.size());
+        assertEquals(Set.of(), paidBeforeValidation);
+    }
+
+    private List<Task> awaitHandledTasksSettled(List<Long> orderIds) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            List<Task> tasks = new ArrayList<>();
+            orderIds.forEach(orderId -> tasks.addAll(taskRepository.findByOrderId(orderId)));
+            boolean settled = taskRetryRepository.count() == 0 && tasks.stream()
+                    .filter(task -> task.getTaskType() == TaskType.VALIDATE_ORDER_DETAILS
+                            || task.getTaskType() == TaskType.PROCESS_PAYMENT)
+                    .noneMatch(task -> task.getStatus() == TaskStatus.PENDING
+                            || task.getStatus() == TaskStatus.IN_PROGRESS);
+            if (settled) {
+                return tasks;
+            }
+            assertTrue(System.currentTimeMillis() < deadline, "handled tasks settle within 10s");
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.orderprocessing.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Schedules, replaces and cancels timers, and checks that each expires on exactly its deadline tick,
+ * whichever of the four levels it was first placed in and however many cascades it took to come down.
+ */
+class TimingWheelTest {
+
+    // Not a multiple of any level's span, so every cascade boundary is crossed partway through a slot
+    private static final long START = 1_000_003L;
+
+    @Test
+    void timersExpireOnTheirDeadlineWithTheirState() {
+        TimingWheel wheel = new TimingWheel(START);
+        Map<Long, Long> expiredAt = new HashMap<>();
+        Map<Long, Integer> states = new HashMap<>();
+        wheel.schedule(1, 3, START + 5);
+        wheel.schedule(2, 4, START - 10); // Already passed: expires on the next tick
+        assertEquals(2, wheel.size());
+
+        wheel.advance(START + 4, record(wheel, expiredAt, states));
+        assertEquals(Map.of(2L, START + 1), expiredAt);
+        wheel.advance(START + 5, record(wheel, expiredAt, states));
+        assertEquals(Map.of(1L, START + 5, 2L, START + 1), expiredAt);
+        assertEquals(Map.of(1L, 3, 2L, 4), states);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void schedulingAgainReplacesTheTimerAndCancelledTimersNeverExpire() {
+        TimingWheel wheel = new TimingWheel(START);
+        Map<Long, Long> expiredAt = new HashMap<>();
+        Map<Long, Integer> states = new HashMap<>();
+        wheel.schedule(1, 0, START + 100_000);
+        wheel.schedule(1, 1, START + 20);
+        wheel.schedule(2, 0, START + 70_000);
+        wheel.schedule(3, 0, START + 30);
+        assertEquals(3, wheel.size());
+
+        assertTrue(wheel.cancel(2));
+        assertFalse(wheel.cancel(2));
+        assertFalse(wheel.cancel(99));
+        assertEquals(2, wheel.size());
+
+        wheel.advance(START + 200_000, record(wheel, expiredAt, states));
+        assertEquals(Map.of(1L, START + 20, 3L, START + 30), expiredAt);
+        assertEquals(1, states.get(1L));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void timersCascadeDownFromEveryLevel() {
+        TimingWheel wheel = new TimingWheel(START);
+        // Far enough ahead to be placed in level 3
+        long level3Boundary = ((START >>> 24) + 2) << 24;
+        // Level by level, each first placed in the level named, plus deadlines on slot and level boundaries
+        List<Long> deadlines = List.of(
+                START + 200,                 // level 0
+                START + 256 * 3 + 7,         // level 1
+                START + 65_536L * 2 + 300,   // level 2
+                START + (1L << 24) + 70_000, // level 3
+                ((START >>> 8) + 1) << 8,    // first level 1 boundary
+                ((START >>> 16) + 2) << 16,  // a level 2 boundary
+                level3Boundary,              // straight from level 3 to expiry on the same tick
+                level3Boundary + 1,
+                level3Boundary - 1);
+        for (int i = 0; i < deadlines.size(); i++) {
+            wheel.schedule(i, i, deadlines.get(i));
+        }
+
+        Map<Long, Long> expiredAt = new HashMap<>();
+        Map<Long, Integer> states = new HashMap<>();
+        long last = deadlines.stream().mapToLong(Long::longValue).max().orElseThrow();
+        wheel.advance(last, record(wheel, expiredAt, states));
+
+        assertEquals(deadlines.size(), expiredAt.size());
+        for (int i = 0; i < deadlines.size(); i++) {
+            assertEquals(deadlines.get(i), expiredAt.get((long) i), "timer " + i);
+            assertEquals(i, states.get((long) i));
+        }
+        assertEquals(last, wheel.currentTick());
+    }
+
+    @Test
+    void manyTimersAcrossLevelsEachExpireOnTheirTick() {
+        TimingWheel wheel = new TimingWheel(START);
+        Random random = new Random(42);
+        Map<Long, Long> deadlines = new HashMap<>();
+        for (long id = 0; id < 20_000; id++) {
+            long deadline = START + 1 + random.nextInt(1 << 21);
+            wheel.schedule(id, 0, deadline);
+            deadlines.put(id, deadline);
+        }
+        // Replace and cancel some after the fact
+        for (long id = 0; id < 20_000; id += 7) {
+            long deadline = START + 1 + random.nextInt(1 << 21);
+            wheel.schedule(id, 0, deadline);
+            deadlines.put(id, deadline);
+        }
+        for (long id = 3; id < 20_000; id += 11) {
+            wheel.cancel(id);
+            deadlines.remove(id);
+        }
+        assertEquals(deadlines.size(), wheel.size());
+
+        Map<Long, Long> expiredAt = new HashMap<>();
+        // Advanced in uneven steps, as the scheduler does
+        for (long tick = START; tick < START + (1 << 21); ) {
+            tick = Math.min(tick + 1 + random.nextInt(5_000), START + (1 << 21));
+            wheel.advance(tick, record(wheel, expiredAt, new HashMap<>()));
+        }
+        assertEquals(deadlines, expiredAt);
+        assertEquals(0, wheel.size());
+    }
+
+    private static TimingWheel.ExpiryHandler record(TimingWheel wheel, Map<Long, Long> expiredAt,
+                                                    Map<Long, Integer> states) {
+        return (id, state) -> {
+            assertFalse(expiredAt.containsKey(id), "timer " + id + " expired twice");
+            expiredAt.put(id, wheel.currentTick());
+            states.put(id, state);
+        };
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.orderprocessing.service;
+
+import com.example.orderprocessing.config.WorkflowProperties;
+import com.example.orderprocessing.dto.CreateOrderRequest;
+import com.example.orderprocessing.enums.OrderEvent;
+import com.example.orderprocessing.enums.OrderStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@code SYNC} entries commit and roll back with their transition, and that a full
+ * {@code ASYNC} queue makes a committing thread wait at most the offer timeout before dropping its entries.
+ */
+// A database of its own, as the journal rows of each order are counted
+@SpringBootTest(properties = {"workflow.journal.mode=SYNC",
+        "spring.datasource.url=jdbc:h2:mem:journal;DB_CLOSE_DELAY=-1;INIT=CREATE DOMAIN IF NOT EXISTS JSONB AS JSON"})
+@DirtiesContext
+class TransitionJournalTest {
+
+    @Autowired
+    private TransitionJournal transitionJournal;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void syncEntriesAreWrittenInTheTransactionOfTheTransition() {
+        Long orderId = orderService.createOrder(new CreateOrderRequest()).getId();
+        // Written by the time the event returns, without waiting for a writer
+        orderService.sendOrderEvent(orderId, OrderEvent.PROCESS_ORDER, null);
+        assertEquals(1, countTransitions(orderId));
+
+        transactionTemplate.executeWithoutResult(tx -> {
+            transitionJournal.record(List.of(entry(orderId, "rolled back")));
+            assertEquals(2, countTransitions(orderId));
+            tx.setRollbackOnly();
+        });
+        assertEquals(1, countTransitions(orderId));
+    }
+
+    @Test
+    void entriesThatFindTheQueueFullAreDroppedAfterTheOfferTimeout() throws Exception {
+        Long orderId = orderService.createOrder(new CreateOrderRequest()).getId();
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Holds the writer in its first group until released
+        JdbcTemplate stalledWriter = new JdbcTemplate(dataSource) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.batchUpdate(sql, batchArgs);
+            }
+        };
+        WorkflowProperties properties = new WorkflowProperties();
+        properties.getJournal().setBatchSize(1);
+        properties.getJournal().setQueueCapacity(1);
+        properties.getJournal().setOfferTimeout(Duration.ofMillis(100));
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        TransitionJournal journal = new TransitionJournal(stalledWriter, transactionManager, properties, meterRegistry);
+        journal.start();
+        try {
+            journal.record(List.of(entry(orderId, "written")));
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+            journal.record(List.of(entry(orderId, "queued")));
+
+            long start = System.nanoTime();
+            journal.record(List.of(entry(orderId, "dropped"), entry(orderId, "dropped")));
+            long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(waitedMillis >= 100 && waitedMillis < 5_000, "waited " + waitedMillis + "ms");
+            assertEquals(2, meterRegistry.counter("journal.dropped").count());
+        } finally {
+            release.countDown();
+            journal.stop();
+        }
+        assertEquals(2, meterRegistry.counter("journal.written").count());
+        assertEquals(List.of("written", "queued"), jdbcTemplate.queryForList(
+                "select reason from order_transitions where order_id = ? order by id", String.class, orderId));
+    }
+
+    private int countTransitions(Long orderId) {
+        return jdbcTemplate.queryForObject("select count(*) from order_transitions where order_id = ?",
+                Integer.class, orderId);
+    }
+
+    private static TransitionJournal.Entry entry(Long orderId, String reason) {
+        return TransitionJournal.Entry.order(orderId, OrderStatus.CREATED, OrderStatus.PAYMENT_PENDING,
+                OrderEvent.PROCESS_ORDER, reason, 0);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.orderprocessing.statemachine;
+
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.enums.TaskStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Leases and returns task machines: a returned machine is reused for the next entity, rehydrated to its
+ * state, a stopped or failed one is replaced, and an exhausted pool makes callers wait up to the lease timeout.
+ */
+@SpringBootTest
+class StateMachinePoolTest {
+
+    @Autowired
+    @Qualifier("taskStateMachineFactory")
+    private StateMachineFactory<TaskStatus, TaskEvent> taskStateMachineFactory;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicInteger built = new AtomicInteger();
+
+    @Test
+    void aReturnedMachineIsRehydratedForTheNextLease() {
+        StateMachinePool<TaskStatus, TaskEvent> pool = pool(1, 2, Duration.ofSeconds(5));
+
+        StateMachine<TaskStatus, TaskEvent> first = pool.lease(TaskStatus.IN_PROGRESS, "1", Map.of("TASK_ID", 1L));
+        assertEquals(TaskStatus.IN_PROGRESS, first.getState().getId());
+        assertEquals("1", first.getId());
+        pool.release(first);
+
+        StateMachine<TaskStatus, TaskEvent> second = pool.lease(TaskStatus.FAILED, "2", Map.of("TASK_ID", 2L));
+        assertSame(first, second);
+        assertEquals(TaskStatus.FAILED, second.getState().getId());
+        assertEquals("2", second.getId());
+        assertEquals(Map.of("TASK_ID", 2L), second.getExtendedState().getVariables());
+        pool.release(second);
+
+        assertEquals(1, built.get());
+        assertEquals(1, pool.size());
+        assertEquals(1, pool.idleCount());
+        assertEquals(2, meterRegistry.counter("statemachine.pool.hits", "pool", "tasks").count());
+    }
+
+    @Test
+    void stoppedAndFailedMachinesAreReplaced() {
+        StateMachinePool<TaskStatus, TaskEvent> pool = pool(1, 1, Duration.ofSeconds(5));
+
+        StateMachine<TaskStatus, TaskEvent> stopped = pool.lease(TaskStatus.PENDING, "1", Map.of());
+        stopped.stop();
+        pool.release(stopped);
+        StateMachine<TaskStatus, TaskEvent> failed = pool.lease(TaskStatus.PENDING, "2", Map.of());
+        assertNotSame(stopped, failed);
+        failed.setStateMachineError(new IllegalStateException("action failed"));
+        pool.release(failed);
+        StateMachine<TaskStatus, TaskEvent> replacement = pool.lease(TaskStatus.PENDING, "3", Map.of());
+        assertNotSame(failed, replacement);
+        assertFalse(replacement.hasStateMachineError());
+        pool.release(replacement);
+
+        assertEquals(3, built.get());
+        assertEquals(1, pool.size());
+        assertEquals(2, meterRegistry.counter("statemachine.pool.discards", "pool", "tasks").count());
+    }
+
+    @Test
+    void anExhaustedPoolWaitsForAReturnedMachine() throws Exception {
+        StateMachinePool<TaskStatus, TaskEvent> pool = pool(0, 1, Duration.ofSeconds(5));
+        StateMachine<TaskStatus, TaskEvent> leased = pool.lease(TaskStatus.PENDING, "1", Map.of());
+
+        CompletableFuture<StateMachine<TaskStatus, TaskEvent>> waiting =
+                CompletableFuture.supplyAsync(() -> pool.lease(TaskStatus.IN_PROGRESS, "2", Map.of()));
+        Thread.sleep(200);
+        assertFalse(waiting.isDone());
+        pool.release(leased);
+
+        StateMachine<TaskStatus, TaskEvent> handedOver = waiting.get(5, TimeUnit.SECONDS);
+        assertSame(leased, handedOver);
+        assertEquals(TaskStatus.IN_PROGRESS, handedOver.getState().getId());
+        assertEquals(1, built.get());
+    }
+
+    @Test
+    void anExhaustedPoolGivesUpAfterTheLeaseTimeout() {
+        StateMachinePool<TaskStatus, TaskEvent> pool = pool(1, 1, Duration.ofMillis(100));
+        pool.lease(TaskStatus.PENDING, "1", Map.of());
+
+        long start = System.nanoTime();
+        assertThrows(IllegalStateException.class, () -> pool.lease(TaskStatus.PENDING, "2", Map.of()));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        assertEquals(1, pool.size());
+    }
+
+    private StateMachinePool<TaskStatus, TaskEvent> pool(int initialSize, int maxSize, Duration leaseTimeout) {
+        return new StateMachinePool<>("tasks", taskStateMachineFactory, stateMachine -> built.incrementAndGet(),
+                initialSize, maxSize, leaseTimeout, meterRegistry);
+    }
+}
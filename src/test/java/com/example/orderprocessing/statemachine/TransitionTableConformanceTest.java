@@ -0,0 +1,95 @@
+package com.example.orderprocessing.statemachine;
+
+import com.example.orderprocessing.enums.OrderEvent;
+import com.example.orderprocessing.enums.OrderStatus;
+import com.example.orderprocessing.enums.TaskEvent;
+import com.example.orderprocessing.enums.TaskStatus;
+import com.example.orderprocessing.enums.TaskType;
+import com.example.orderprocessing.model.Order;
+import com.example.orderprocessing.model.Task;
+import com.example.orderprocessing.repository.OrderRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Proves the compiled table accepts and rejects exactly the (state, event) pairs the Spring engine does,
+ * and lands in the same target state.
+ */
+@SpringBootTest
+class TransitionTableConformanceTest {
+
+    @Autowired
+    @Qualifier("orderStateMachineFactory")
+    private StateMachineFactory<OrderStatus, OrderEvent> orderStateMachineFactory;
+
+    @Autowired
+    @Qualifier("taskStateMachineFactory")
+    private StateMachineFactory<TaskStatus, TaskEvent> taskStateMachineFactory;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Test
+    void orderEnginesAgreeWhenGuardPasses() {
+        // No tasks, so all of them are completed
+        Order order = orderRepository.save(new Order());
+        int accepted = assertConformance(orderStateMachineFactory, OrderStatus.class, OrderEvent.class,
+                Map.of("ORDER_ID", order.getId()));
+        assertTrue(accepted > 0);
+    }
+
+    @Test
+    void orderEnginesAgreeWhenGuardRejects() {
+        Order order = new Order();
+        order.addTask(new Task(order, TaskType.VALIDATE_ORDER_DETAILS)); // Still PENDING
+        order = orderRepository.save(order);
+        assertConformance(orderStateMachineFactory, OrderStatus.class, OrderEvent.class,
+                Map.of("ORDER_ID", order.getId()));
+    }
+
+    @Test
+    void taskEnginesAgree() {
+        int accepted = assertConformance(taskStateMachineFactory, TaskStatus.class, TaskEvent.class, Map.of());
+        assertTrue(accepted > 0);
+    }
+
+    private <S extends Enum<S>, E extends Enum<E>> int assertConformance(
+            StateMachineFactory<S, E> factory, Class<S> stateType, Class<E> eventType, Map<String, Object> headers) {
+        TransitionTable<S, E> table = TransitionTable.compile(factory.getStateMachine(), stateType, eventType);
+        int accepted = 0;
+        for (S state : stateType.getEnumConstants()) {
+            for (E event : eventType.getEnumConstants()) {
+                Message<E> message = MessageBuilder.withPayload(event).copyHeaders(headers).build();
+
+                StateMachine<S, E> stateMachine = factory.getStateMachine();
+                stateMachine.getStateMachineAccessor().doWithAllRegions(sma ->
+                        sma.resetStateMachine(new DefaultStateMachineContext<>(state, null, null, null)));
+                stateMachine.start();
+                boolean springAccepted = stateMachine.sendEvent(message) && stateMachine.getState().getId() != state;
+                S springTarget = springAccepted ? stateMachine.getState().getId() : null;
+                stateMachine.stop();
+
+                S tableTarget = table.fire(state, message, new DefaultExtendedState());
+
+                assertEquals(springTarget, tableTarget, "Engines disagree on (" + state + ", " + event + ")");
+                if (tableTarget != null) {
+                    accepted++;
+                }
+            }
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.orderprocessing.support;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives the mailboxes directly: work for a key in submission order on one thread, calls from a key's own
+ * lane run inline, and a full lane refusing work instead of blocking the caller.
+ */
+class KeyedMailboxExecutorTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private KeyedMailboxExecutor mailbox;
+
+    @AfterEach
+    void close() {
+        mailbox.close();
+    }
+
+    @Test
+    void workForAKeyRunsInSubmissionOrderOneItemAtATime() {
+        mailbox = new KeyedMailboxExecutor("test", 4, 10_000, new SimpleMeterRegistry());
+        int keys = 8;
+        int perKey = 500;
+        List<List<Integer>> seen = new ArrayList<>();
+        List<Set<String>> threads = new ArrayList<>();
+        List<AtomicInteger> running = new ArrayList<>();
+        AtomicInteger overlaps = new AtomicInteger();
+        for (int key = 0; key < keys; key++) {
+            seen.add(Collections.synchronizedList(new ArrayList<>()));
+            threads.add(Collections.synchronizedSet(new HashSet<>()));
+            running.add(new AtomicInteger());
+        }
+
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < perKey; i++) {
+            for (int key = 0; key < keys; key++) {
+                int k = key;
+                int sequence = i;
+                results.add(mailbox.submit(k, () -> {
+                    if (running.get(k).incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    seen.get(k).add(sequence);
+                    threads.get(k).add(Thread.currentThread().getName());
+                    running.get(k).decrementAndGet();
+                    return sequence;
+                }));
+            }
+        }
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).orTimeout(10, TimeUnit.SECONDS).join();
+
+        assertEquals(0, overlaps.get());
+        List<Integer> expected = IntStream.range(0, perKey).boxed().toList();
+        for (int key = 0; key < keys; key++) {
+            assertEquals(expected, seen.get(key));
+            assertEquals(1, threads.get(key).size());
+        }
+    }
+
+    @Test
+    void callsFromTheKeysOwnLaneRunInline() {
+        mailbox = new KeyedMailboxExecutor("test", 1, 1, new SimpleMeterRegistry());
+        // Queued behind the outer call, the inner one would never run on the lane's only thread
+        String[] threads = assertTimeoutPreemptively(TIMEOUT, () -> mailbox.execute(7L, () -> {
+            String outer = Thread.currentThread().getName();
+            return new String[]{outer, mailbox.execute(7L, () -> Thread.currentThread().getName())};
+        }));
+        assertEquals("test-mailbox-0", threads[0]);
+        assertEquals(threads[0], threads[1]);
+
+        IllegalArgumentException failure = new IllegalArgumentException("bad event");
+        assertSame(failure, assertThrows(IllegalArgumentException.class, () -> mailbox.execute(7L, () -> {
+            throw failure;
+        })));
+    }
+
+    @Test
+    void aFullLaneRefusesWork() throws Exception {
+        mailbox = new KeyedMailboxExecutor("test", 1, 1, new SimpleMeterRegistry());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> busy = mailbox.submit(1L, () -> {
+            started.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<String> queued = mailbox.submit(2L, () -> "queued");
+        assertEquals(1, mailbox.queueDepth());
+
+        // Refused on the caller's thread, which the controller answers with a 503
+        assertThrows(RejectedExecutionException.class, () -> mailbox.execute(3L, () -> "refused"));
+
+        release.countDown();
+        assertTrue(busy.get(10, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(10, TimeUnit.SECONDS));
+        assertEquals("accepted again", mailbox.execute(3L, () -> "accepted again"));
+    }
+}
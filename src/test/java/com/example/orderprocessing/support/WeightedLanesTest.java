@@ -0,0 +1,78 @@
+package com.example.orderprocessing.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Claims from in-memory lanes the way a transaction claims queued rows: shares by weight, and slots a lane
+ * cannot fill taken by the other lanes, including lanes that got no share in the claim.
+ */
+class WeightedLanesTest {
+
+    // Ready ids per lane; a claim sees its own rows again, as one transaction does, until they are removed
+    private final Map<String, TreeSet<Long>> ready = new LinkedHashMap<>();
+    private final WeightedLanes<String> lanes = new WeightedLanes<>(lanesOf("express", 4, "standard", 1));
+
+    @Test
+    void singleSlotClaimsFindWorkWhenTheChosenLaneIsEmpty() {
+        fill("standard", 1, 10);
+        List<Long> claimed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            List<Long> items = claim(1);
+            assertEquals(1, items.size(), "claim " + i);
+            claimed.addAll(items);
+        }
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), claimed);
+        assertEquals(List.of(), claim(1));
+    }
+
+    @Test
+    void lanesWithWorkGetTheirWeightedShare() {
+        fill("express", 1, 100);
+        fill("standard", 1001, 1100);
+        int express = 0;
+        for (int i = 0; i < 10; i++) {
+            for (long id : claim(5)) {
+                express += id < 1000 ? 1 : 0;
+            }
+        }
+        assertEquals(40, express);
+    }
+
+    @Test
+    void leftoversContinueAfterWhatALaneAlreadyClaimed() {
+        fill("express", 1, 2);
+        fill("standard", 1001, 1010);
+        // express gets 4 slots but has 2 items; standard's second round continues after its first item
+        assertEquals(List.of(1L, 2L, 1001L, 1002L, 1003L), claim(5));
+        assertEquals(List.of(1004L, 1005L, 1006L, 1007L, 1008L, 1009L, 1010L), claim(10));
+    }
+
+    private List<Long> claim(int slots) {
+        List<Long> claimed = lanes.claim(slots, (lane, afterId, limit) -> ready.get(lane).tailSet(afterId, false)
+                .stream().limit(limit).toList(), Long::longValue);
+        ready.values().forEach(ids -> claimed.forEach(ids::remove)); // The claim commits
+        return claimed;
+    }
+
+    private void fill(String lane, long from, long to) {
+        for (long id = from; id <= to; id++) {
+            ready.get(lane).add(id);
+        }
+    }
+
+    private Map<String, Integer> lanesOf(String first, int firstWeight, String second, int secondWeight) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        weights.put(first, firstWeight);
+        weights.put(second, secondWeight);
+        weights.keySet().forEach(lane -> ready.put(lane, new TreeSet<>()));
+        return weights;
+    }
+}
@@ -5,30 +5,113 @@
 -- DROP TABLE IF EXISTS tasks CASCADE;
 -- DROP TABLE IF EXISTS orders CASCADE;
 
+-- Ids are allocated by Hibernate in blocks of 50 (allocationSize), so the sequences step by 50.
+-- On an existing database, schema-postgresql.sql moves them past the largest id on every start.
+CREATE SEQUENCE IF NOT EXISTS orders_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS tasks_seq START WITH 1 INCREMENT BY 50;
+
 CREATE TABLE IF NOT EXISTS orders (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGINT PRIMARY KEY,
     status VARCHAR(50) NOT NULL,
     created_date TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
     updated_date TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
-    metadata JSONB
+    -- Set only when the status changes; SLA deadlines count from it
+    status_changed_at TIMESTAMP WITHOUT TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    version BIGINT NOT NULL DEFAULT 0,
+    task_count INT NOT NULL DEFAULT 0,
+    completed_task_count INT NOT NULL DEFAULT 0,
+    failed_task_count INT NOT NULL DEFAULT 0,
+    cancelled_task_count INT NOT NULL DEFAULT 0,
+    lane VARCHAR(50) NOT NULL DEFAULT 'standard',
+    metadata JSONB,
+    -- Metadata search columns, also added to existing databases by schema-postgresql.sql
+    customer_id TEXT GENERATED ALWAYS AS (metadata #>> '{customerInfo,customerId}') STORED,
+    payment_transaction_id TEXT GENERATED ALWAYS AS (metadata #>> '{paymentDetails,transactionId}') STORED
 );
 
+-- The task counters are kept up to date by the application. On an existing database, schema-postgresql.sql
+-- backfills them from the tasks table on start.
+
 CREATE TABLE IF NOT EXISTS tasks (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGINT PRIMARY KEY,
     order_id BIGINT NOT NULL,
     task_type VARCHAR(50) NOT NULL,
     status VARCHAR(50) NOT NULL,
     created_date TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
     updated_date TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    status_changed_at TIMESTAMP WITHOUT TIME ZONE DEFAULT CURRENT_TIMESTAMP,
     completed_date TIMESTAMP WITHOUT TIME ZONE,
+    version BIGINT NOT NULL DEFAULT 0,
+    pending_prerequisites INT NOT NULL DEFAULT 0,
+    attempts INT NOT NULL DEFAULT 0,
+    lane VARCHAR(50) NOT NULL DEFAULT 'standard',
     CONSTRAINT fk_task_order FOREIGN KEY (order_id) REFERENCES orders(id) ON DELETE CASCADE
 );
 
+-- Automatic retries of failed tasks, at most one per task, deleted by TaskRetryScheduler once fired
+CREATE TABLE IF NOT EXISTS task_retries (
+    task_id BIGINT PRIMARY KEY,
+    order_id BIGINT NOT NULL,
+    task_type VARCHAR(50) NOT NULL,
+    attempt INT NOT NULL,
+    due_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE SEQUENCE IF NOT EXISTS outbox_events_seq START WITH 1 INCREMENT BY 50;
+
+-- Notifications written with the change they announce and deleted once the relay has delivered them
+CREATE TABLE IF NOT EXISTS outbox_events (
+    id BIGINT PRIMARY KEY,
+    event_type VARCHAR(50) NOT NULL,
+    order_id BIGINT NOT NULL,
+    task_id BIGINT,
+    lane VARCHAR(50) NOT NULL DEFAULT 'standard',
+    created_date TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    available_at TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    attempts INT NOT NULL DEFAULT 0,
+    last_error VARCHAR(1000)
+);
+
+-- Append-only history of accepted events, written in groups by TransitionJournal
+CREATE TABLE IF NOT EXISTS order_transitions (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    order_id BIGINT NOT NULL,
+    from_status VARCHAR(50) NOT NULL,
+    to_status VARCHAR(50) NOT NULL,
+    event VARCHAR(50) NOT NULL,
+    reason VARCHAR(1000),
+    occurred_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    latency_micros BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS task_transitions (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    task_id BIGINT NOT NULL,
+    order_id BIGINT NOT NULL,
+    from_status VARCHAR(50) NOT NULL,
+    to_status VARCHAR(50) NOT NULL,
+    event VARCHAR(50) NOT NULL,
+    reason VARCHAR(1000),
+    occurred_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    latency_micros BIGINT NOT NULL
+);
+
 -- Example Indexes (consider adding more based on query patterns)
 CREATE INDEX IF NOT EXISTS idx_orders_status ON orders(status);
+CREATE INDEX IF NOT EXISTS idx_orders_status_id ON orders(status, id);
+CREATE INDEX IF NOT EXISTS idx_orders_created_date ON orders(created_date);
+CREATE INDEX IF NOT EXISTS idx_orders_customer_id_id ON orders(customer_id, id);
+CREATE INDEX IF NOT EXISTS idx_orders_payment_transaction_id ON orders(payment_transaction_id);
+CREATE INDEX IF NOT EXISTS idx_orders_metadata_path_ops ON orders USING GIN (metadata jsonb_path_ops);
 CREATE INDEX IF NOT EXISTS idx_tasks_order_id ON tasks(order_id);
 CREATE INDEX IF NOT EXISTS idx_tasks_status ON tasks(status);
 CREATE INDEX IF NOT EXISTS idx_tasks_order_id_status ON tasks(order_id, status);
+CREATE INDEX IF NOT EXISTS idx_tasks_ready_lane_type_id ON tasks(lane, task_type, id) WHERE status = 'PENDING' AND pending_prerequisites = 0;
+CREATE INDEX IF NOT EXISTS idx_task_retries_due_at ON task_retries(due_at, task_id);
+CREATE INDEX IF NOT EXISTS idx_outbox_events_lane_available_at ON outbox_events(lane, available_at, id);
+CREATE INDEX IF NOT EXISTS idx_outbox_events_order_id ON outbox_events(order_id);
+CREATE INDEX IF NOT EXISTS idx_order_transitions_order_id ON order_transitions(order_id, id);
+CREATE INDEX IF NOT EXISTS idx_task_transitions_task_id ON task_transitions(task_id, id);
 
 -- Trigger to update 'updated_date' on orders (Optional, Hibernate @UpdateTimestamp handles this at app level)
 -- CREATE OR REPLACE FUNCTION update_modified_column()